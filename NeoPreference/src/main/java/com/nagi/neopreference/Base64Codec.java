@@ -0,0 +1,71 @@
+package com.nagi.neopreference;
+
+import java.util.Arrays;
+
+/**
+ * Standard padded Base64 without line breaks, the format {@code android.util.Base64.NO_WRAP} writes. Kept here
+ * because minSdk 21 has no {@code java.util.Base64} and the android one is not available in JVM tests.
+ */
+final class Base64Codec {
+    private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final int[] VALUES = new int[128];
+
+    static {
+        Arrays.fill(VALUES, -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            VALUES[ALPHABET[i]] = i;
+        }
+    }
+
+    private Base64Codec() {
+
+    }
+
+    static String encode(byte[] bytes) {
+        StringBuilder builder = new StringBuilder((bytes.length + 2) / 3 * 4);
+        for (int i = 0; i < bytes.length; i += 3) {
+            int remaining = Math.min(3, bytes.length - i);
+            int chunk = (bytes[i] & 0xff) << 16;
+            if (remaining > 1) {
+                chunk |= (bytes[i + 1] & 0xff) << 8;
+            }
+            if (remaining > 2) {
+                chunk |= bytes[i + 2] & 0xff;
+            }
+            builder.append(ALPHABET[chunk >>> 18 & 0x3f]).append(ALPHABET[chunk >>> 12 & 0x3f]);
+            builder.append(remaining > 1 ? ALPHABET[chunk >>> 6 & 0x3f] : '=');
+            builder.append(remaining > 2 ? ALPHABET[chunk & 0x3f] : '=');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @throws IllegalArgumentException if {@code encoded} is not padded Base64
+     */
+    static byte[] decode(String encoded) {
+        int length = encoded.length();
+        if (length % 4 != 0) {
+            throw new IllegalArgumentException("invalid Base64 length: " + length);
+        }
+        int padding = length == 0 ? 0 : encoded.charAt(length - 1) != '=' ? 0 : encoded.charAt(length - 2) != '=' ? 1 : 2;
+        byte[] bytes = new byte[length / 4 * 3 - padding];
+        int index = 0;
+        for (int i = 0; i < length; i += 4) {
+            int chunk = 0;
+            for (int j = 0; j < 4; j++) {
+                char c = encoded.charAt(i + j);
+                int value;
+                if (c == '=' && i + 4 == length && j >= 4 - padding) {
+                    value = 0;
+                } else if (c >= VALUES.length || (value = VALUES[c]) < 0) {
+                    throw new IllegalArgumentException("invalid Base64 character at " + (i + j));
+                }
+                chunk = chunk << 6 | value;
+            }
+            for (int shift = 16; shift >= 0 && index < bytes.length; shift -= 8) {
+                bytes[index++] = (byte) (chunk >>> shift);
+            }
+        }
+        return bytes;
+    }
+}
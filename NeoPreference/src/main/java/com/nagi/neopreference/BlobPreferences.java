@@ -0,0 +1,459 @@
+package com.nagi.neopreference;
+
+import android.content.SharedPreferences;
+import android.util.Log;
+import androidx.annotation.Nullable;
+
+import java.io.*;
+import java.lang.ref.SoftReference;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+final class BlobPreferences extends ForwardingPreferences {
+    private static final String TAG = "BlobPreferences";
+    private static final long GC_DELAY_SECONDS = 10;
+    // printable, XML 1.0 has no escape for control characters and the whole file would fail to parse
+    private static final String NAMESPACE = "neo-blob:";
+    static final String REFERENCE_PREFIX = NAMESPACE + "v1:";
+    // stored before a user string that starts with the namespace, so it is never taken for a reference
+    static final String ESCAPE_PREFIX = NAMESPACE + "raw:";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final String preferenceName;
+    private final File directory;
+    private final int threshold;
+    private final Map<String, SoftReference<String>> blobCache = new ConcurrentHashMap<>();
+    // blobs referenced by a committed editor whose file may not be written yet, reads and the GC check them first
+    private final Map<String, PendingBlob> pendingBlobs = new HashMap<>();
+    private Map<String, Integer> referenceCounts;
+
+    BlobPreferences(SharedPreferences base, String preferenceName, File directory, int threshold) {
+        super(base);
+        this.preferenceName = preferenceName;
+        this.directory = directory;
+        this.threshold = threshold;
+        // delayed so the scan does not compete with startup or load lazily opened stores early
+        Workers.schedule(this::collectGarbage, GC_DELAY_SECONDS, TimeUnit.SECONDS);
+    }
+
+    static boolean isReference(@Nullable Object value) {
+        return value instanceof String && ((String) value).startsWith(REFERENCE_PREFIX);
+    }
+
+    static String escape(String value) {
+        return value.startsWith(NAMESPACE) ? ESCAPE_PREFIX + value : value;
+    }
+
+    static String unescape(String value) {
+        return value.startsWith(ESCAPE_PREFIX) ? value.substring(ESCAPE_PREFIX.length()) : value;
+    }
+
+    @Nullable
+    private Object decode(String key, @Nullable Object value) {
+        if (isReference(value)) {
+            return readBlob(key, hashOf((String) value));
+        }
+        return value instanceof String ? unescape((String) value) : value;
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        Map<String, Object> all = new HashMap<>(base.getAll());
+        all.replaceAll(this::decode);
+        return all;
+    }
+
+    @Nullable
+    @Override
+    public String getString(String key, @Nullable String defValue) {
+        String value = base.getString(key, defValue);
+        if (value == defValue || value == null) {
+            return value;
+        }
+        if (isReference(value)) {
+            String blob = readBlob(key, hashOf(value));
+            return blob != null ? blob : defValue;
+        }
+        return unescape(value);
+    }
+
+    @Override
+    public Editor edit() {
+        return new BlobEditor(base.edit());
+    }
+
+    static String hashOf(String reference) {
+        return reference.substring(REFERENCE_PREFIX.length());
+    }
+
+    @Nullable
+    private String referenceOf(String key) {
+        try {
+            String value = base.getString(key, null);
+            return isReference(value) ? hashOf(value) : null;
+        } catch (ClassCastException e) {
+            return null;
+        }
+    }
+
+    @Override
+    boolean isExpensiveRead(String key) {
+        String hash = referenceOf(key);
+        if (hash == null) {
+            return super.isExpensiveRead(key);
+        }
+        SoftReference<String> cached = blobCache.get(hash);
+        return pendingValueOf(hash) == null && (cached == null || cached.get() == null);
+    }
+
+    @Nullable
+    private String readBlob(String key, String hash) {
+        String blob = pendingValueOf(hash);
+        if (blob != null) {
+            return blob;
+        }
+        SoftReference<String> cached = blobCache.get(hash);
+        blob = cached != null ? cached.get() : null;
+        if (blob == null) {
+            // beneath the monitored store, whose checks only cover loading the file itself
+            MonitoredPreferences.checkBlobRead(preferenceName, key);
+            File file = new File(directory, hash);
+            try (InputStream inputStream = new FileInputStream(file)) {
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream((int) file.length());
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = inputStream.read(buffer)) != -1) {
+                    outputStream.write(buffer, 0, count);
+                }
+                blob = new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+                blobCache.put(hash, new SoftReference<>(blob));
+            } catch (IOException e) {
+                Log.w(TAG, "read blob failed: " + file, e);
+            }
+        }
+        return blob;
+    }
+
+    /**
+     * Writes the blob file through a temp file, returns false if it could not be written.
+     */
+    private boolean writeBlob(String hash, String value) {
+        File file = new File(directory, hash);
+        if (!file.exists()) {
+            File tempFile = new File(directory, hash + TEMP_SUFFIX);
+            try {
+                if (!directory.isDirectory() && !directory.mkdirs()) {
+                    throw new IOException("can not create directory " + directory);
+                }
+                try (FileOutputStream outputStream = new FileOutputStream(tempFile)) {
+                    outputStream.write(value.getBytes(StandardCharsets.UTF_8));
+                    outputStream.getFD().sync();
+                }
+                if (!tempFile.renameTo(file)) {
+                    throw new IOException("can not rename " + tempFile + " to " + file);
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "write blob failed, fall back to inline value", e);
+                tempFile.delete();
+                return false;
+            }
+        }
+        blobCache.put(hash, new SoftReference<>(value));
+        return true;
+    }
+
+    @Nullable
+    private String pendingValueOf(String hash) {
+        synchronized (pendingBlobs) {
+            PendingBlob pending = pendingBlobs.get(hash);
+            return pending != null ? pending.value : null;
+        }
+    }
+
+    private boolean isPending(String fileName) {
+        String hash = fileName.endsWith(TEMP_SUFFIX) ? fileName.substring(0, fileName.length() - TEMP_SUFFIX.length()) : fileName;
+        synchronized (pendingBlobs) {
+            return pendingBlobs.containsKey(hash);
+        }
+    }
+
+    private void addPending(Map<String, String> blobs) {
+        synchronized (pendingBlobs) {
+            blobs.forEach((hash, value) -> pendingBlobs.computeIfAbsent(hash, h -> new PendingBlob(value)).count++);
+        }
+    }
+
+    private void removePending(Collection<String> hashes) {
+        synchronized (pendingBlobs) {
+            for (String hash : hashes) {
+                PendingBlob pending = pendingBlobs.get(hash);
+                if (pending != null && --pending.count == 0) {
+                    pendingBlobs.remove(hash);
+                }
+            }
+        }
+    }
+
+    private static String sha1(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(bytes);
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Map<String, Integer> ensureReferenceCounts() {
+        if (referenceCounts == null) {
+            referenceCounts = new HashMap<>();
+            for (Object value : base.getAll().values()) {
+                if (isReference(value)) {
+                    referenceCounts.merge(hashOf((String) value), 1, Integer::sum);
+                }
+            }
+        }
+        return referenceCounts;
+    }
+
+    synchronized void collectGarbage() {
+        Map<String, Integer> counts = ensureReferenceCounts();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                // a temp file is in flight while its blob is pending, otherwise it is left from a crash
+                if (!counts.containsKey(name) && !isPending(name)) {
+                    blobCache.remove(name);
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    private synchronized void deleteUnreferenced(Collection<String> hashes) {
+        for (String hash : hashes) {
+            if (!ensureReferenceCounts().containsKey(hash) && !isPending(hash)) {
+                blobCache.remove(hash);
+                new File(directory, hash).delete();
+            }
+        }
+    }
+
+    private final class BlobEditor extends ForwardingEditor {
+        private final Set<String> touchedKeys = new HashSet<>();
+        // key -> value of the strings to spill, hashed now and written on commit
+        private final Map<String, String> spilledValues = new HashMap<>();
+        private final Map<String, String> spilledHashes = new HashMap<>();
+        private boolean clear = false;
+
+        BlobEditor(Editor base) {
+            super(base);
+        }
+
+        @Override
+        public Editor putString(String key, @Nullable String value) {
+            touchedKeys.add(key);
+            if (value != null && value.length() > threshold) {
+                String hash = sha1(value.getBytes(StandardCharsets.UTF_8));
+                spilledValues.put(key, value);
+                spilledHashes.put(key, hash);
+                base.putString(key, REFERENCE_PREFIX + hash);
+            } else {
+                spilledValues.remove(key);
+                spilledHashes.remove(key);
+                base.putString(key, value != null ? escape(value) : null);
+            }
+            return this;
+        }
+
+        @Override
+        public Editor putStringSet(String key, @Nullable Set<String> values) {
+            touch(key);
+            return super.putStringSet(key, values);
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            touch(key);
+            return super.putInt(key, value);
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            touch(key);
+            return super.putLong(key, value);
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            touch(key);
+            return super.putFloat(key, value);
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            touch(key);
+            return super.putBoolean(key, value);
+        }
+
+        @Override
+        public Editor remove(String key) {
+            touch(key);
+            return super.remove(key);
+        }
+
+        private void touch(String key) {
+            touchedKeys.add(key);
+            spilledValues.remove(key);
+            spilledHashes.remove(key);
+        }
+
+        @Override
+        public Editor clear() {
+            clear = true;
+            return super.clear();
+        }
+
+        private Map<String, String> blobsOf(Map<String, String> spilledHashes, Map<String, String> spilledValues) {
+            Map<String, String> blobs = new HashMap<>();
+            spilledHashes.forEach((key, hash) -> blobs.put(hash, spilledValues.get(key)));
+            return blobs;
+        }
+
+        @Override
+        public boolean commit() {
+            Map<String, String> blobs = blobsOf(spilledHashes, spilledValues);
+            addPending(blobs);
+            try {
+                // commit() is synchronous, so the blobs are written on this thread before the references
+                Set<String> failedHashes = new HashSet<>();
+                blobs.forEach((hash, value) -> {
+                    if (!writeBlob(hash, value)) {
+                        failedHashes.add(hash);
+                    }
+                });
+                spilledHashes.forEach((key, hash) -> {
+                    if (failedHashes.contains(hash)) {
+                        base.putString(key, escape(spilledValues.get(key)));
+                    }
+                });
+                List<String> released;
+                boolean result;
+                synchronized (BlobPreferences.this) {
+                    released = release();
+                    result = base.commit();
+                    retain();
+                }
+                deleteUnreferenced(released);
+                return result;
+            } finally {
+                removePending(blobs.keySet());
+            }
+        }
+
+        @Override
+        public void apply() {
+            Map<String, String> spilledHashes = new HashMap<>(this.spilledHashes);
+            Map<String, String> spilledValues = new HashMap<>(this.spilledValues);
+            Map<String, String> blobs = blobsOf(spilledHashes, spilledValues);
+            List<String> released;
+            addPending(blobs);
+            synchronized (BlobPreferences.this) {
+                released = release();
+                base.apply();
+                retain();
+            }
+            if (!released.isEmpty() || !blobs.isEmpty()) {
+                // the blobs are read from memory until written here, off the caller's thread; like a lost apply,
+                // a crash before that leaves a reference which reads as the default value
+                Workers.execute(() -> {
+                    try {
+                        writePendingBlobs(blobs, spilledHashes, spilledValues);
+                        if (!released.isEmpty()) {
+                            // wait for the queued write to reach disk before the old blobs go away
+                            BlobPreferences.this.base.edit().commit();
+                            deleteUnreferenced(released);
+                        }
+                    } finally {
+                        removePending(blobs.keySet());
+                    }
+                });
+            }
+        }
+
+        private List<String> release() {
+            Map<String, Integer> counts = ensureReferenceCounts();
+            List<String> released = new ArrayList<>();
+            if (clear) {
+                released.addAll(counts.keySet());
+                counts.clear();
+            } else {
+                for (String key : touchedKeys) {
+                    String hash = referenceOf(key);
+                    if (hash != null && counts.merge(hash, -1, Integer::sum) <= 0) {
+                        counts.remove(hash);
+                        released.add(hash);
+                    }
+                }
+            }
+            return released;
+        }
+
+        private void retain() {
+            Map<String, Integer> counts = ensureReferenceCounts();
+            for (String key : touchedKeys) {
+                String hash = referenceOf(key);
+                if (hash != null) {
+                    counts.merge(hash, 1, Integer::sum);
+                }
+            }
+            touchedKeys.clear();
+            spilledHashes.clear();
+            spilledValues.clear();
+            clear = false;
+        }
+    }
+
+    private void writePendingBlobs(Map<String, String> blobs, Map<String, String> spilledHashes, Map<String, String> spilledValues) {
+        Set<String> failedHashes = new HashSet<>();
+        blobs.forEach((hash, value) -> {
+            if (!writeBlob(hash, value)) {
+                failedHashes.add(hash);
+            }
+        });
+        if (failedHashes.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            // store the value inline where the key still refers to a blob that could not be written
+            Editor editor = base.edit();
+            Map<String, Integer> counts = ensureReferenceCounts();
+            spilledHashes.forEach((key, hash) -> {
+                if (failedHashes.contains(hash) && hash.equals(referenceOf(key))) {
+                    editor.putString(key, escape(spilledValues.get(key)));
+                    if (counts.merge(hash, -1, Integer::sum) <= 0) {
+                        counts.remove(hash);
+                    }
+                }
+            });
+            editor.apply();
+        }
+    }
+
+    private static final class PendingBlob {
+        final String value;
+        int count;
+
+        PendingBlob(String value) {
+            this.value = value;
+        }
+    }
+}
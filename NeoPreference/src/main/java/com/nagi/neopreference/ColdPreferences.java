@@ -0,0 +1,151 @@
+package com.nagi.neopreference;
+
+import android.content.SharedPreferences;
+import androidx.annotation.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * The secondary file of a config with {@link Config.Cold} properties. Values written to the main file before the
+ * properties were marked cold are moved here on the worker, until then reads of a cold key fall back to the main file.
+ */
+final class ColdPreferences extends ForwardingPreferences {
+    private final String preferenceName;
+    private final SharedPreferences hot;
+    private final Set<String> coldKeys;
+    private final AtomicBoolean migrated;
+    // removed before the migration, so neither read from the main file nor moved from there
+    private final Set<String> removedKeys = ConcurrentHashMap.newKeySet();
+
+    private ColdPreferences(SharedPreferences cold, String preferenceName, SharedPreferences hot, Set<String> coldKeys, AtomicBoolean migrated) {
+        super(cold);
+        this.preferenceName = preferenceName;
+        this.hot = hot;
+        this.coldKeys = coldKeys;
+        this.migrated = migrated;
+    }
+
+    /**
+     * Splits a config into {@code hot} and the cold file, which is opened by {@code coldOpener} on the first use
+     * of a cold key and left out of {@link SharedPreferences#getAll()} until then.
+     */
+    static ShardedPreferences partition(String preferenceName, SharedPreferences hot, String coldName,
+                                        Function<String, SharedPreferences> coldOpener, Set<String> coldKeys) {
+        AtomicBoolean migrated = new AtomicBoolean(false);
+        Map<String, Function<String, SharedPreferences>> partitions = new LinkedHashMap<>();
+        partitions.put(preferenceName, name -> hot);
+        partitions.put(coldName, name -> new ColdPreferences(coldOpener.apply(name), preferenceName, hot, coldKeys, migrated));
+        ShardedPreferences preferences = new ShardedPreferences(partitions,
+                key -> coldKeys.contains(ExpiringPreferences.valueKeyOf(key)) ? coldName : preferenceName, Collections.singleton(coldName));
+        Workers.execute(() -> {
+            if (coldKeys.stream().anyMatch(key -> hot.contains(key) || hot.contains(ExpiringPreferences.DEADLINE_PREFIX + key))) {
+                ((ColdPreferences) preferences.shard(coldName)).migrate();
+            }
+            migrated.set(true);
+        });
+        return preferences;
+    }
+
+    private boolean isCold(String key) {
+        return coldKeys.contains(ExpiringPreferences.valueKeyOf(key));
+    }
+
+    private void migrate() {
+        Map<String, ?> hotValues = hot.getAll();
+        SharedPreferences.Editor hotEditor = hot.edit();
+        for (String key : hotValues.keySet()) {
+            if (isCold(key)) {
+                // writers hold the same lock, so a value set meanwhile is not overwritten by the old one
+                synchronized (KeyLocks.of(preferenceName, ExpiringPreferences.valueKeyOf(key))) {
+                    if (!base.contains(key) && !removedKeys.contains(key)) {
+                        SharedPreferences.Editor coldEditor = base.edit();
+                        PreferenceValues.put(coldEditor, key, hotValues.get(key));
+                        coldEditor.apply();
+                    }
+                }
+                hotEditor.remove(key);
+            }
+        }
+        hotEditor.apply();
+    }
+
+    private boolean fallsBack(String key) {
+        return !migrated.get() && isCold(key) && !removedKeys.contains(key) && !base.contains(key);
+    }
+
+    @Override
+    public Editor edit() {
+        if (migrated.get()) {
+            return base.edit();
+        }
+        return new ForwardingEditor(base.edit()) {
+            @Override
+            public Editor remove(String key) {
+                removedKeys.add(key);
+                return super.remove(key);
+            }
+
+            @Override
+            public Editor clear() {
+                for (String key : coldKeys) {
+                    removedKeys.add(key);
+                    removedKeys.add(ExpiringPreferences.DEADLINE_PREFIX + key);
+                }
+                return super.clear();
+            }
+        };
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        Map<String, Object> all = new HashMap<>(base.getAll());
+        if (!migrated.get()) {
+            hot.getAll().forEach((key, value) -> {
+                if (isCold(key) && !removedKeys.contains(key)) {
+                    all.putIfAbsent(key, value);
+                }
+            });
+        }
+        return all;
+    }
+
+    @Nullable
+    @Override
+    public String getString(String key, @Nullable String defValue) {
+        return fallsBack(key) ? hot.getString(key, defValue) : base.getString(key, defValue);
+    }
+
+    @Nullable
+    @Override
+    public Set<String> getStringSet(String key, @Nullable Set<String> defValues) {
+        return fallsBack(key) ? hot.getStringSet(key, defValues) : base.getStringSet(key, defValues);
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        return fallsBack(key) ? hot.getInt(key, defValue) : base.getInt(key, defValue);
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        return fallsBack(key) ? hot.getLong(key, defValue) : base.getLong(key, defValue);
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        return fallsBack(key) ? hot.getFloat(key, defValue) : base.getFloat(key, defValue);
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        return fallsBack(key) ? hot.getBoolean(key, defValue) : base.getBoolean(key, defValue);
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return base.contains(key) || (fallsBack(key) && hot.contains(key));
+    }
+}
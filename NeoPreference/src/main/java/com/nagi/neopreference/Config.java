@@ -1,26 +1,29 @@
 package com.nagi.neopreference;
 
-import android.util.Pair;
 import androidx.annotation.Keep;
 
 import java.lang.annotation.*;
 import java.util.*;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.TimeUnit;
 
 @Keep
 public interface Config {
 
     List<Property<?>> getAll();
 
-    Map<Class<? extends Annotation>, Class<?>> ITEM_ANNOTATION_MAP = Collections.unmodifiableMap(Stream
-            .of(new Pair<>(StringItem.class, String.class),
-                    new Pair<>(IntItem.class, Integer.class),
-                    new Pair<>(BooleanItem.class, Boolean.class),
-                    new Pair<>(FloatItem.class, Float.class),
-                    new Pair<>(LongItem.class, Long.class),
-                    new Pair<>(StringSetItem.class, Set.class))
-            .collect(Collectors.toMap(p -> p.first, p -> p.second)));
+    Map<Class<? extends Annotation>, Class<?>> ITEM_ANNOTATION_MAP = Collections.unmodifiableMap(new HashMap<Class<? extends Annotation>, Class<?>>() {{
+        put(StringItem.class, String.class);
+        put(IntItem.class, Integer.class);
+        put(BooleanItem.class, Boolean.class);
+        put(FloatItem.class, Float.class);
+        put(LongItem.class, Long.class);
+        put(StringSetItem.class, Set.class);
+        put(CounterItem.class, Long.class);
+        put(DoubleItem.class, Double.class);
+        put(IntArrayItem.class, int[].class);
+        put(LongArrayItem.class, long[].class);
+        put(EnumItem.class, Enum.class);
+    }});
 
     @Retention(RetentionPolicy.RUNTIME)
     @Target(ElementType.TYPE)
@@ -28,6 +31,106 @@ public interface Config {
         String value();
     }
 
+    /**
+     * Keeps the config in process memory only, values are never written to disk.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.TYPE)
+    @interface Volatile {
+    }
+
+    /**
+     * Removes stored keys which are no longer declared by any Property method, in the background shortly after
+     * the config is opened. Keys in {@code keep} are never removed, {@code dryRun} only logs the orphan keys.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.TYPE)
+    @interface RemoveOrphans {
+        String[] keep() default {};
+
+        boolean dryRun() default false;
+    }
+
+    /**
+     * Shares the config between processes: only the {@code owner} process writes, other processes read a replica
+     * which is reloaded when the file changes. {@code owner} is a process name, a name starting with ':' is relative
+     * to the package name and an empty one means the main process.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.TYPE)
+    @interface MultiProcess {
+        String owner() default "";
+    }
+
+    /**
+     * Appends every write to a fsync'd journal before applying it in memory, so committed values survive a crash
+     * without waiting for the whole file to be rewritten. The file of {@link Cold} properties has its own journal.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.TYPE)
+    @interface Journaled {
+    }
+
+    /**
+     * Enables override layers for QA and experiments: values in the {@code <name>_override} file and values set
+     * through {@link ConfigManager#setOverride(String, String, Object)} take precedence over persisted values.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.TYPE)
+    @interface Overridable {
+    }
+
+    /**
+     * String values longer than {@link #threshold()} chars are moved into separate blob files,
+     * the config file only keeps a reference to them.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.TYPE)
+    @interface SpillOver {
+        int threshold() default 4096;
+    }
+
+    /**
+     * Spreads the config over several files, a write only rewrites the file holding the key.
+     * Keys are distributed by hash into {@link #count()} files unless the method is annotated with {@link Shard}.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.TYPE)
+    @interface Sharded {
+        int count() default 4;
+    }
+
+    /**
+     * Stores the property in the file {@code <config name>_<value>}, "shard0", "shard1"..., "cold" and "override"
+     * are reserved.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.METHOD)
+    @interface Shard {
+        String value();
+    }
+
+    /**
+     * Marks a rarely used property, it is stored in a secondary file which is only loaded when
+     * a cold property is first touched.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.METHOD)
+    @interface Cold {
+    }
+
+    /**
+     * The value expires {@link #value()} after it is set, an expired property reads as its default value.
+     * Not supported on a {@link PropertyMap} or a {@link Group}.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.METHOD)
+    @interface Expires {
+        long value();
+
+        TimeUnit unit() default TimeUnit.MILLISECONDS;
+    }
+
     @Target(value = ElementType.METHOD)
     @Retention(value = RetentionPolicy.RUNTIME)
     @Inherited
@@ -41,6 +144,12 @@ public interface Config {
         String defaultValue() default "";
 
         String description() default "";
+
+        /**
+         * Stores the index into {@link #valueOf()} instead of the string, so only append new values.
+         * Values stored as strings before are still read.
+         */
+        boolean compact() default false;
     }
 
     @Target(value = ElementType.METHOD)
@@ -115,4 +224,98 @@ public interface Config {
 
         String description() default "";
     }
+
+    @Target(value = ElementType.METHOD)
+    @Retention(value = RetentionPolicy.RUNTIME)
+    @Inherited
+    @interface DoubleItem {
+        String key() default "";
+
+        double defaultValue() default 0;
+
+        double start() default -Double.MAX_VALUE;
+
+        double to() default Double.MAX_VALUE;
+
+        String description() default "";
+    }
+
+    @Target(value = ElementType.METHOD)
+    @Retention(value = RetentionPolicy.RUNTIME)
+    @Inherited
+    @interface IntArrayItem {
+        String key() default "";
+
+        String description() default "";
+    }
+
+    @Target(value = ElementType.METHOD)
+    @Retention(value = RetentionPolicy.RUNTIME)
+    @Inherited
+    @interface LongArrayItem {
+        String key() default "";
+
+        String description() default "";
+    }
+
+    /**
+     * Stores an enum as an int code, the ordinal unless the constants are annotated with {@link EnumCode}.
+     * {@link #defaultValue()} is the name of the default constant.
+     */
+    @Target(value = ElementType.METHOD)
+    @Retention(value = RetentionPolicy.RUNTIME)
+    @Inherited
+    @interface EnumItem {
+        String key() default "";
+
+        String defaultValue() default "";
+
+        String description() default "";
+    }
+
+    /**
+     * Stable code of an enum constant, keeps stored values valid when constants are reordered.
+     */
+    @Target(value = ElementType.FIELD)
+    @Retention(value = RetentionPolicy.RUNTIME)
+    @interface EnumCode {
+        int value();
+    }
+
+    /**
+     * Annotation for {@link Counter} properties, increments are kept in memory and persisted in batches.
+     */
+    @Target(value = ElementType.METHOD)
+    @Retention(value = RetentionPolicy.RUNTIME)
+    @Inherited
+    @interface CounterItem {
+        String key() default "";
+
+        long defaultValue() default 0;
+
+        String description() default "";
+    }
+
+    /**
+     * Binds a plain class with a no-argument constructor to one key per field, named {@code <key>_<field name>}.
+     * The fields are read together and written in one commit, listeners get one event per update. {@link Cold} and
+     * {@link Shard} move all fields to that file, {@link Expires} is not supported.
+     */
+    @Target(value = ElementType.METHOD)
+    @Retention(value = RetentionPolicy.RUNTIME)
+    @Inherited
+    @interface Group {
+        String key() default "";
+
+        String description() default "";
+    }
+
+    /**
+     * Limits a {@link PropertyMap} to {@code value} entries, the least recently set entries are removed first.
+     */
+    @Target(value = ElementType.METHOD)
+    @Retention(value = RetentionPolicy.RUNTIME)
+    @interface MaxSize {
+        int value();
+    }
 }
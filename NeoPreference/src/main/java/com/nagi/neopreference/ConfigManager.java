@@ -3,21 +3,56 @@ package com.nagi.neopreference;
 import android.app.Application;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.util.Log;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.core.util.Pair;
 import androidx.lifecycle.DefaultLifecycleObserver;
 import androidx.lifecycle.LifecycleOwner;
+import com.blankj.utilcode.util.ProcessUtils;
 import com.blankj.utilcode.util.Utils;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Proxy;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 public class ConfigManager {
 
     private static final ConfigManager sInstance = new ConfigManager();
 
+    private static final String BLOB_DIRECTORY = "neo_blobs";
+
+    private static final String TAG = "ConfigManager";
+
+    private static final long ORPHAN_REMOVAL_DELAY_SECONDS = 10;
+
+    private static final String JOURNAL_DIRECTORY = "neo_journal";
+
+    private static final int DEFAULT_SCOPED_CONFIG_CAPACITY = 8;
+
+    private static final String OVERRIDE_SUFFIX = "_override";
+
+    private static final String COLD_SUFFIX = "_cold";
+
+    // the suffixes of the hash shard, cold and override files
+    private static final Pattern RESERVED_SHARD_NAME = Pattern.compile("shard[0-9]+|cold|override");
+
+    private static final Pattern SHARD_NAME = Pattern.compile("[A-Za-z0-9_.-]+");
+
     public static void registerFactory(PropertyFactory<?, ?> factory) {
         Factories.registerAdapter(factory);
     }
@@ -34,6 +69,39 @@ public class ConfigManager {
 
     private final Map<String, Set<Listener>> listenerMap = new ConcurrentHashMap<>();
 
+    private final Map<String, SharedPreferences> volatileMap = new ConcurrentHashMap<>();
+
+    private final Map<String, SharedPreferences> storeMap = new ConcurrentHashMap<>();
+
+    private final Map<String, StoredConfig> storedConfigMap = new ConcurrentHashMap<>();
+
+    private final Map<String, ShardedPreferences> partitionMap = new ConcurrentHashMap<>();
+
+    private final Map<String, Map<String, Object>> overrideMap = new ConcurrentHashMap<>();
+
+    // the properties of every open config by key, to encode and announce overrides
+    private final Map<String, Map<String, DeclaredProperty>> declaredPropertyMap = new ConcurrentHashMap<>();
+
+    private volatile int overrideVersion = 0;
+    private final AtomicLong elidedWriteCount = new AtomicLong();
+
+    private int scopedConfigCapacity = DEFAULT_SCOPED_CONFIG_CAPACITY;
+
+    // released scoped configs, getConfig returns them again while any of their properties is still reachable
+    private final Map<String, WeakReference<ScopedConfig>> releasedConfigMap = new HashMap<>();
+
+    private final LinkedHashMap<String, ScopedConfig> scopedConfigMap = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ScopedConfig> eldest) {
+            if (size() > scopedConfigCapacity) {
+                release(eldest.getValue());
+                return true;
+            } else {
+                return false;
+            }
+        }
+    };
+
     public <P extends Config> P getConfig(Class<P> pClass) {
         return getConfig(pClass, Context.MODE_PRIVATE);
     }
@@ -42,28 +110,684 @@ public class ConfigManager {
     public <P extends Config> P getConfig(Class<P> pClass, int mode) {
         return (P) Optional.ofNullable(preferenceMap.get(pClass))
                 .orElseGet(() -> {
-                    Config.Name nameAnnotation = pClass.getAnnotation(Config.Name.class);
-                    String prefName = nameAnnotation == null ? pClass.getCanonicalName() : nameAnnotation.value();
-                    Application application = Utils.getApp();
-                    SharedPreferences preferences = application.getSharedPreferences(prefName, mode);
-                    Map<String, Lazy<Property<?>>> map = Arrays.stream(pClass.getMethods())
-                            .filter(method -> method.getReturnType().equals(Property.class))
-                            .map(method -> new Pair<>(method.getName(), PropertyFactory.get(prefName, preferences, method)))
-                            .collect(Collectors.toMap(pair -> pair.first, pair -> pair.second));
-                    P preference = (P) Proxy.newProxyInstance(pClass.getClassLoader(), new Class[]{pClass}, (proxy, method, args) -> {
-                        if (method.getReturnType().equals(Property.class)) {
-                            return map.get(method.getName()).get();
-                        } else if (method.getReturnType().equals(List.class) && method.getName().equals("getAll")) {
-                            return map.values().stream()
-                                    .map(Lazy::get)
-                                    .collect(Collectors.toList());
-                        } else {
-                            throw new IllegalStateException(String.format("can not call method[%s]", method.getName()));
+                    String prefName = nameOf(pClass);
+                    boolean traced = ConfigTrace.begin("getConfig", prefName, null);
+                    try {
+                        P preference = createConfig(pClass, prefName, openPreferences(pClass, prefName, mode));
+                        preferenceMap.put(pClass, preference);
+                        return preference;
+                    } finally {
+                        ConfigTrace.end(traced);
+                    }
+                });
+    }
+
+    public <P extends Config> P getConfig(Class<P> pClass, String scope) {
+        return getConfig(pClass, scope, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Returns the config of {@code pClass} stored in its own file per scope, e.g. per account.
+     * At most {@link #setScopedConfigCapacity(int)} scoped configs are kept, the least recently used one
+     * is flushed and released when the capacity is exceeded. A released config whose properties are still
+     * in use is returned again instead of opening the file a second time.
+     */
+    @SuppressWarnings("unchecked")
+    public <P extends Config> P getConfig(Class<P> pClass, String scope, int mode) {
+        if (scope == null || scope.isEmpty()) {
+            throw new IllegalArgumentException("scope can not be empty");
+        }
+        String cacheKey = pClass.getName() + "/" + scope;
+        synchronized (scopedConfigMap) {
+            ScopedConfig scopedConfig = scopedConfigMap.get(cacheKey);
+            if (scopedConfig == null) {
+                scopedConfig = revive(cacheKey);
+            }
+            if (scopedConfig == null) {
+                String prefName = nameOf(pClass) + "_" + encodeScope(scope);
+                boolean traced = ConfigTrace.begin("getConfig", prefName, null);
+                try {
+                    SharedPreferences preferences = openPreferences(pClass, prefName, mode);
+                    ScopedPreferences scopedPreferences = new ScopedPreferences(preferences);
+                    Config config = createConfig(pClass, prefName, scopedPreferences);
+                    scopedConfig = new ScopedConfig(cacheKey, prefName, config, preferences, declaredPropertyMap.get(prefName),
+                            storedConfigMap.get(prefName), partitionMap.get(prefName), volatileMap.get(prefName));
+                    scopedPreferences.owner = scopedConfig;
+                } finally {
+                    ConfigTrace.end(traced);
+                }
+            }
+            scopedConfigMap.put(cacheKey, scopedConfig);
+            return (P) scopedConfig.config;
+        }
+    }
+
+    /**
+     * Percent-encodes the UTF-8 bytes of {@code scope} other than [A-Za-z0-9_.-], so distinct scopes get distinct file names.
+     */
+    static String encodeScope(String scope) {
+        StringBuilder builder = new StringBuilder(scope.length());
+        for (byte b : scope.getBytes(StandardCharsets.UTF_8)) {
+            int c = b & 0xFF;
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '_' || c == '.' || c == '-') {
+                builder.append((char) c);
+            } else {
+                builder.append('%').append(Character.toUpperCase(Character.forDigit(c >> 4, 16)))
+                        .append(Character.toUpperCase(Character.forDigit(c & 0xF, 16)));
+            }
+        }
+        return builder.toString();
+    }
+
+    @Nullable
+    private ScopedConfig revive(String cacheKey) {
+        WeakReference<ScopedConfig> reference = releasedConfigMap.remove(cacheKey);
+        ScopedConfig scopedConfig = reference != null ? reference.get() : null;
+        if (scopedConfig != null) {
+            String prefName = scopedConfig.prefName;
+            storeMap.put(prefName, scopedConfig.preferences);
+            declaredPropertyMap.put(prefName, scopedConfig.declaredProperties);
+            if (scopedConfig.storedConfig != null) {
+                storedConfigMap.put(prefName, scopedConfig.storedConfig);
+            }
+            if (scopedConfig.partition != null) {
+                partitionMap.put(prefName, scopedConfig.partition);
+            }
+            if (scopedConfig.volatileStore != null) {
+                volatileMap.put(prefName, scopedConfig.volatileStore);
+            }
+        }
+        return scopedConfig;
+    }
+
+    public void setScopedConfigCapacity(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        synchronized (scopedConfigMap) {
+            scopedConfigCapacity = capacity;
+            Iterator<ScopedConfig> iterator = scopedConfigMap.values().iterator();
+            while (scopedConfigMap.size() > capacity && iterator.hasNext()) {
+                ScopedConfig eldest = iterator.next();
+                iterator.remove();
+                release(eldest);
+            }
+        }
+    }
+
+    // called with the lock of scopedConfigMap held, like revive, so a scope is never half released
+    private void release(ScopedConfig scopedConfig) {
+        String prefName = scopedConfig.prefName;
+        storeMap.remove(prefName, scopedConfig.preferences);
+        declaredPropertyMap.remove(prefName, scopedConfig.declaredProperties);
+        // the released config keeps these reachable only while its properties are in use
+        storedConfigMap.remove(prefName, scopedConfig.storedConfig);
+        partitionMap.remove(prefName, scopedConfig.partition);
+        volatileMap.remove(prefName, scopedConfig.volatileStore);
+        releasedConfigMap.values().removeIf(reference -> reference.get() == null);
+        releasedConfigMap.put(scopedConfig.cacheKey, new WeakReference<>(scopedConfig));
+        DeferredWrites.flushAll();
+        Workers.execute(() -> ConfigTrace.commit(scopedConfig.prefName, scopedConfig.preferences.edit()));
+    }
+
+    private static String nameOf(Class<?> pClass) {
+        Config.Name nameAnnotation = pClass.getAnnotation(Config.Name.class);
+        return nameAnnotation == null ? pClass.getCanonicalName() : nameAnnotation.value();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <P extends Config> P createConfig(Class<P> pClass, String prefName, SharedPreferences preferences) {
+        Map<String, Lazy<Property<?>>> map = Arrays.stream(pClass.getMethods())
+                .filter(method -> Property.class.isAssignableFrom(method.getReturnType()))
+                .map(method -> new Pair<>(method.getName(), PropertyFactory.get(prefName, preferences, method)))
+                .collect(Collectors.toMap(pair -> pair.first, pair -> pair.second));
+        Map<String, DeclaredProperty> declaredProperties = new HashMap<>();
+        for (Method method : pClass.getMethods()) {
+            if (Property.class.isAssignableFrom(method.getReturnType())) {
+                declaredProperties.put(PropertyFactory.keyOf(method), new DeclaredProperty(method, storedKeysOf(method), map.get(method.getName())));
+            }
+        }
+        declaredPropertyMap.put(prefName, declaredProperties);
+        Map<String, Lazy<PropertyMap<?, ?>>> propertyMaps = Arrays.stream(pClass.getMethods())
+                .filter(method -> method.getReturnType().equals(PropertyMap.class))
+                .collect(Collectors.toMap(Method::getName, method -> PropertyFactory.getMap(prefName, preferences, method)));
+        return (P) Proxy.newProxyInstance(pClass.getClassLoader(), new Class[]{pClass}, (proxy, method, args) -> {
+            if (Property.class.isAssignableFrom(method.getReturnType())) {
+                Lazy<Property<?>> property = map.get(method.getName());
+                if (property.isEvaluated()) {
+                    return property.get();
+                }
+                boolean traced = ConfigTrace.begin("createProperty", prefName, method.getName());
+                try {
+                    return property.get();
+                } finally {
+                    ConfigTrace.end(traced);
+                }
+            } else if (method.getReturnType().equals(PropertyMap.class)) {
+                return propertyMaps.get(method.getName()).get();
+            } else if (method.getReturnType().equals(List.class) && method.getName().equals("getAll")) {
+                return map.values().stream()
+                        .map(Lazy::get)
+                        .collect(Collectors.toList());
+            } else {
+                throw new IllegalStateException(String.format("can not call method[%s]", method.getName()));
+            }
+        });
+    }
+
+    private SharedPreferences openPreferences(Class<?> pClass, String prefName, int mode) {
+        checkPropertyMapPrefixes(pClass);
+        SharedPreferences preferences = pClass.isAnnotationPresent(Config.Volatile.class)
+                ? volatileMap.computeIfAbsent(prefName, name -> new MemoryPreferences())
+                : openPersistentPreferences(pClass, prefName, mode);
+        if (MonitoredPreferences.getPolicy() != DiskAccessPolicy.OFF && !pClass.isAnnotationPresent(Config.Volatile.class)) {
+            preferences = new MonitoredPreferences(preferences, prefName);
+        }
+        Map<String, Long> ttlMap = expirationsOf(pClass);
+        if (!ttlMap.isEmpty()) {
+            preferences = new ExpiringPreferences(preferences, ttlMap);
+        }
+        if (pClass.isAnnotationPresent(Config.Overridable.class)) {
+            SharedPreferences fileLayer = pClass.isAnnotationPresent(Config.Volatile.class)
+                    ? new MemoryPreferences()
+                    : Utils.getApp().getSharedPreferences(prefName + OVERRIDE_SUFFIX, Context.MODE_PRIVATE);
+            preferences = new OverridePreferences(preferences, prefName, fileLayer);
+        }
+        storeMap.put(prefName, preferences);
+        if (!pClass.isAnnotationPresent(Config.Volatile.class)) {
+            Set<String> declaredPrefixes = new HashSet<>();
+            Set<String> declaredKeys = declaredKeysOf(pClass, declaredPrefixes);
+            StoredConfig storedConfig = new StoredConfig(declaredKeys, declaredPrefixes, fileNamesOf(pClass, prefName));
+            storedConfigMap.put(prefName, storedConfig);
+            scheduleOrphanRemoval(pClass, prefName, storedConfig);
+        }
+        return preferences;
+    }
+
+    private SharedPreferences openPersistentPreferences(Class<?> pClass, String prefName, int mode) {
+        Application application = Utils.getApp();
+        DeferredWrites.attach(application);
+        if (pClass.isAnnotationPresent(Config.MultiProcess.class)) {
+            checkMultiProcess(pClass);
+            if (isReplica(pClass)) {
+                return new ReplicaPreferences(application, prefName, ownerProcessOf(pClass));
+            }
+        }
+        SharedPreferences preferences;
+        Config.Sharded sharded = pClass.getAnnotation(Config.Sharded.class);
+        if (sharded != null) {
+            preferences = openShardedPreferences(application, pClass, prefName, mode, sharded.count());
+        } else if (Arrays.stream(pClass.getMethods()).anyMatch(method -> method.isAnnotationPresent(Config.Shard.class))) {
+            throw new IllegalStateException(String.format("%s uses @Shard without @Config.Sharded", pClass.getCanonicalName()));
+        } else {
+            preferences = application.getSharedPreferences(prefName, mode);
+        }
+        preferences = journaled(application, pClass, prefName, preferences);
+        Config.SpillOver spillOver = pClass.getAnnotation(Config.SpillOver.class);
+        preferences = spillOver(application, preferences, prefName, prefName, spillOver);
+        Set<String> coldKeys = Arrays.stream(pClass.getMethods())
+                .filter(method -> method.isAnnotationPresent(Config.Cold.class))
+                .flatMap(method -> storedKeysOf(method).stream())
+                .collect(Collectors.toSet());
+        if (!coldKeys.isEmpty()) {
+            // the cold file has its own blobs, so collecting the blobs of the main file does not load it
+            ShardedPreferences partitioned = ColdPreferences.partition(prefName, preferences, coldFileName(prefName),
+                    name -> spillOver(application, journaled(application, pClass, name, application.getSharedPreferences(name, mode)),
+                            prefName, name, spillOver), coldKeys);
+            partitionMap.put(prefName, partitioned);
+            preferences = partitioned;
+        }
+        return preferences;
+    }
+
+    /**
+     * Each file of a {@link Config.Journaled} config has its own journal, the cold file included.
+     */
+    private static SharedPreferences journaled(Application application, Class<?> pClass, String fileName, SharedPreferences preferences) {
+        if (!pClass.isAnnotationPresent(Config.Journaled.class)) {
+            return preferences;
+        }
+        File journalFile = new File(application.getFilesDir(), JOURNAL_DIRECTORY + File.separator + fileName + ".wal");
+        return new JournaledPreferences(preferences, new Journal(journalFile));
+    }
+
+    private static SharedPreferences spillOver(Application application, SharedPreferences preferences, String prefName, String fileName,
+                                               @Nullable Config.SpillOver spillOver) {
+        if (spillOver == null) {
+            return preferences;
+        }
+        return new BlobPreferences(preferences, prefName, blobDirectoryOf(application, fileName), spillOver.threshold());
+    }
+
+    private static File blobDirectoryOf(Application application, String fileName) {
+        return new File(application.getFilesDir(), BLOB_DIRECTORY + File.separator + fileName);
+    }
+
+    static String shardFileName(String prefName, int index) {
+        return prefName + "_shard" + index;
+    }
+
+    static String shardFileName(String prefName, String shard) {
+        return prefName + "_" + shard;
+    }
+
+    static String coldFileName(String prefName) {
+        return prefName + COLD_SUFFIX;
+    }
+
+    /**
+     * Whether {@code fileName} is the cold file of {@code prefName} and not loaded yet.
+     */
+    private boolean isUnopenedPartition(String prefName, String fileName) {
+        ShardedPreferences partitioned = partitionMap.get(prefName);
+        return partitioned != null && partitioned.getShardNames().contains(fileName) && !partitioned.isOpened(fileName);
+    }
+
+    private static Set<String> declaredKeysOf(Class<?> pClass, Set<String> declaredPrefixes) {
+        Set<String> declaredKeys = new HashSet<>();
+        for (Method method : pClass.getMethods()) {
+            if (!Property.class.isAssignableFrom(method.getReturnType())) {
+                if (method.getReturnType().equals(PropertyMap.class)) {
+                    declaredPrefixes.add(PropertyFactory.keyOf(method) + "_");
+                }
+                continue;
+            }
+            declaredKeys.addAll(storedKeysOf(method));
+        }
+        return declaredKeys;
+    }
+
+    /**
+     * A {@link PropertyMap} owns every key under its prefix, so no other property may store a key there.
+     */
+    private static void checkPropertyMapPrefixes(Class<?> pClass) {
+        Set<String> declaredPrefixes = new HashSet<>();
+        Set<String> declaredKeys = declaredKeysOf(pClass, declaredPrefixes);
+        Set<String> ownedKeys = new HashSet<>(declaredKeys);
+        ownedKeys.addAll(declaredPrefixes);
+        for (String prefix : declaredPrefixes) {
+            for (String key : ownedKeys) {
+                if (!key.equals(prefix) && key.startsWith(prefix)) {
+                    throw new IllegalStateException(String.format("%s declares \"%s\" under the prefix of PropertyMap \"%s\"",
+                            pClass.getCanonicalName(), key, prefix.substring(0, prefix.length() - 1)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the keys a property stores its value under, one per field for a {@link Config.Group}.
+     */
+    private static Set<String> storedKeysOf(Method method) {
+        String key = PropertyFactory.keyOf(method);
+        if (method.isAnnotationPresent(Config.Group.class) && method.getGenericReturnType() instanceof ParameterizedType) {
+            Type valueType = ((ParameterizedType) method.getGenericReturnType()).getActualTypeArguments()[0];
+            if (valueType instanceof Class) {
+                return new HashSet<>(Arrays.asList(Factories.GroupPropertyFactory.layoutOf((Class<?>) valueType).keysOf(key)));
+            }
+        }
+        return Collections.singleton(key);
+    }
+
+    private static List<String> fileNamesOf(Class<?> pClass, String prefName) {
+        List<String> fileNames = new ArrayList<>();
+        Config.Sharded sharded = pClass.getAnnotation(Config.Sharded.class);
+        if (sharded != null) {
+            for (int i = 0; i < sharded.count(); i++) {
+                fileNames.add(shardFileName(prefName, i));
+            }
+        } else {
+            fileNames.add(prefName);
+        }
+        for (Method method : pClass.getMethods()) {
+            Config.Shard shard = method.getAnnotation(Config.Shard.class);
+            if (shard != null && !fileNames.contains(shardFileName(prefName, shard.value()))) {
+                fileNames.add(shardFileName(prefName, shard.value()));
+            }
+            if (method.isAnnotationPresent(Config.Cold.class) && !fileNames.contains(coldFileName(prefName))) {
+                fileNames.add(coldFileName(prefName));
+            }
+        }
+        return fileNames;
+    }
+
+    private static String ownerProcessOf(Class<?> pClass) {
+        String owner = pClass.getAnnotation(Config.MultiProcess.class).owner();
+        return owner.isEmpty() || owner.startsWith(":") ? Utils.getApp().getPackageName() + owner : owner;
+    }
+
+    private static boolean isReplica(Class<?> pClass) {
+        return pClass.isAnnotationPresent(Config.MultiProcess.class) && !ownerProcessOf(pClass).equals(ProcessUtils.getCurrentProcessName());
+    }
+
+    private void scheduleOrphanRemoval(Class<?> pClass, String prefName, StoredConfig storedConfig) {
+        Config.RemoveOrphans removeOrphans = pClass.getAnnotation(Config.RemoveOrphans.class);
+        if (removeOrphans == null || isReplica(pClass)) {
+            return;
+        }
+        Set<String> keptKeys = new HashSet<>(storedConfig.declaredKeys);
+        keptKeys.addAll(Arrays.asList(removeOrphans.keep()));
+        Workers.schedule(() -> {
+            SharedPreferences preferences = storeMap.get(prefName);
+            // null once a scoped config is released, nothing reads its file then
+            if (preferences != null) {
+                removeOrphans(prefName, preferences, keptKeys, storedConfig.declaredPrefixes, removeOrphans.dryRun());
+            }
+        }, ORPHAN_REMOVAL_DELAY_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Removes the keys no property declares through the config's own store, so every layer sees the removal, e.g. the
+     * blob of a spilled value is released. Keys of a cold file which is not loaded yet are left for a later run.
+     */
+    static List<String> removeOrphans(String prefName, SharedPreferences preferences, Set<String> keptKeys, Set<String> declaredPrefixes, boolean dryRun) {
+        List<String> orphanKeys = ForwardingPreferences.storedKeysOf(preferences).stream()
+                .filter(key -> StorageReport.isOrphan(key, keptKeys, declaredPrefixes))
+                .sorted()
+                .collect(Collectors.toList());
+        if (orphanKeys.isEmpty()) {
+            return orphanKeys;
+        }
+        if (dryRun) {
+            Log.i(TAG, String.format("config[%s] has orphan keys: %s", prefName, orphanKeys));
+        } else {
+            SharedPreferences.Editor editor = preferences.edit();
+            orphanKeys.forEach(editor::remove);
+            boolean result = ConfigTrace.commit(prefName, editor);
+            Log.i(TAG, String.format("config[%s] removed orphan keys: %s, result: %s", prefName, orphanKeys, result));
+        }
+        return orphanKeys;
+    }
+
+    private static void checkMultiProcess(Class<?> pClass) {
+        List<Class<? extends Annotation>> typeAnnotations = Arrays.asList(Config.Sharded.class, Config.SpillOver.class, Config.Journaled.class);
+        List<Class<? extends Annotation>> methodAnnotations = Arrays.asList(Config.Cold.class, Config.Expires.class);
+        boolean unsupported = typeAnnotations.stream().anyMatch(pClass::isAnnotationPresent)
+                || Arrays.stream(pClass.getMethods()).anyMatch(method -> methodAnnotations.stream().anyMatch(method::isAnnotationPresent));
+        if (unsupported) {
+            throw new IllegalStateException(String.format("%s uses @Config.MultiProcess with an unsupported storage annotation", pClass.getCanonicalName()));
+        }
+    }
+
+    private static Map<String, Long> expirationsOf(Class<?> pClass) {
+        Map<String, Long> ttlMap = new HashMap<>();
+        for (Method method : pClass.getMethods()) {
+            Config.Expires expires = method.getAnnotation(Config.Expires.class);
+            if (expires != null) {
+                if (method.isAnnotationPresent(Config.Group.class)) {
+                    // fields expiring one by one would read as a mix of stored and default values
+                    throw new IllegalStateException(String.format("%s.%s uses @Expires on a @Group, which is not supported",
+                            pClass.getCanonicalName(), method.getName()));
+                }
+                ttlMap.put(PropertyFactory.keyOf(method), expires.unit().toMillis(expires.value()));
+            }
+        }
+        return ttlMap;
+    }
+
+    private static SharedPreferences openShardedPreferences(Application application, Class<?> pClass, String prefName, int mode, int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("shard count must be positive: " + count);
+        }
+        Map<String, String> routeMap = shardRoutesOf(pClass, prefName);
+        String[] hashShards = new String[count];
+        Map<String, Function<String, SharedPreferences>> shards = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            hashShards[i] = shardFileName(prefName, i);
+            shards.put(hashShards[i], name -> application.getSharedPreferences(name, mode));
+        }
+        for (String name : routeMap.values()) {
+            shards.put(name, n -> application.getSharedPreferences(n, mode));
+        }
+        return new ShardedPreferences(shards, shardRouterOf(routeMap, hashShards));
+    }
+
+    /**
+     * Routes a key to its {@link Config.Shard} file or else by hash, the deadline of an expiring value follows the value.
+     */
+    static Function<String, String> shardRouterOf(Map<String, String> routeMap, String[] hashShards) {
+        return key -> {
+            String valueKey = ExpiringPreferences.valueKeyOf(key);
+            String route = routeMap.get(valueKey);
+            return route != null ? route : hashShards[hashShardIndex(valueKey, hashShards.length)];
+        };
+    }
+
+    private static int hashShardIndex(String key, int count) {
+        return Math.floorMod(key.hashCode(), count);
+    }
+
+    /**
+     * Maps the keys of every {@link Config.Shard} property to its file name. The fields of a {@link Config.Group}
+     * go to the hash shard of the group key, so one commit still writes all of them.
+     */
+    static Map<String, String> shardRoutesOf(Class<?> pClass, String prefName) {
+        Config.Sharded sharded = pClass.getAnnotation(Config.Sharded.class);
+        Map<String, String> routeMap = new HashMap<>();
+        for (Method method : pClass.getMethods()) {
+            Config.Shard shard = method.getAnnotation(Config.Shard.class);
+            String fileName;
+            if (shard != null) {
+                if (!SHARD_NAME.matcher(shard.value()).matches() || RESERVED_SHARD_NAME.matcher(shard.value()).matches()) {
+                    throw new IllegalStateException(String.format("%s.%s uses invalid or reserved shard name \"%s\"",
+                            pClass.getCanonicalName(), method.getName(), shard.value()));
+                }
+                fileName = shardFileName(prefName, shard.value());
+            } else if (sharded != null && method.isAnnotationPresent(Config.Group.class)) {
+                fileName = shardFileName(prefName, hashShardIndex(PropertyFactory.keyOf(method), sharded.count()));
+            } else {
+                continue;
+            }
+            for (String key : storedKeysOf(method)) {
+                routeMap.put(key, fileName);
+            }
+        }
+        return routeMap;
+    }
+
+    /**
+     * Reports the file size and per-key footprint of every config opened so far, spilled values count with their
+     * blob files. Released scoped configs are left out. Reads the config files, so call it off the main thread. The keys of a cold file which is not
+     * loaded yet are left out.
+     */
+    public List<StorageReport> analyzeStorage() {
+        Application application = Utils.getApp();
+        File directory = new File(application.getApplicationInfo().dataDir, "shared_prefs");
+        List<StorageReport> reports = new ArrayList<>();
+        storedConfigMap.forEach((prefName, storedConfig) -> {
+            long fileSize = 0;
+            List<Map<String, ?>> stores = new ArrayList<>();
+            Map<String, Long> spilledSizes = new HashMap<>();
+            for (String fileName : storedConfig.fileNames) {
+                File blobDirectory = blobDirectoryOf(application, fileName);
+                fileSize += new File(directory, fileName + ".xml").length() + sizeOf(blobDirectory);
+                if (!isUnopenedPartition(prefName, fileName)) {
+                    Map<String, ?> store = application.getSharedPreferences(fileName, Context.MODE_PRIVATE).getAll();
+                    store.forEach((key, value) -> {
+                        if (BlobPreferences.isReference(value)) {
+                            spilledSizes.put(key, new File(blobDirectory, BlobPreferences.hashOf((String) value)).length());
                         }
                     });
-                    preferenceMap.put(pClass, preference);
-                    return preference;
-                });
+                    stores.add(store);
+                }
+            }
+            reports.add(StorageReport.analyze(prefName, fileSize, stores, spilledSizes, storedConfig.declaredKeys, storedConfig.declaredPrefixes));
+        });
+        reports.sort(Comparator.comparing(StorageReport::getName));
+        return reports;
+    }
+
+    private static long sizeOf(File directory) {
+        File[] files = directory.listFiles();
+        long size = 0;
+        if (files != null) {
+            for (File file : files) {
+                size += file.length();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Writes pending counters and waits in the background until every write issued so far, across all opened
+     * configs, has reached disk.
+     */
+    public WriteFuture flush() {
+        WriteFuture future = new WriteFuture();
+        Workers.execute(() -> {
+            DeferredWrites.flushAll();
+            List<String> failures = new ArrayList<>();
+            Map<String, SharedPreferences> stores = releasedStores();
+            stores.putAll(storeMap);
+            stores.forEach((prefName, preferences) -> {
+                // an empty commit is queued behind every earlier apply() of the store
+                if (!ConfigTrace.commit(prefName, preferences.edit())) {
+                    failures.add(prefName);
+                }
+            });
+            future.complete(failures.isEmpty() ? null : new IOException("flush failed for " + failures));
+        });
+        return future;
+    }
+
+    WriteFuture flush(String preferenceName) {
+        WriteFuture future = new WriteFuture();
+        SharedPreferences preferences = Optional.ofNullable(storeMap.get(preferenceName))
+                .orElseGet(() -> releasedStores().get(preferenceName));
+        if (preferences == null) {
+            // e.g. a released scoped config no longer in use, reporting success would claim a write that was never flushed
+            future.complete(new IllegalStateException(String.format("config[%s] is not open", preferenceName)));
+            return future;
+        }
+        Workers.execute(() -> future.complete(ConfigTrace.commit(preferenceName, preferences.edit())
+                ? null
+                : new IOException("flush failed for " + preferenceName)));
+        return future;
+    }
+
+    /**
+     * Returns the stores of released scoped configs whose properties are still in use.
+     */
+    private Map<String, SharedPreferences> releasedStores() {
+        Map<String, SharedPreferences> stores = new HashMap<>();
+        synchronized (scopedConfigMap) {
+            for (WeakReference<ScopedConfig> reference : releasedConfigMap.values()) {
+                ScopedConfig scopedConfig = reference.get();
+                if (scopedConfig != null) {
+                    stores.put(scopedConfig.prefName, scopedConfig.preferences);
+                }
+            }
+        }
+        return stores;
+    }
+
+    /**
+     * Overrides the value of {@code key} in memory for configs annotated with {@link Config.Overridable},
+     * the persisted value is kept. For a property of an open config the value has the property's type, e.g. an
+     * enum constant, and is checked and encoded like a write, a group value overrides all of its fields.
+     * Other keys take the stored type, e.g. Integer for an IntItem. Listeners of the affected properties are notified.
+     *
+     * @throws IllegalArgumentException if the property can not store {@code value}
+     */
+    public void setOverride(String preferenceName, String key, Object value) {
+        Objects.requireNonNull(value, "override value can not be null");
+        DeclaredProperty declared = declaredPropertyMap.getOrDefault(preferenceName, Collections.emptyMap()).get(key);
+        Map<String, ?> encoded;
+        if (declared != null) {
+            encoded = PropertyFactory.encode(preferenceName, declared.method, value);
+        } else {
+            // fails for types SharedPreferences can not store
+            PreferenceValues.put(new MemoryPreferences().edit(), key, value);
+            encoded = Collections.singletonMap(key, value);
+        }
+        changeOverrides(preferenceName, encoded.keySet(), overrides -> overrides.putAll(encoded));
+    }
+
+    public void clearOverride(String preferenceName, String key) {
+        DeclaredProperty declared = declaredPropertyMap.getOrDefault(preferenceName, Collections.emptyMap()).get(key);
+        Set<String> keys = declared != null ? declared.storedKeys : Collections.singleton(key);
+        changeOverrides(preferenceName, keys, overrides -> overrides.keySet().removeAll(keys));
+    }
+
+    public void clearOverrides(String preferenceName) {
+        Set<String> keys = new HashSet<>(getMemoryOverrides(preferenceName).keySet());
+        changeOverrides(preferenceName, keys, Map::clear);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void changeOverrides(String preferenceName, Set<String> keys, Consumer<Map<String, Object>> change) {
+        // the properties storing the keys, their old values are read before the change
+        Map<String, DeclaredProperty> declaredProperties = declaredPropertyMap.getOrDefault(preferenceName, Collections.emptyMap());
+        Map<PropertyWrapper, Object> oldValues = new LinkedHashMap<>();
+        Set<String> undeclaredKeys = new HashSet<>(keys);
+        for (DeclaredProperty declared : declaredProperties.values()) {
+            if (!Collections.disjoint(declared.storedKeys, keys)) {
+                PropertyWrapper property = (PropertyWrapper) declared.property.get();
+                oldValues.put(property, property.get());
+                undeclaredKeys.removeAll(declared.storedKeys);
+            }
+        }
+        Map<String, Object> overrides;
+        synchronized (overrideMap) {
+            Map<String, Object> current = getMemoryOverrides(preferenceName);
+            overrides = new HashMap<>(current);
+            change.accept(overrides);
+            if (overrides.equals(current)) {
+                return;
+            }
+            if (overrides.isEmpty()) {
+                overrideMap.remove(preferenceName);
+            } else {
+                overrideMap.put(preferenceName, Collections.unmodifiableMap(overrides));
+            }
+            overrideVersion++;
+        }
+        oldValues.forEach((property, oldValue) -> property.notifyAllListeners(oldValue, property.get()));
+        undeclaredKeys.forEach(key -> notifyPreferenceListeners(preferenceName, key, overrides.get(key)));
+    }
+
+    int getOverrideVersion() {
+        return overrideVersion;
+    }
+
+    Map<String, Object> getMemoryOverrides(String preferenceName) {
+        return overrideMap.getOrDefault(preferenceName, Collections.emptyMap());
+    }
+
+    boolean hasOverrides(String preferenceName) {
+        SharedPreferences preferences = storeMap.get(preferenceName);
+        return preferences instanceof OverridePreferences && ((OverridePreferences) preferences).hasOverrides();
+    }
+
+    void onWriteElided() {
+        elidedWriteCount.incrementAndGet();
+    }
+
+    /**
+     * Reports main thread accesses to configs which may wait for the disk: reads and writes before the file is
+     * loaded, commits, and writes while earlier applies are still being written. Only configs opened after a policy
+     * other than OFF is set are watched, so set it before the first getConfig, e.g. in Application.onCreate or a test rule.
+     */
+    public void setDiskAccessPolicy(DiskAccessPolicy policy) {
+        MonitoredPreferences.setPolicy(Objects.requireNonNull(policy));
+    }
+
+    /**
+     * Receives every violation before the policy is applied, e.g. to report it as a metric.
+     */
+    public void setDiskAccessListener(@Nullable Consumer<DiskAccessViolation> listener) {
+        MonitoredPreferences.setListener(listener);
+    }
+
+    public long getDiskAccessViolationCount() {
+        return MonitoredPreferences.getViolationCount();
+    }
+
+    /**
+     * Returns how many property writes were skipped because the value was already stored.
+     */
+    public long getElidedWriteCount() {
+        return elidedWriteCount.get();
     }
 
     public synchronized void addListener(String preferenceName, Listener listener) {
@@ -80,9 +804,8 @@ public class ConfigManager {
             @Override
             public void onDestroy(@NonNull LifecycleOwner owner) {
                 DefaultLifecycleObserver.super.onDestroy(owner);
-                synchronized (ConfigManager.this) {
-                    map.remove(listener);
-                }
+                // drops the emptied set too, notifyPreferenceListeners skips the lock only for configs without one
+                removeListener(preferenceName, listener);
             }
         });
     }
@@ -99,13 +822,85 @@ public class ConfigManager {
         listenerMap.remove(preferenceName);
     }
 
-    synchronized void notifyPreferenceListeners(String preferenceName, String key, Object value) {
-        Optional.ofNullable(listenerMap.get(preferenceName))
-                .ifPresent(set -> set.stream()
-                        .forEach(listener -> listener.onPropertyChange(key, value)));
+    void notifyPreferenceListeners(String preferenceName, String key, Object value) {
+        if (!listenerMap.containsKey(preferenceName)) {
+            return;
+        }
+        boolean traced = ConfigTrace.begin("notifyConfigListeners", preferenceName, key);
+        try {
+            synchronized (this) {
+                Optional.ofNullable(listenerMap.get(preferenceName))
+                        .ifPresent(set -> set.stream()
+                                .forEach(listener -> listener.onPropertyChange(key, value)));
+            }
+        } finally {
+            ConfigTrace.end(traced);
+        }
     }
 
     public interface Listener {
         void onPropertyChange(String key, Object value);
     }
+
+    private static final class StoredConfig {
+        final Set<String> declaredKeys;
+        final Set<String> declaredPrefixes;
+        final List<String> fileNames;
+
+        StoredConfig(Set<String> declaredKeys, Set<String> declaredPrefixes, List<String> fileNames) {
+            this.declaredKeys = declaredKeys;
+            this.declaredPrefixes = declaredPrefixes;
+            this.fileNames = fileNames;
+        }
+    }
+
+    private static final class ScopedConfig {
+        final String cacheKey;
+        final String prefName;
+        final Config config;
+        final SharedPreferences preferences;
+        final Map<String, DeclaredProperty> declaredProperties;
+        @Nullable
+        final StoredConfig storedConfig;
+        @Nullable
+        final ShardedPreferences partition;
+        @Nullable
+        final SharedPreferences volatileStore;
+
+        ScopedConfig(String cacheKey, String prefName, Config config, SharedPreferences preferences, Map<String, DeclaredProperty> declaredProperties,
+                     @Nullable StoredConfig storedConfig, @Nullable ShardedPreferences partition, @Nullable SharedPreferences volatileStore) {
+            this.cacheKey = cacheKey;
+            this.prefName = prefName;
+            this.config = config;
+            this.preferences = preferences;
+            this.declaredProperties = declaredProperties;
+            this.storedConfig = storedConfig;
+            this.partition = partition;
+            this.volatileStore = volatileStore;
+        }
+    }
+
+    private static final class DeclaredProperty {
+        final Method method;
+        final Set<String> storedKeys;
+        final Lazy<Property<?>> property;
+
+        DeclaredProperty(Method method, Set<String> storedKeys, Lazy<Property<?>> property) {
+            this.method = method;
+            this.storedKeys = storedKeys;
+            this.property = property;
+        }
+    }
+
+    /**
+     * The store seen by the properties of a scoped config, it keeps the config reachable while they are.
+     */
+    private static final class ScopedPreferences extends ForwardingPreferences {
+        @SuppressWarnings("unused")
+        volatile ScopedConfig owner;
+
+        ScopedPreferences(SharedPreferences base) {
+            super(base);
+        }
+    }
 }
@@ -0,0 +1,86 @@
+package com.nagi.neopreference;
+
+import android.content.SharedPreferences;
+import android.os.Trace;
+import androidx.annotation.Nullable;
+
+/**
+ * Adds trace sections named after the config and key around config creation, first property access,
+ * property reads and writes, commits and listener dispatch, so they show up in systrace/Perfetto.
+ * Disabled by default, each call site then only checks {@link #enabled}.
+ */
+public final class ConfigTrace {
+    private static final int MAX_SECTION_NAME_LENGTH = 127;
+
+    public interface Tracer {
+        void beginSection(String name);
+
+        void endSection();
+    }
+
+    static final Tracer ANDROID_TRACER = new Tracer() {
+        @Override
+        public void beginSection(String name) {
+            Trace.beginSection(name.length() > MAX_SECTION_NAME_LENGTH ? name.substring(0, MAX_SECTION_NAME_LENGTH) : name);
+        }
+
+        @Override
+        public void endSection() {
+            Trace.endSection();
+        }
+    };
+
+    static volatile boolean enabled = false;
+    private static volatile Tracer tracer = ANDROID_TRACER;
+
+    private ConfigTrace() {
+
+    }
+
+    /**
+     * Writes the sections with {@link Trace}.
+     */
+    public static void enable() {
+        enable(ANDROID_TRACER);
+    }
+
+    /**
+     * Writes the sections to {@code tracer}, e.g. to record them in a JVM test.
+     */
+    public static void enable(Tracer tracer) {
+        ConfigTrace.tracer = tracer;
+        enabled = true;
+    }
+
+    public static void disable() {
+        enabled = false;
+    }
+
+    /**
+     * Returns whether a section was begun, pass the result to {@link #end(boolean)}.
+     */
+    static boolean begin(String operation, String preferenceName, @Nullable String key) {
+        if (!enabled) {
+            return false;
+        }
+        tracer.beginSection(key == null
+                ? "Neo:" + operation + " " + preferenceName
+                : "Neo:" + operation + " " + preferenceName + "/" + key);
+        return true;
+    }
+
+    static void end(boolean traced) {
+        if (traced) {
+            tracer.endSection();
+        }
+    }
+
+    static boolean commit(String preferenceName, SharedPreferences.Editor editor) {
+        boolean traced = begin("commit", preferenceName, null);
+        try {
+            return editor.commit();
+        } finally {
+            end(traced);
+        }
+    }
+}
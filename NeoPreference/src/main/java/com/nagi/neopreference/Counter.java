@@ -0,0 +1,56 @@
+package com.nagi.neopreference;
+
+import java.util.function.UnaryOperator;
+
+public interface Counter extends Property<Long> {
+
+    long incrementAndGet();
+
+    long addAndGet(long delta);
+}
+
+final class CounterWrapper extends PropertyWrapper<Long> implements Counter {
+    private final Counter counter;
+
+    CounterWrapper(Counter impl) {
+        super(impl);
+        this.counter = impl;
+    }
+
+    @Override
+    public long incrementAndGet() {
+        return addAndGet(1);
+    }
+
+    /**
+     * Notifies only when a listener is registered on this counter or its config, an unobserved increment touches
+     * no shared state besides the counter itself.
+     */
+    @Override
+    public long addAndGet(long delta) {
+        long value = counter.addAndGet(delta);
+        notifyAllListeners(value - delta, value);
+        return value;
+    }
+
+    @Override
+    public boolean compareAndSet(Long expect, Long update) {
+        if (counter.compareAndSet(expect, update)) {
+            notifyAllListeners(expect, update);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public Long updateAndGet(UnaryOperator<Long> updateFunction) {
+        Long[] oldValue = new Long[1];
+        Long value = counter.updateAndGet(current -> {
+            oldValue[0] = current;
+            return updateFunction.apply(current);
+        });
+        notifyAllListeners(oldValue[0], value);
+        return value;
+    }
+}
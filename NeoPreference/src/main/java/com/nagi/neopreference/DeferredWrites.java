@@ -0,0 +1,98 @@
+package com.nagi.neopreference;
+
+import android.app.Activity;
+import android.app.Application;
+import android.os.Bundle;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+final class DeferredWrites {
+    private static final String TAG = "DeferredWrites";
+
+    private static final long FLUSH_DELAY_MILLIS = 1000;
+
+    private static final Set<Writer> pendingWriters = ConcurrentHashMap.newKeySet();
+    private static final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private static final AtomicBoolean lifecycleAttached = new AtomicBoolean(false);
+
+    private DeferredWrites() {
+
+    }
+
+    /**
+     * Flushes {@code writer} within a second, one flush covers every writer enqueued until it runs.
+     */
+    static void schedule(Writer writer) {
+        pendingWriters.add(writer);
+        if (scheduled.compareAndSet(false, true)) {
+            Workers.schedule(() -> {
+                // cleared first, so a writer enqueued during the flush schedules the next one
+                scheduled.set(false);
+                flushAll();
+            }, FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    static void flushAll() {
+        for (Writer writer : pendingWriters) {
+            pendingWriters.remove(writer);
+            // runs on the worker or in onActivityStopped, one failing writer must not drop the others or crash
+            try {
+                writer.flush();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "flush failed: " + writer, e);
+            }
+        }
+    }
+
+    static void attach(Application application) {
+        if (lifecycleAttached.compareAndSet(false, true)) {
+            application.registerActivityLifecycleCallbacks(new Application.ActivityLifecycleCallbacks() {
+                @Override
+                public void onActivityCreated(@NonNull Activity activity, @Nullable Bundle savedInstanceState) {
+
+                }
+
+                @Override
+                public void onActivityStarted(@NonNull Activity activity) {
+
+                }
+
+                @Override
+                public void onActivityResumed(@NonNull Activity activity) {
+
+                }
+
+                @Override
+                public void onActivityPaused(@NonNull Activity activity) {
+
+                }
+
+                @Override
+                public void onActivityStopped(@NonNull Activity activity) {
+                    flushAll();
+                }
+
+                @Override
+                public void onActivitySaveInstanceState(@NonNull Activity activity, @NonNull Bundle outState) {
+
+                }
+
+                @Override
+                public void onActivityDestroyed(@NonNull Activity activity) {
+
+                }
+            });
+        }
+    }
+
+    interface Writer {
+        void flush();
+    }
+}
@@ -0,0 +1,221 @@
+package com.nagi.neopreference;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.DefaultLifecycleObserver;
+import androidx.lifecycle.LifecycleOwner;
+
+import java.util.*;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Read-only property computed from other properties. The sources are read on every get and the value is only
+ * recomputed when one of them returns something else, whichever way the stored value changed.
+ */
+final class DerivedProperty<T> implements Property<T> {
+    private final List<Property<?>> sources;
+    private final Supplier<T> function;
+    private final Set<Listener<T>> listenerSet = Collections.synchronizedSet(new LinkedHashSet<>());
+    private final Set<ChangeListener<T>> changeListenerSet = Collections.synchronizedSet(new LinkedHashSet<>());
+    private volatile Memo<T> memo;
+    // guarded by listenerSet, null while nobody listens
+    private Observation observation;
+    private T lastNotified;
+
+    DerivedProperty(List<Property<?>> sources, Supplier<T> function) {
+        this.sources = Collections.unmodifiableList(new ArrayList<>(sources));
+        this.function = function;
+    }
+
+    private static final class Memo<T> {
+        final Object[] inputs;
+        final T value;
+
+        Memo(Object[] inputs, T value) {
+            this.inputs = inputs;
+            this.value = value;
+        }
+
+        boolean isComputedFrom(Object[] inputs) {
+            for (int i = 0; i < inputs.length; i++) {
+                if (!PreferenceValues.equal(this.inputs[i], inputs[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public T get() {
+        Object[] inputs = new Object[sources.size()];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = sources.get(i).get();
+        }
+        Memo<T> current = memo;
+        if (current != null && current.isComputedFrom(inputs)) {
+            return current.value;
+        }
+        // the inputs are read before computing, so a write during the computation does not match the memo
+        T value = function.get();
+        memo = new Memo<>(inputs, value);
+        return value;
+    }
+
+    @Override
+    public T get(T defValue) {
+        T value = get();
+        return value == null ? defValue : value;
+    }
+
+    @Override
+    public void set(T value) {
+        throw new UnsupportedOperationException("derived property is read only: " + getKey());
+    }
+
+    @Override
+    public String getValueString() {
+        return String.valueOf(get());
+    }
+
+    @Override
+    public String getDescription() {
+        return "";
+    }
+
+    @Override
+    public String getKey() {
+        return sources.stream().map(Property::getKey).collect(Collectors.joining(",", "derived(", ")"));
+    }
+
+    @Override
+    public String getPreferenceName() {
+        return sources.get(0).getPreferenceName();
+    }
+
+    @Override
+    public boolean exists() {
+        return sources.stream().allMatch(Property::exists);
+    }
+
+    /**
+     * The listeners on the sources while this property has listeners, they would keep it reachable otherwise.
+     */
+    private final class Observation {
+        private final List<Runnable> detachers = new ArrayList<>();
+        private boolean closed = false;
+
+        void attach() {
+            for (Property<?> source : sources) {
+                Runnable detacher = observe(source, () -> onSourceChanged(this));
+                synchronized (this) {
+                    if (!closed) {
+                        detachers.add(detacher);
+                        continue;
+                    }
+                }
+                detacher.run();
+            }
+        }
+
+        void close() {
+            List<Runnable> attached;
+            synchronized (this) {
+                closed = true;
+                attached = new ArrayList<>(detachers);
+                detachers.clear();
+            }
+            attached.forEach(Runnable::run);
+        }
+    }
+
+    private static <S> Runnable observe(Property<S> source, Runnable onChanged) {
+        Listener<S> listener = newValue -> onChanged.run();
+        source.addListener(listener);
+        return () -> source.removeListener(listener);
+    }
+
+    // source listeners are added and removed outside the lock, sources hold their own while notifying
+    private void observeSources() {
+        Observation created;
+        synchronized (listenerSet) {
+            if (observation != null) {
+                return;
+            }
+            lastNotified = get();
+            created = new Observation();
+            observation = created;
+        }
+        created.attach();
+    }
+
+    private void unobserveSourcesIfUnused() {
+        Observation closed;
+        synchronized (listenerSet) {
+            if (observation == null || !listenerSet.isEmpty() || !changeListenerSet.isEmpty()) {
+                return;
+            }
+            closed = observation;
+            observation = null;
+        }
+        closed.close();
+    }
+
+    private void onSourceChanged(Observation notifying) {
+        T value = get();
+        synchronized (listenerSet) {
+            if (notifying != observation) {
+                return;
+            }
+            T oldValue = lastNotified;
+            if (PreferenceValues.equal(oldValue, value)) {
+                return;
+            }
+            lastNotified = value;
+            for (Listener<T> listener : listenerSet) {
+                listener.onChanged(value);
+            }
+            synchronized (changeListenerSet) {
+                for (ChangeListener<T> listener : changeListenerSet) {
+                    listener.onChanged(oldValue, value);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void addListener(Listener<T> listener) {
+        listenerSet.add(listener);
+        observeSources();
+    }
+
+    @Override
+    public void addListener(LifecycleOwner owner, Listener<T> listener) {
+        addListener(listener);
+        owner.getLifecycle().addObserver(new DefaultLifecycleObserver() {
+            @Override
+            public void onDestroy(@NonNull LifecycleOwner owner) {
+                DefaultLifecycleObserver.super.onDestroy(owner);
+                removeListener(listener);
+            }
+        });
+    }
+
+    @Override
+    public void removeListener(Listener<T> listener) {
+        listenerSet.remove(listener);
+        unobserveSourcesIfUnused();
+    }
+
+    @Override
+    public void addChangeListener(ChangeListener<T> listener) {
+        changeListenerSet.add(listener);
+        observeSources();
+    }
+
+    @Override
+    public void removeChangeListener(ChangeListener<T> listener) {
+        changeListenerSet.remove(listener);
+        unobserveSourcesIfUnused();
+    }
+}
@@ -0,0 +1,15 @@
+package com.nagi.neopreference;
+
+/**
+ * What to do when a config is accessed on the main thread in a way that can wait for the disk,
+ * see {@link ConfigManager#setDiskAccessPolicy(DiskAccessPolicy)}.
+ */
+public enum DiskAccessPolicy {
+    OFF,
+    /**
+     * Only count the violation and pass it to the listener.
+     */
+    METRICS,
+    LOG,
+    THROW
+}
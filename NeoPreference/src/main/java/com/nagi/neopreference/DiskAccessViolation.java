@@ -0,0 +1,55 @@
+package com.nagi.neopreference;
+
+import androidx.annotation.Nullable;
+
+/**
+ * A main thread access to a config which may block on the disk, the stack trace points at the caller.
+ */
+public final class DiskAccessViolation extends RuntimeException {
+
+    public enum Reason {
+        /**
+         * Read or write before the store finished loading, the caller waits for the file to be read.
+         */
+        UNLOADED_STORE,
+        /**
+         * Write while an earlier apply is still being written, the next pause waits for all of them.
+         */
+        PENDING_FLUSH,
+        /**
+         * Synchronous commit, the caller waits for the file to be written.
+         */
+        COMMIT,
+        /**
+         * Read of a spilled value which is not cached, the caller waits for its blob file to be read.
+         */
+        SPILLED_VALUE
+    }
+
+    private final String preferenceName;
+    private final String key;
+    private final Reason reason;
+
+    DiskAccessViolation(String preferenceName, @Nullable String key, Reason reason) {
+        super(String.format("%s on main thread: %s[%s]", reason, preferenceName, key));
+        this.preferenceName = preferenceName;
+        this.key = key;
+        this.reason = reason;
+    }
+
+    public String getPreferenceName() {
+        return preferenceName;
+    }
+
+    /**
+     * Returns the key being accessed, null for {@code getAll} and writes without keys.
+     */
+    @Nullable
+    public String getKey() {
+        return key;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+}
@@ -0,0 +1,237 @@
+package com.nagi.neopreference;
+
+import android.content.SharedPreferences;
+import androidx.annotation.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+final class ExpiringPreferences extends ForwardingPreferences {
+    static final String DEADLINE_PREFIX = "__neo_expires_at:";
+    private static final long MIN_SWEEP_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+    private static final long MAX_SWEEP_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    private final Map<String, Long> ttlMap;
+    private final LongSupplier clock;
+    private final Lazy<Map<String, Long>> deadlineIndex;
+
+    ExpiringPreferences(SharedPreferences base, Map<String, Long> ttlMap) {
+        this(base, ttlMap, System::currentTimeMillis);
+    }
+
+    ExpiringPreferences(SharedPreferences base, Map<String, Long> ttlMap, LongSupplier clock) {
+        super(base);
+        this.clock = clock;
+        this.ttlMap = Collections.unmodifiableMap(new HashMap<>(ttlMap));
+        this.deadlineIndex = Lazy.from(() -> {
+            Map<String, Long> index = new ConcurrentHashMap<>();
+            for (String key : this.ttlMap.keySet()) {
+                String deadlineKey = DEADLINE_PREFIX + key;
+                if (base.contains(deadlineKey)) {
+                    index.put(key, base.getLong(deadlineKey, 0));
+                }
+            }
+            return index;
+        });
+        long interval = Math.min(MAX_SWEEP_INTERVAL, Math.max(MIN_SWEEP_INTERVAL, Collections.min(ttlMap.values())));
+        Workers.scheduleWhileReachable(this, ExpiringPreferences::sweep, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The key whose expiry {@code key} records, or {@code key} itself. Routing uses it so the deadline is stored
+     * in the same file as its value.
+     */
+    static String valueKeyOf(String key) {
+        return key.startsWith(DEADLINE_PREFIX) ? key.substring(DEADLINE_PREFIX.length()) : key;
+    }
+
+    private boolean isExpired(String key) {
+        if (ttlMap.containsKey(key)) {
+            Long deadline = deadlineIndex.get().get(key);
+            return deadline != null && deadline <= clock.getAsLong();
+        }
+        return false;
+    }
+
+    synchronized void sweep() {
+        if (!deadlineIndex.isEvaluated()) {
+            // not used yet, reads check the deadline anyway, so do not load the store just to sweep it
+            return;
+        }
+        long now = clock.getAsLong();
+        Map<String, Long> index = deadlineIndex.get();
+        List<String> expiredKeys = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : index.entrySet()) {
+            if (entry.getValue() <= now) {
+                expiredKeys.add(entry.getKey());
+            }
+        }
+        if (!expiredKeys.isEmpty()) {
+            Editor editor = base.edit();
+            for (String key : expiredKeys) {
+                editor.remove(key).remove(DEADLINE_PREFIX + key);
+            }
+            editor.apply();
+            index.keySet().removeAll(expiredKeys);
+        }
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        Map<String, Object> all = new HashMap<>(base.getAll());
+        all.keySet().removeIf(key -> key.startsWith(DEADLINE_PREFIX) || isExpired(key));
+        return all;
+    }
+
+    @Nullable
+    @Override
+    public String getString(String key, @Nullable String defValue) {
+        return isExpired(key) ? defValue : base.getString(key, defValue);
+    }
+
+    @Nullable
+    @Override
+    public Set<String> getStringSet(String key, @Nullable Set<String> defValues) {
+        return isExpired(key) ? defValues : base.getStringSet(key, defValues);
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        return isExpired(key) ? defValue : base.getInt(key, defValue);
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        return isExpired(key) ? defValue : base.getLong(key, defValue);
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        return isExpired(key) ? defValue : base.getFloat(key, defValue);
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        return isExpired(key) ? defValue : base.getBoolean(key, defValue);
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return !isExpired(key) && base.contains(key);
+    }
+
+    @Override
+    public Editor edit() {
+        return new ExpiringEditor(base.edit());
+    }
+
+    private final class ExpiringEditor extends ForwardingEditor {
+        private final Map<String, Long> deadlines = new HashMap<>();
+        private boolean clear = false;
+
+        ExpiringEditor(Editor base) {
+            super(base);
+        }
+
+        private void touch(String key) {
+            Long ttl = ttlMap.get(key);
+            if (ttl != null) {
+                long deadline = clock.getAsLong() + ttl;
+                deadlines.put(key, deadline);
+                base.putLong(DEADLINE_PREFIX + key, deadline);
+            }
+        }
+
+        @Override
+        public Editor putString(String key, @Nullable String value) {
+            if (value == null) {
+                return remove(key);
+            }
+            touch(key);
+            return super.putString(key, value);
+        }
+
+        @Override
+        public Editor putStringSet(String key, @Nullable Set<String> values) {
+            if (values == null) {
+                return remove(key);
+            }
+            touch(key);
+            return super.putStringSet(key, values);
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            touch(key);
+            return super.putInt(key, value);
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            touch(key);
+            return super.putLong(key, value);
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            touch(key);
+            return super.putFloat(key, value);
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            touch(key);
+            return super.putBoolean(key, value);
+        }
+
+        @Override
+        public Editor remove(String key) {
+            if (ttlMap.containsKey(key)) {
+                deadlines.put(key, null);
+                base.remove(DEADLINE_PREFIX + key);
+            }
+            return super.remove(key);
+        }
+
+        @Override
+        public Editor clear() {
+            clear = true;
+            return super.clear();
+        }
+
+        @Override
+        public boolean commit() {
+            synchronized (ExpiringPreferences.this) {
+                boolean result = base.commit();
+                updateIndex();
+                return result;
+            }
+        }
+
+        @Override
+        public void apply() {
+            synchronized (ExpiringPreferences.this) {
+                base.apply();
+                updateIndex();
+            }
+        }
+
+        private void updateIndex() {
+            Map<String, Long> index = deadlineIndex.get();
+            if (clear) {
+                index.clear();
+                clear = false;
+            }
+            deadlines.forEach((key, deadline) -> {
+                if (deadline == null) {
+                    index.remove(key);
+                } else {
+                    index.put(key, deadline);
+                }
+            });
+            deadlines.clear();
+        }
+    }
+}
@@ -1,18 +1,36 @@
 package com.nagi.neopreference;
 
 import android.content.SharedPreferences;
-import android.text.TextUtils;
+import androidx.annotation.Nullable;
+import androidx.lifecycle.LifecycleOwner;
 
 import java.lang.annotation.Annotation;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
 class Factories {
     @SuppressWarnings("rawtypes")
     private static final Map<Type, PropertyFactory> factoryMap = new HashMap<>();
 
+    static final CounterPropertyFactory COUNTER_FACTORY = new CounterPropertyFactory();
+
+    static final GroupPropertyFactory GROUP_FACTORY = new GroupPropertyFactory();
+
+    private static final Map<DescriptorKey, Descriptor<?, ?>> descriptorMap = new ConcurrentHashMap<>();
+
     static {
         registerAdapter(new IntegerPropertyFactory());
         registerAdapter(new BooleanPropertyFactory());
@@ -20,6 +38,10 @@ class Factories {
         registerAdapter(new FloatPropertyFactory());
         registerAdapter(new StringPropertyFactory());
         registerAdapter(new StringSetPropertyFactory());
+        registerAdapter(new DoublePropertyFactory());
+        registerAdapter(new IntArrayPropertyFactory());
+        registerAdapter(new LongArrayPropertyFactory());
+        registerAdapter(new EnumPropertyFactory());
     }
 
     private Factories() {
@@ -37,7 +59,10 @@ class Factories {
             } else {
                 Type annoType = actualTypeArguments[0];
                 Type valueType = actualTypeArguments[1];
-                if (annoType instanceof Class && Annotation.class.isAssignableFrom((Class<?>) annoType)) {
+                if (!factory.overridesCreateProperty()) {
+                    throw new IllegalArgumentException(String.format("Factory[%s] must override createProperty",
+                            factory.getClass().getCanonicalName()));
+                } else if (annoType instanceof Class && Annotation.class.isAssignableFrom((Class<?>) annoType)) {
                     factoryMap.put(valueType, factory);
                 } else {
                     throw new IllegalArgumentException("Annotation Type Argument is not valid:" + annoType);
@@ -75,14 +100,86 @@ class Factories {
     }
 
     private static String ensureKey(String key, String defaultKey) {
-        return TextUtils.isEmpty(key) ? defaultKey : key;
+        return key == null || key.isEmpty() ? defaultKey : key;
+    }
+
+    /**
+     * Returns the descriptor shared by all properties declared with {@code key} and an equal annotation,
+     * {@code values} are derived from the annotation once. {@code valueClass} tells apart declarations whose
+     * values depend on the declared type, it is null otherwise.
+     */
+    @SuppressWarnings("unchecked")
+    static <A extends Annotation, D> Descriptor<A, D> descriptorOf(String key, A annotation, @Nullable Class<?> valueClass, Function<A, D> builder) {
+        return (Descriptor<A, D>) descriptorMap.computeIfAbsent(new DescriptorKey(key, annotation, valueClass),
+                k -> new Descriptor<>(key, annotation, builder.apply(annotation)));
+    }
+
+    /**
+     * Immutable metadata of a declared property, the properties of every config instance declaring it share one.
+     */
+    static final class Descriptor<A extends Annotation, D> {
+        final String key;
+        final A annotation;
+        final D values;
+
+        Descriptor(String key, A annotation, D values) {
+            this.key = key;
+            this.annotation = annotation;
+            this.values = values;
+        }
+    }
+
+    private static final class DescriptorKey {
+        private final String key;
+        private final Annotation annotation;
+        @Nullable
+        private final Class<?> valueClass;
+
+        DescriptorKey(String key, Annotation annotation, @Nullable Class<?> valueClass) {
+            this.key = key;
+            this.annotation = annotation;
+            this.valueClass = valueClass;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof DescriptorKey)) {
+                return false;
+            }
+            DescriptorKey that = (DescriptorKey) o;
+            return key.equals(that.key) && annotation.equals(that.annotation) && valueClass == that.valueClass;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(key, annotation, valueClass);
+        }
+    }
+
+    /**
+     * A property which reads its key and metadata from a shared {@link Descriptor}.
+     */
+    abstract static class DescribedProperty<A extends Annotation, D, T> extends Property.BaseProperty<T> {
+        final Descriptor<A, D> descriptor;
+
+        DescribedProperty(Descriptor<A, D> descriptor, String preferenceName, SharedPreferences preferences) {
+            super(descriptor.key, preferenceName, preferences);
+            this.descriptor = descriptor;
+        }
     }
 
     static class IntegerPropertyFactory extends PropertyFactory<Config.IntItem, Integer> {
         @Override
         public Property<Integer> createProperty(String key, Config.IntItem annotation, String preferenceName, SharedPreferences preferences) {
-            Set<Integer> valueEnumSet = Arrays.stream(annotation.valueOf()).boxed().collect(Collectors.toSet());
-            return new Property.BaseProperty<>(ensureKey(annotation.key(), key), preferenceName, preferences) {
+            Descriptor<Config.IntItem, int[]> descriptor = descriptorOf(ensureKey(annotation.key(), key), annotation, null, a -> {
+                int[] values = a.valueOf();
+                Arrays.sort(values);
+                return values;
+            });
+            return new DescribedProperty<Config.IntItem, int[], Integer>(descriptor, preferenceName, preferences) {
                 @Override
                 public String getValueString() {
                     return exists() ? String.valueOf(get()) : "empty int";
@@ -90,7 +187,7 @@ class Factories {
 
                 @Override
                 public String getDescription() {
-                    return annotation.description();
+                    return descriptor.annotation.description();
                 }
 
                 @Override
@@ -100,20 +197,20 @@ class Factories {
 
                 @Override
                 public Integer get() {
-                    return get(annotation.defaultValue());
+                    return get(descriptor.annotation.defaultValue());
                 }
 
                 @Override
                 public void set(Integer value) {
-                    if (!valueEnumSet.isEmpty()) {
-                        if (valueEnumSet.contains(value)) {
+                    if (descriptor.values.length != 0) {
+                        if (Arrays.binarySearch(descriptor.values, value) >= 0) {
                             getPreferences().edit().putInt(getKey(), value).apply();
                         } else {
-                            throw new IllegalArgumentException("value is invalid, must in values " + Arrays.toString(valueEnumSet.toArray()));
+                            throw new IllegalArgumentException("value is invalid, must in values " + Arrays.toString(descriptor.values));
                         }
                     } else {
-                        if (value > annotation.to() || value < annotation.start()) {
-                            throw new IllegalArgumentException("value is invalid, must between " + annotation.to() + " and " + annotation.start());
+                        if (value > descriptor.annotation.to() || value < descriptor.annotation.start()) {
+                            throw new IllegalArgumentException("value is invalid, must between " + descriptor.annotation.to() + " and " + descriptor.annotation.start());
                         } else {
                             getPreferences().edit().putInt(getKey(), value).apply();
                         }
@@ -131,7 +228,8 @@ class Factories {
     static class BooleanPropertyFactory extends PropertyFactory<Config.BooleanItem, Boolean> {
         @Override
         public Property<Boolean> createProperty(String key, Config.BooleanItem annotation, String preferenceName, SharedPreferences preferences) {
-            return new Property.BaseProperty<>(ensureKey(annotation.key(), key), preferenceName, preferences) {
+            Descriptor<Config.BooleanItem, Void> descriptor = descriptorOf(ensureKey(annotation.key(), key), annotation, null, a -> null);
+            return new DescribedProperty<Config.BooleanItem, Void, Boolean>(descriptor, preferenceName, preferences) {
                 @Override
                 public String getValueString() {
                     return exists() ? String.valueOf(get()) : "empty boolean";
@@ -139,7 +237,7 @@ class Factories {
 
                 @Override
                 public String getDescription() {
-                    return annotation.description();
+                    return descriptor.annotation.description();
                 }
 
                 @Override
@@ -149,7 +247,7 @@ class Factories {
 
                 @Override
                 public Boolean get() {
-                    return get(annotation.defaultValue());
+                    return get(descriptor.annotation.defaultValue());
                 }
 
                 @Override
@@ -169,8 +267,12 @@ class Factories {
 
         @Override
         public Property<Long> createProperty(String key, Config.LongItem annotation, String preferenceName, SharedPreferences preferences) {
-            Set<Long> valueEnumSet = Arrays.stream(annotation.valueOf()).boxed().collect(Collectors.toSet());
-            return new Property.BaseProperty<>(ensureKey(annotation.key(), key), preferenceName, preferences) {
+            Descriptor<Config.LongItem, long[]> descriptor = descriptorOf(ensureKey(annotation.key(), key), annotation, null, a -> {
+                long[] values = a.valueOf();
+                Arrays.sort(values);
+                return values;
+            });
+            return new DescribedProperty<Config.LongItem, long[], Long>(descriptor, preferenceName, preferences) {
                 @Override
                 public String getValueString() {
                     return exists() ? String.valueOf(get()) : "empty long";
@@ -178,7 +280,7 @@ class Factories {
 
                 @Override
                 public String getDescription() {
-                    return annotation.description();
+                    return descriptor.annotation.description();
                 }
 
                 @Override
@@ -188,20 +290,20 @@ class Factories {
 
                 @Override
                 public Long get() {
-                    return get(annotation.defaultValue());
+                    return get(descriptor.annotation.defaultValue());
                 }
 
                 @Override
                 public void set(Long value) {
-                    if (!valueEnumSet.isEmpty()) {
-                        if (valueEnumSet.contains(value)) {
+                    if (descriptor.values.length != 0) {
+                        if (Arrays.binarySearch(descriptor.values, value) >= 0) {
                             getPreferences().edit().putLong(getKey(), value).apply();
                         } else {
-                            throw new IllegalArgumentException("value is invalid, must in values " + Arrays.toString(valueEnumSet.toArray()));
+                            throw new IllegalArgumentException("value is invalid, must in values " + Arrays.toString(descriptor.values));
                         }
                     } else {
-                        if (value > annotation.to() || value < annotation.start()) {
-                            throw new IllegalArgumentException("value is invalid, must between " + annotation.start() + " and " + annotation.to());
+                        if (value > descriptor.annotation.to() || value < descriptor.annotation.start()) {
+                            throw new IllegalArgumentException("value is invalid, must between " + descriptor.annotation.start() + " and " + descriptor.annotation.to());
                         } else {
                             getPreferences().edit().putLong(getKey(), value).apply();
                         }
@@ -221,11 +323,12 @@ class Factories {
 
         @Override
         public Property<Float> createProperty(String key, Config.FloatItem annotation, String preferenceName, SharedPreferences preferences) {
-            Set<Float> valueEnumSet = new HashSet<>();
-            for (Float v : annotation.valueOf()) {
-                valueEnumSet.add(v);
-            }
-            return new Property.BaseProperty<>(ensureKey(annotation.key(), key), preferenceName, preferences) {
+            Descriptor<Config.FloatItem, float[]> descriptor = descriptorOf(ensureKey(annotation.key(), key), annotation, null, a -> {
+                float[] values = a.valueOf();
+                Arrays.sort(values);
+                return values;
+            });
+            return new DescribedProperty<Config.FloatItem, float[], Float>(descriptor, preferenceName, preferences) {
                 @Override
                 public String getValueString() {
                     return exists() ? String.valueOf(get()) : "empty float";
@@ -233,7 +336,7 @@ class Factories {
 
                 @Override
                 public String getDescription() {
-                    return annotation.description();
+                    return descriptor.annotation.description();
                 }
 
                 @Override
@@ -243,20 +346,20 @@ class Factories {
 
                 @Override
                 public Float get() {
-                    return get(annotation.defaultValue());
+                    return get(descriptor.annotation.defaultValue());
                 }
 
                 @Override
                 public void set(Float value) {
-                    if (!valueEnumSet.isEmpty()) {
-                        if (valueEnumSet.contains(value)) {
+                    if (descriptor.values.length != 0) {
+                        if (Arrays.binarySearch(descriptor.values, value) >= 0) {
                             getPreferences().edit().putFloat(getKey(), value).apply();
                         } else {
-                            throw new IllegalArgumentException("value is invalid, must in values " + Arrays.toString(valueEnumSet.toArray()));
+                            throw new IllegalArgumentException("value is invalid, must in values " + Arrays.toString(descriptor.values));
                         }
                     } else {
-                        if (value > annotation.to() || value < annotation.start()) {
-                            throw new IllegalArgumentException("value is invalid, must between " + annotation.start() + " and " + annotation.to() + ", current is " + value);
+                        if (value > descriptor.annotation.to() || value < descriptor.annotation.start()) {
+                            throw new IllegalArgumentException("value is invalid, must between " + descriptor.annotation.start() + " and " + descriptor.annotation.to() + ", current is " + value);
                         } else {
                             getPreferences().edit().putFloat(getKey(), value).apply();
                         }
@@ -275,8 +378,11 @@ class Factories {
 
         @Override
         public Property<String> createProperty(String key, Config.StringItem annotation, String preferenceName, SharedPreferences preferences) {
-            Set<String> valueEnumSet = Arrays.stream(annotation.valueOf()).collect(Collectors.toSet());
-            return new Property.BaseProperty<>(ensureKey(annotation.key(), key), preferenceName, preferences) {
+            Descriptor<Config.StringItem, StringValues> descriptor = descriptorOf(ensureKey(annotation.key(), key), annotation, null, StringValues::new);
+            if (annotation.compact() && descriptor.values.values.length == 0) {
+                throw new IllegalStateException(String.format("compact StringItem[%s] must declare valueOf", descriptor.key));
+            }
+            return new DescribedProperty<Config.StringItem, StringValues, String>(descriptor, preferenceName, preferences) {
                 @Override
                 public String getValueString() {
                     return exists() ? String.valueOf(get()) : "empty string";
@@ -284,29 +390,43 @@ class Factories {
 
                 @Override
                 public String getDescription() {
-                    return annotation.description();
+                    return descriptor.annotation.description();
                 }
 
                 @Override
                 public String get(String defValue) {
-                    return getPreferences().getString(getKey(), defValue);
+                    if (descriptor.annotation.compact()) {
+                        int index;
+                        try {
+                            index = getPreferences().getInt(getKey(), -1);
+                        } catch (ClassCastException e) {
+                            //stored as string before compact was enabled
+                            return getPreferences().getString(getKey(), defValue);
+                        }
+                        return index >= 0 && index < descriptor.values.values.length ? descriptor.values.values[index] : defValue;
+                    } else {
+                        return getPreferences().getString(getKey(), defValue);
+                    }
                 }
 
                 @Override
                 public String get() {
-                    return get(annotation.defaultValue());
+                    return get(descriptor.annotation.defaultValue());
                 }
 
                 @Override
                 public void set(String value) {
-                    if (!valueEnumSet.isEmpty()) {
-                        if (valueEnumSet.contains(value)) {
-                            getPreferences().edit().putString(getKey(), value).apply();
+                    if (!descriptor.values.indexMap.isEmpty()) {
+                        Integer index = descriptor.values.indexMap.get(value);
+                        if (index == null) {
+                            throw new IllegalArgumentException("value is invalid, must in values " + Arrays.toString(descriptor.values.values));
+                        } else if (descriptor.annotation.compact()) {
+                            getPreferences().edit().putInt(getKey(), index).apply();
                         } else {
-                            throw new IllegalArgumentException("value is invalid, must in values " + Arrays.toString(valueEnumSet.toArray()));
+                            getPreferences().edit().putString(getKey(), value).apply();
                         }
                     } else {
-                        if (!annotation.supportEmpty() && TextUtils.isEmpty(value)) {
+                        if (!descriptor.annotation.supportEmpty() && (value == null || value.isEmpty())) {
                             throw new IllegalArgumentException("value is not support empty");
                         } else {
                             getPreferences().edit().putString(getKey(), value).apply();
@@ -322,15 +442,32 @@ class Factories {
         }
     }
 
+    static final class StringValues {
+        final String[] values;
+        final Map<String, Integer> indexMap;
+
+        StringValues(Config.StringItem annotation) {
+            values = annotation.valueOf();
+            Map<String, Integer> map = new HashMap<>();
+            for (int i = 0; i < values.length; i++) {
+                map.putIfAbsent(values[i], i);
+            }
+            indexMap = Collections.unmodifiableMap(map);
+        }
+    }
+
     static class StringSetPropertyFactory extends PropertyFactory<Config.StringSetItem, Set<String>> {
 
         @Override
         public Property<Set<String>> createProperty(String key, Config.StringSetItem annotation, String preferenceName, SharedPreferences preferences) {
-            Set<String> valueEnumSet = Arrays.stream(annotation.valueOf()).collect(Collectors.toSet());
-            if (valueEnumSet.size() != annotation.valueOf().length) {
-                throw new IllegalArgumentException("StringSetItem annotation contains duplication element:" + Arrays.toString(annotation.valueOf()));
-            }
-            return new Property.BaseProperty<>(ensureKey(annotation.key(), key), preferenceName, preferences) {
+            Descriptor<Config.StringSetItem, Set<String>> descriptor = descriptorOf(ensureKey(annotation.key(), key), annotation, null, a -> {
+                Set<String> set = Arrays.stream(a.valueOf()).collect(Collectors.toSet());
+                if (set.size() != a.valueOf().length) {
+                    throw new IllegalArgumentException("StringSetItem annotation contains duplication element:" + Arrays.toString(a.valueOf()));
+                }
+                return Collections.unmodifiableSet(set);
+            });
+            return new DescribedProperty<Config.StringSetItem, Set<String>, Set<String>>(descriptor, preferenceName, preferences) {
                 @Override
                 public String getValueString() {
                     return get().stream().reduce((s, s2) -> s + ", " + s2).orElse("empty str");
@@ -338,7 +475,7 @@ class Factories {
 
                 @Override
                 public String getDescription() {
-                    return annotation.description();
+                    return descriptor.annotation.description();
                 }
 
                 @Override
@@ -356,7 +493,7 @@ class Factories {
                     getPreferences().edit().putStringSet(
                                     getKey(),
                                     Optional.of(value)
-                                            .filter(strings -> valueEnumSet.isEmpty() || valueEnumSet.containsAll(strings))
+                                            .filter(strings -> descriptor.values.isEmpty() || descriptor.values.containsAll(strings))
                                             .orElseThrow(() -> new IllegalArgumentException("string set contains invalid element:" +
                                                     value.stream().reduce((s, s2) -> s + ", " + s2).orElse(""))))
                             .apply();
@@ -369,4 +506,714 @@ class Factories {
             };
         }
     }
+
+    static class DoublePropertyFactory extends PropertyFactory<Config.DoubleItem, Double> {
+
+        @Override
+        public Property<Double> createProperty(String key, Config.DoubleItem annotation, String preferenceName, SharedPreferences preferences) {
+            Descriptor<Config.DoubleItem, Void> descriptor = descriptorOf(ensureKey(annotation.key(), key), annotation, null, a -> null);
+            return new DescribedProperty<Config.DoubleItem, Void, Double>(descriptor, preferenceName, preferences) {
+                @Override
+                public String getValueString() {
+                    return exists() ? String.valueOf(get()) : "empty double";
+                }
+
+                @Override
+                public String getDescription() {
+                    return descriptor.annotation.description();
+                }
+
+                @Override
+                public Double get(Double defValue) {
+                    return exists() ? Double.longBitsToDouble(getPreferences().getLong(getKey(), 0)) : defValue;
+                }
+
+                @Override
+                public Double get() {
+                    return get(descriptor.annotation.defaultValue());
+                }
+
+                @Override
+                public void set(Double value) {
+                    if (value > descriptor.annotation.to() || value < descriptor.annotation.start()) {
+                        throw new IllegalArgumentException("value is invalid, must between " + descriptor.annotation.start() + " and " + descriptor.annotation.to() + ", current is " + value);
+                    } else {
+                        getPreferences().edit().putLong(getKey(), Double.doubleToRawLongBits(value)).apply();
+                    }
+                }
+
+                @Override
+                public Class<?> getValueClass() {
+                    return Double.class;
+                }
+            };
+        }
+    }
+
+    static class IntArrayPropertyFactory extends PropertyFactory<Config.IntArrayItem, int[]> {
+
+        @Override
+        public Property<int[]> createProperty(String key, Config.IntArrayItem annotation, String preferenceName, SharedPreferences preferences) {
+            Descriptor<Config.IntArrayItem, int[]> descriptor = descriptorOf(ensureKey(annotation.key(), key), annotation, null, a -> new int[0]);
+            return new ArrayProperty<Config.IntArrayItem, int[]>(descriptor, preferenceName, preferences) {
+                @Override
+                public String getDescription() {
+                    return descriptor.annotation.description();
+                }
+
+                @Override
+                int[] decode(byte[] bytes) {
+                    int[] array = new int[bytes.length / Integer.BYTES];
+                    ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(array);
+                    return array;
+                }
+
+                @Override
+                byte[] encode(int[] array) {
+                    ByteBuffer buffer = ByteBuffer.allocate(array.length * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                    buffer.asIntBuffer().put(array);
+                    return buffer.array();
+                }
+
+                @Override
+                int[] copy(int[] array) {
+                    return array.clone();
+                }
+
+                @Override
+                public String getValueString() {
+                    return exists() ? Arrays.toString(get()) : "empty int array";
+                }
+
+                @Override
+                public Class<?> getValueClass() {
+                    return int[].class;
+                }
+            };
+        }
+    }
+
+    static class LongArrayPropertyFactory extends PropertyFactory<Config.LongArrayItem, long[]> {
+
+        @Override
+        public Property<long[]> createProperty(String key, Config.LongArrayItem annotation, String preferenceName, SharedPreferences preferences) {
+            Descriptor<Config.LongArrayItem, long[]> descriptor = descriptorOf(ensureKey(annotation.key(), key), annotation, null, a -> new long[0]);
+            return new ArrayProperty<Config.LongArrayItem, long[]>(descriptor, preferenceName, preferences) {
+                @Override
+                public String getDescription() {
+                    return descriptor.annotation.description();
+                }
+
+                @Override
+                long[] decode(byte[] bytes) {
+                    long[] array = new long[bytes.length / Long.BYTES];
+                    ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().get(array);
+                    return array;
+                }
+
+                @Override
+                byte[] encode(long[] array) {
+                    ByteBuffer buffer = ByteBuffer.allocate(array.length * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                    buffer.asLongBuffer().put(array);
+                    return buffer.array();
+                }
+
+                @Override
+                long[] copy(long[] array) {
+                    return array.clone();
+                }
+
+                @Override
+                public String getValueString() {
+                    return exists() ? Arrays.toString(get()) : "empty long array";
+                }
+
+                @Override
+                public Class<?> getValueClass() {
+                    return long[].class;
+                }
+            };
+        }
+    }
+
+    /**
+     * Stores a primitive array as Base64 of its little-endian bytes, the last decoded array is
+     * kept so repeated reads only copy it, or not at all through {@link IntArrayProperty#getView()}.
+     */
+    abstract static class ArrayProperty<A extends Annotation, T> extends DescribedProperty<A, T, T> {
+        private volatile Decoded<T> decoded;
+
+        // the descriptor values are the shared empty array
+        ArrayProperty(Descriptor<A, T> descriptor, String preferenceName, SharedPreferences preferences) {
+            super(descriptor, preferenceName, preferences);
+        }
+
+        abstract T decode(byte[] bytes);
+
+        abstract byte[] encode(T array);
+
+        abstract T copy(T array);
+
+        /**
+         * Returns the decoded stored array without copying it, or null if there is none. Callers must not modify it.
+         */
+        @Nullable
+        T peek() {
+            String encoded = getPreferences().getString(getKey(), null);
+            if (encoded == null) {
+                return null;
+            }
+            Decoded<T> current = decoded;
+            if (current == null || !current.encoded.equals(encoded)) {
+                current = new Decoded<>(encoded, decode(Base64Codec.decode(encoded)));
+                decoded = current;
+            }
+            return current.array;
+        }
+
+        @Override
+        public T get(T defValue) {
+            T array = peek();
+            return array != null ? copy(array) : defValue;
+        }
+
+        @Override
+        public T get() {
+            return get(copy(descriptor.values));
+        }
+
+        @Override
+        public void set(T value) {
+            getPreferences().edit().putString(getKey(), Base64Codec.encode(encode(value))).apply();
+        }
+
+        private static final class Decoded<T> {
+            final String encoded;
+            final T array;
+
+            Decoded(String encoded, T array) {
+                this.encoded = encoded;
+                this.array = array;
+            }
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static class EnumPropertyFactory extends PropertyFactory<Config.EnumItem, Enum<?>> {
+
+        @Override
+        public Property<Enum<?>> createProperty(String key, Config.EnumItem annotation, String preferenceName, SharedPreferences preferences, Type valueType) {
+            if (!(valueType instanceof Class) || !((Class<?>) valueType).isEnum()) {
+                throw new IllegalStateException(String.format("enum property \"%s\" must use an enum class: %s", key, valueType));
+            }
+            Class<? extends Enum> enumClass = (Class<? extends Enum>) valueType;
+            Descriptor<Config.EnumItem, EnumValues> descriptor = descriptorOf(ensureKey(annotation.key(), key), annotation, enumClass, a -> new EnumValues(enumClass, a));
+            return new DescribedProperty<Config.EnumItem, EnumValues, Enum<?>>(descriptor, preferenceName, preferences) {
+                @Override
+                public String getValueString() {
+                    return exists() ? String.valueOf(get()) : "empty enum";
+                }
+
+                @Override
+                public String getDescription() {
+                    return descriptor.annotation.description();
+                }
+
+                @Override
+                public Enum<?> get(Enum<?> defValue) {
+                    int code = getPreferences().getInt(getKey(), Integer.MIN_VALUE);
+                    if (code == Integer.MIN_VALUE && !exists()) {
+                        return defValue;
+                    }
+                    Enum<?> value = descriptor.values.table.byCode(code);
+                    return value != null ? value : defValue;
+                }
+
+                @Override
+                public Enum<?> get() {
+                    return get(descriptor.values.defaultValue);
+                }
+
+                @Override
+                public void set(Enum<?> value) {
+                    if (value == null || value.getDeclaringClass() != descriptor.values.enumClass) {
+                        throw new IllegalArgumentException("value is invalid, must be a constant of " + descriptor.values.enumClass.getName() + ", current is " + value);
+                    }
+                    getPreferences().edit().putInt(getKey(), descriptor.values.table.codeOf(value)).apply();
+                }
+
+                @Override
+                public Class<?> getValueClass() {
+                    return descriptor.values.enumClass;
+                }
+            };
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static final class EnumValues {
+        private static final Map<Class<?>, EnumTable<?>> tableMap = new ConcurrentHashMap<>();
+
+        final Class<? extends Enum> enumClass;
+        final EnumTable<?> table;
+        @Nullable
+        final Enum<?> defaultValue;
+
+        EnumValues(Class<? extends Enum> enumClass, Config.EnumItem annotation) {
+            this.enumClass = enumClass;
+            this.table = tableMap.computeIfAbsent(enumClass, EnumTable::new);
+            this.defaultValue = annotation.defaultValue().isEmpty() ? null : Enum.valueOf(enumClass, annotation.defaultValue());
+        }
+    }
+
+    static final class EnumTable<E extends Enum<E>> {
+        private final int[] codes;
+        private final E[] constantsByCode;
+        private final int[] sortedCodes;
+        private final E[] constantsBySortedCode;
+
+        @SuppressWarnings("unchecked")
+        EnumTable(Class<?> enumClass) {
+            E[] constants = ((Class<E>) enumClass).getEnumConstants();
+            codes = new int[constants.length];
+            int annotatedCount = 0;
+            for (E constant : constants) {
+                try {
+                    Config.EnumCode code = enumClass.getField(constant.name()).getAnnotation(Config.EnumCode.class);
+                    if (code != null) {
+                        codes[constant.ordinal()] = code.value();
+                        annotatedCount++;
+                    } else {
+                        codes[constant.ordinal()] = constant.ordinal();
+                    }
+                } catch (NoSuchFieldException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            if (annotatedCount != 0 && annotatedCount != constants.length) {
+                throw new IllegalStateException(enumClass.getName() + ": either all or none of the constants must have @EnumCode");
+            }
+            int maxCode = -1;
+            int minCode = 0;
+            for (int code : codes) {
+                maxCode = Math.max(maxCode, code);
+                minCode = Math.min(minCode, code);
+            }
+            if (minCode >= 0 && maxCode < constants.length * 4 + 16) {
+                constantsByCode = (E[]) Array.newInstance(enumClass, maxCode + 1);
+                for (E constant : constants) {
+                    if (constantsByCode[codes[constant.ordinal()]] != null) {
+                        throw new IllegalStateException(enumClass.getName() + " has duplicated @EnumCode " + codes[constant.ordinal()]);
+                    }
+                    constantsByCode[codes[constant.ordinal()]] = constant;
+                }
+                sortedCodes = null;
+                constantsBySortedCode = null;
+            } else {
+                constantsByCode = null;
+                E[] sorted = constants.clone();
+                Arrays.sort(sorted, Comparator.comparingInt(constant -> codes[constant.ordinal()]));
+                sortedCodes = new int[sorted.length];
+                for (int i = 0; i < sorted.length; i++) {
+                    sortedCodes[i] = codes[sorted[i].ordinal()];
+                    if (i > 0 && sortedCodes[i] == sortedCodes[i - 1]) {
+                        throw new IllegalStateException(enumClass.getName() + " has duplicated @EnumCode " + sortedCodes[i]);
+                    }
+                }
+                constantsBySortedCode = sorted;
+            }
+        }
+
+        int codeOf(Enum<?> constant) {
+            return codes[constant.ordinal()];
+        }
+
+        E byCode(int code) {
+            if (constantsByCode != null) {
+                return code >= 0 && code < constantsByCode.length ? constantsByCode[code] : null;
+            } else {
+                int index = Arrays.binarySearch(sortedCodes, code);
+                return index >= 0 ? constantsBySortedCode[index] : null;
+            }
+        }
+    }
+
+    static class CounterPropertyFactory extends PropertyFactory<Config.CounterItem, Long> {
+
+        @Override
+        public Counter createProperty(String key, Config.CounterItem annotation, String preferenceName, SharedPreferences preferences) {
+            return new CounterProperty(ensureKey(annotation.key(), key), annotation, preferenceName, preferences);
+        }
+    }
+
+    static final class CounterProperty implements Counter, DeferredWrites.Writer {
+        private final String key;
+        private final Config.CounterItem annotation;
+        private final String preferenceName;
+        private final SharedPreferences preferences;
+        private final Lazy<AtomicLong> value;
+        private final AtomicBoolean dirty = new AtomicBoolean(false);
+        private final boolean readOnly;
+
+        CounterProperty(String key, Config.CounterItem annotation, String preferenceName, SharedPreferences preferences) {
+            this.key = key;
+            this.annotation = annotation;
+            this.preferenceName = preferenceName;
+            this.preferences = preferences;
+            this.value = Lazy.from(() -> new AtomicLong(preferences.getLong(key, annotation.defaultValue())));
+            this.readOnly = ForwardingPreferences.isReadOnly(preferences);
+        }
+
+        /**
+         * Rejects a write before it changes the value, the deferred flush would only fail later on the worker.
+         */
+        private void checkWritable() {
+            if (readOnly) {
+                throw new IllegalStateException(String.format("counter[%s] of config[%s] is read-only in this process", key, preferenceName));
+            }
+        }
+
+        @Override
+        public long incrementAndGet() {
+            return addAndGet(1);
+        }
+
+        @Override
+        public long addAndGet(long delta) {
+            checkWritable();
+            long result = value.get().addAndGet(delta);
+            markDirty();
+            return result;
+        }
+
+        @Override
+        public boolean compareAndSet(Long expect, Long update) {
+            Objects.requireNonNull(update, "counter value can not be null");
+            checkWritable();
+            // a counter always has a value, so it never equals null
+            if (expect != null && value.get().compareAndSet(expect, update)) {
+                markDirty();
+                return true;
+            } else {
+                return false;
+            }
+        }
+
+        @Override
+        public Long updateAndGet(UnaryOperator<Long> updateFunction) {
+            checkWritable();
+            AtomicLong atomic = value.get();
+            long current;
+            long result;
+            do {
+                current = atomic.get();
+                result = updateFunction.apply(current);
+            } while (!atomic.compareAndSet(current, result));
+            markDirty();
+            return result;
+        }
+
+        private void markDirty() {
+            if (dirty.compareAndSet(false, true)) {
+                DeferredWrites.schedule(this);
+            }
+        }
+
+        @Override
+        public void flush() {
+            if (dirty.compareAndSet(true, false)) {
+                synchronized (this) {
+                    preferences.edit().putLong(key, value.get().get()).apply();
+                }
+            }
+        }
+
+        @Override
+        public String getValueString() {
+            return exists() ? String.valueOf(get()) : "empty counter";
+        }
+
+        @Override
+        public String getDescription() {
+            return annotation.description();
+        }
+
+        @Override
+        public Long get(Long defValue) {
+            return exists() ? value.get().get() : defValue;
+        }
+
+        @Override
+        public Long get() {
+            return value.get().get();
+        }
+
+        @Override
+        public synchronized void set(Long newValue) {
+            checkWritable();
+            dirty.set(false);
+            value.get().set(newValue);
+            preferences.edit().putLong(key, newValue).apply();
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public String getPreferenceName() {
+            return preferenceName;
+        }
+
+        @Override
+        public boolean exists() {
+            return dirty.get() || preferences.contains(key);
+        }
+
+        @Override
+        public void addListener(Listener<Long> listener) {
+            throw new IllegalStateException("not implement");
+        }
+
+        @Override
+        public void addListener(LifecycleOwner owner, Listener<Long> listener) {
+            throw new IllegalStateException("not implement");
+        }
+
+        @Override
+        public void removeListener(Listener<Long> listener) {
+            throw new IllegalStateException("not implement");
+        }
+
+        @Override
+        public Class<?> getValueClass() {
+            return Long.class;
+        }
+    }
+
+    static class GroupPropertyFactory extends PropertyFactory<Config.Group, Object> {
+        private static final Map<Class<?>, GroupLayout> layoutMap = new ConcurrentHashMap<>();
+
+        static GroupLayout layoutOf(Class<?> type) {
+            return layoutMap.computeIfAbsent(type, GroupLayout::new);
+        }
+
+        @Override
+        public Property<Object> createProperty(String key, Config.Group annotation, String preferenceName, SharedPreferences preferences, Type valueType) {
+            if (!(valueType instanceof Class)) {
+                throw new IllegalStateException(String.format("group property \"%s\" must use a plain class: %s", key, valueType));
+            }
+            return new GroupProperty(ensureKey(annotation.key(), key), annotation.description(), layoutOf((Class<?>) valueType), preferenceName, preferences);
+        }
+    }
+
+    /**
+     * Fields of a group value class, each one is stored under {@code <key>_<field name>}.
+     */
+    static final class GroupLayout {
+        private final Class<?> type;
+        private final Constructor<?> constructor;
+        private final Field[] fields;
+
+        GroupLayout(Class<?> type) {
+            this.type = type;
+            try {
+                constructor = type.getDeclaredConstructor();
+                constructor.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                throw new IllegalStateException(String.format("group class %s needs a no-argument constructor", type.getName()), e);
+            }
+            fields = Arrays.stream(type.getDeclaredFields())
+                    .filter(field -> !Modifier.isStatic(field.getModifiers()) && !Modifier.isTransient(field.getModifiers()) && !field.isSynthetic())
+                    .sorted(Comparator.comparing(Field::getName))
+                    .toArray(Field[]::new);
+            for (Field field : fields) {
+                if (!isSupported(field.getType())) {
+                    throw new IllegalStateException(String.format("group class %s has unsupported field %s: %s", type.getName(), field.getName(), field.getType()));
+                }
+                field.setAccessible(true);
+            }
+        }
+
+        private static boolean isSupported(Class<?> fieldType) {
+            return fieldType == String.class || fieldType == Set.class
+                    || fieldType == int.class || fieldType == Integer.class
+                    || fieldType == long.class || fieldType == Long.class
+                    || fieldType == float.class || fieldType == Float.class
+                    || fieldType == double.class || fieldType == Double.class
+                    || fieldType == boolean.class || fieldType == Boolean.class;
+        }
+
+        String[] keysOf(String key) {
+            String[] keys = new String[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                keys[i] = key + "_" + fields[i].getName();
+            }
+            return keys;
+        }
+
+        Object newInstance() {
+            try {
+                return constructor.newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("can not create " + type.getName(), e);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        Object read(SharedPreferences preferences, String key, int index) {
+            Class<?> fieldType = fields[index].getType();
+            if (fieldType == String.class) {
+                return preferences.getString(key, null);
+            } else if (fieldType == Set.class) {
+                Set<String> values = preferences.getStringSet(key, null);
+                return values == null ? null : new HashSet<>(values);
+            } else if (fieldType == int.class || fieldType == Integer.class) {
+                return preferences.getInt(key, 0);
+            } else if (fieldType == long.class || fieldType == Long.class) {
+                return preferences.getLong(key, 0);
+            } else if (fieldType == float.class || fieldType == Float.class) {
+                return preferences.getFloat(key, 0);
+            } else if (fieldType == double.class || fieldType == Double.class) {
+                return Double.longBitsToDouble(preferences.getLong(key, 0));
+            } else {
+                return preferences.getBoolean(key, false);
+            }
+        }
+
+        void write(SharedPreferences.Editor editor, String key, Object value) {
+            if (value instanceof Double) {
+                editor.putLong(key, Double.doubleToRawLongBits((Double) value));
+            } else {
+                PreferenceValues.put(editor, key, value);
+            }
+        }
+    }
+
+    static final class GroupProperty implements Property<Object> {
+        private final String key;
+        private final String description;
+        private final GroupLayout layout;
+        private final String[] keys;
+        private final String preferenceName;
+        private final SharedPreferences preferences;
+
+        GroupProperty(String key, String description, GroupLayout layout, String preferenceName, SharedPreferences preferences) {
+            this.key = key;
+            this.description = description;
+            this.layout = layout;
+            this.keys = layout.keysOf(key);
+            this.preferenceName = preferenceName;
+            this.preferences = preferences;
+        }
+
+        private SharedPreferences getPreferences() {
+            return preferences;
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public String getPreferenceName() {
+            return preferenceName;
+        }
+
+        @Override
+        public boolean exists() {
+            for (String key : keys) {
+                if (preferences.contains(key)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void addListener(Listener<Object> listener) {
+            throw new IllegalStateException("not implement");
+        }
+
+        @Override
+        public void addListener(LifecycleOwner owner, Listener<Object> listener) {
+            throw new IllegalStateException("not implement");
+        }
+
+        @Override
+        public void removeListener(Listener<Object> listener) {
+            throw new IllegalStateException("not implement");
+        }
+
+        @Override
+        public String getValueString() {
+            Object value = get();
+            StringBuilder builder = new StringBuilder("{");
+            for (int i = 0; i < keys.length; i++) {
+                try {
+                    builder.append(i == 0 ? "" : ", ").append(layout.fields[i].getName()).append('=').append(layout.fields[i].get(value));
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            return builder.append('}').toString();
+        }
+
+        @Override
+        public String getDescription() {
+            return description;
+        }
+
+        @Override
+        public Object get(Object defValue) {
+            SharedPreferences preferences = getPreferences();
+            // created outside the lock, the constructor is code of the caller
+            Object value = layout.newInstance();
+            // writers hold the same lock, so the fields are never read between two group writes
+            synchronized (KeyLocks.of(getPreferenceName(), getKey())) {
+                if (!exists()) {
+                    return defValue;
+                }
+                try {
+                    for (int i = 0; i < keys.length; i++) {
+                        if (preferences.contains(keys[i])) {
+                            layout.fields[i].set(value, layout.read(preferences, keys[i], i));
+                        }
+                    }
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException(e);
+                }
+                return value;
+            }
+        }
+
+        @Override
+        public Object get() {
+            Object value = get(null);
+            return value != null ? value : layout.newInstance();
+        }
+
+        @Override
+        public void set(Object value) {
+            synchronized (KeyLocks.of(getPreferenceName(), getKey())) {
+                SharedPreferences.Editor editor = getPreferences().edit();
+                try {
+                    for (int i = 0; i < keys.length; i++) {
+                        Object fieldValue = value == null ? null : layout.fields[i].get(value);
+                        layout.write(editor, keys[i], fieldValue);
+                    }
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException(e);
+                }
+                editor.apply();
+            }
+        }
+
+        @Override
+        public Class<?> getValueClass() {
+            return layout.type;
+        }
+    }
 }
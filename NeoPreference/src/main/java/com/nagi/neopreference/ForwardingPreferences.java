@@ -0,0 +1,190 @@
+package com.nagi.neopreference;
+
+import android.content.SharedPreferences;
+import androidx.annotation.Nullable;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+abstract class ForwardingPreferences implements SharedPreferences {
+    protected final SharedPreferences base;
+    private final Map<OnSharedPreferenceChangeListener, OnSharedPreferenceChangeListener> listenerMap = new ConcurrentHashMap<>();
+
+    protected ForwardingPreferences(SharedPreferences base) {
+        this.base = base;
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        return base.getAll();
+    }
+
+    @Nullable
+    @Override
+    public String getString(String key, @Nullable String defValue) {
+        return base.getString(key, defValue);
+    }
+
+    @Nullable
+    @Override
+    public Set<String> getStringSet(String key, @Nullable Set<String> defValues) {
+        return base.getStringSet(key, defValues);
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        return base.getInt(key, defValue);
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        return base.getLong(key, defValue);
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        return base.getFloat(key, defValue);
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        return base.getBoolean(key, defValue);
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return base.contains(key);
+    }
+
+    @Override
+    public Editor edit() {
+        return base.edit();
+    }
+
+    /**
+     * Whether every write through this store is rejected, e.g. in a process which does not own the file.
+     */
+    boolean isReadOnly() {
+        return isReadOnly(base);
+    }
+
+    static boolean isReadOnly(SharedPreferences preferences) {
+        return preferences instanceof ForwardingPreferences && ((ForwardingPreferences) preferences).isReadOnly();
+    }
+
+    /**
+     * Whether reading {@code key} can go to the disk although the file is loaded, e.g. for a spilled value.
+     */
+    boolean isExpensiveRead(String key) {
+        return isExpensiveRead(base, key);
+    }
+
+    static boolean isExpensiveRead(SharedPreferences preferences, String key) {
+        if (preferences instanceof ForwardingPreferences) {
+            return ((ForwardingPreferences) preferences).isExpensiveRead(key);
+        } else if (preferences instanceof ShardedPreferences) {
+            return ((ShardedPreferences) preferences).isExpensiveRead(key);
+        }
+        return false;
+    }
+
+    /**
+     * The keys stored in the files beneath this store, internal ones included, listed without loading a value
+     * such as a spilled blob.
+     */
+    Set<String> storedKeys() {
+        return storedKeysOf(base);
+    }
+
+    static Set<String> storedKeysOf(SharedPreferences preferences) {
+        if (preferences instanceof ForwardingPreferences) {
+            return ((ForwardingPreferences) preferences).storedKeys();
+        } else if (preferences instanceof ShardedPreferences) {
+            return ((ShardedPreferences) preferences).storedKeys();
+        }
+        return preferences.getAll().keySet();
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        OnSharedPreferenceChangeListener forwarding = (preferences, key) -> listener.onSharedPreferenceChanged(this, key);
+        if (listenerMap.putIfAbsent(listener, forwarding) == null) {
+            base.registerOnSharedPreferenceChangeListener(forwarding);
+        }
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        OnSharedPreferenceChangeListener forwarding = listenerMap.remove(listener);
+        if (forwarding != null) {
+            base.unregisterOnSharedPreferenceChangeListener(forwarding);
+        }
+    }
+
+    static class ForwardingEditor implements Editor {
+        protected final Editor base;
+
+        ForwardingEditor(Editor base) {
+            this.base = base;
+        }
+
+        @Override
+        public Editor putString(String key, @Nullable String value) {
+            base.putString(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putStringSet(String key, @Nullable Set<String> values) {
+            base.putStringSet(key, values);
+            return this;
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            base.putInt(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            base.putLong(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            base.putFloat(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            base.putBoolean(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor remove(String key) {
+            base.remove(key);
+            return this;
+        }
+
+        @Override
+        public Editor clear() {
+            base.clear();
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            return base.commit();
+        }
+
+        @Override
+        public void apply() {
+            base.apply();
+        }
+    }
+}
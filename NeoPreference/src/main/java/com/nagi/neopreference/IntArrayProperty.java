@@ -0,0 +1,29 @@
+package com.nagi.neopreference;
+
+import java.nio.IntBuffer;
+
+/**
+ * An {@link Config.IntArrayItem} property, declare it as the return type to read without copying.
+ */
+public interface IntArrayProperty extends Property<int[]> {
+
+    /**
+     * Returns a read-only view of the stored array, {@link #get()} returns a copy.
+     */
+    IntBuffer getView();
+}
+
+final class IntArrayWrapper extends PropertyWrapper<int[]> implements IntArrayProperty {
+    private static final int[] EMPTY = new int[0];
+
+    IntArrayWrapper(Property<int[]> impl) {
+        super(impl);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public IntBuffer getView() {
+        int[] array = ((Factories.ArrayProperty<?, int[]>) impl).peek();
+        return IntBuffer.wrap(array != null ? array : EMPTY).asReadOnlyBuffer();
+    }
+}
@@ -0,0 +1,253 @@
+package com.nagi.neopreference;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of editor commits. Each record is {@code [length][crc32][payload]} and is fsync'd before
+ * {@link #append} returns; reading stops at the first truncated or corrupted record.
+ */
+final class Journal {
+    private static final int HEADER_SIZE = 8;
+
+    private static final byte TYPE_REMOVE = 0;
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_FLOAT = 4;
+    private static final byte TYPE_BOOLEAN = 5;
+    private static final byte TYPE_STRING_SET = 6;
+
+    static final class Record {
+        final boolean clear;
+        final Map<String, Object> changes;
+
+        Record(boolean clear, Map<String, Object> changes) {
+            this.clear = clear;
+            this.changes = changes;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Record)) return false;
+            Record record = (Record) o;
+            return clear == record.clear && changes.equals(record.changes);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(clear, changes);
+        }
+
+        @Override
+        public String toString() {
+            return "Record{clear=" + clear + ", changes=" + changes + '}';
+        }
+    }
+
+    private final File file;
+    private FileOutputStream outputStream;
+    private long size;
+
+    Journal(File file) {
+        this.file = file;
+        this.size = file.length();
+    }
+
+    synchronized long size() {
+        return size;
+    }
+
+    synchronized void append(boolean clear, Map<String, Object> changes) throws IOException {
+        byte[] payload = encode(clear, changes);
+        CRC32 crc32 = new CRC32();
+        crc32.update(payload);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE + payload.length);
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(payload.length);
+        output.writeInt((int) crc32.getValue());
+        output.write(payload);
+        FileOutputStream stream = ensureOutputStream();
+        stream.write(bytes.toByteArray());
+        stream.getFD().sync();
+        size += bytes.size();
+    }
+
+    /**
+     * Returns the records of the valid prefix of the log.
+     */
+    synchronized List<Record> read() throws IOException {
+        List<Record> records = new ArrayList<>();
+        if (!file.exists()) {
+            return records;
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            long remaining = file.length();
+            while (remaining >= HEADER_SIZE) {
+                int length = input.readInt();
+                int checksum = input.readInt();
+                remaining -= HEADER_SIZE;
+                if (length < 0 || length > remaining) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                input.readFully(payload);
+                remaining -= length;
+                CRC32 crc32 = new CRC32();
+                crc32.update(payload);
+                if ((int) crc32.getValue() != checksum) {
+                    break;
+                }
+                records.add(decode(payload));
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Drops the first {@code position} bytes, which must end on a record boundary.
+     */
+    synchronized void discard(long position) throws IOException {
+        closeOutputStream();
+        if (position >= size) {
+            new FileOutputStream(file).close();
+            size = 0;
+            return;
+        }
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile input = new RandomAccessFile(file, "r");
+             FileOutputStream output = new FileOutputStream(tempFile)) {
+            input.seek(position);
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                output.write(buffer, 0, count);
+            }
+            output.getFD().sync();
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("can not rename " + tempFile + " to " + file);
+        }
+        size = file.length();
+    }
+
+    synchronized void close() throws IOException {
+        closeOutputStream();
+    }
+
+    private FileOutputStream ensureOutputStream() throws IOException {
+        if (outputStream == null) {
+            File directory = file.getParentFile();
+            if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("can not create directory " + directory);
+            }
+            outputStream = new FileOutputStream(file, true);
+        }
+        return outputStream;
+    }
+
+    private void closeOutputStream() throws IOException {
+        if (outputStream != null) {
+            outputStream.close();
+            outputStream = null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static byte[] encode(boolean clear, Map<String, Object> changes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeBoolean(clear);
+        output.writeInt(changes.size());
+        for (Map.Entry<String, Object> entry : changes.entrySet()) {
+            writeString(output, entry.getKey());
+            Object value = entry.getValue();
+            if (value == null) {
+                output.writeByte(TYPE_REMOVE);
+            } else if (value instanceof String) {
+                output.writeByte(TYPE_STRING);
+                writeString(output, (String) value);
+            } else if (value instanceof Integer) {
+                output.writeByte(TYPE_INT);
+                output.writeInt((Integer) value);
+            } else if (value instanceof Long) {
+                output.writeByte(TYPE_LONG);
+                output.writeLong((Long) value);
+            } else if (value instanceof Float) {
+                output.writeByte(TYPE_FLOAT);
+                output.writeFloat((Float) value);
+            } else if (value instanceof Boolean) {
+                output.writeByte(TYPE_BOOLEAN);
+                output.writeBoolean((Boolean) value);
+            } else if (value instanceof Set) {
+                output.writeByte(TYPE_STRING_SET);
+                Set<String> values = (Set<String>) value;
+                output.writeInt(values.size());
+                for (String item : values) {
+                    writeString(output, item);
+                }
+            } else {
+                throw new IllegalArgumentException(String.format("unsupported value type for key[%s]: %s", entry.getKey(), value.getClass()));
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Record decode(byte[] payload) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload));
+        boolean clear = input.readBoolean();
+        int count = input.readInt();
+        Map<String, Object> changes = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            String key = readString(input);
+            byte type = input.readByte();
+            switch (type) {
+                case TYPE_REMOVE:
+                    changes.put(key, null);
+                    break;
+                case TYPE_STRING:
+                    changes.put(key, readString(input));
+                    break;
+                case TYPE_INT:
+                    changes.put(key, input.readInt());
+                    break;
+                case TYPE_LONG:
+                    changes.put(key, input.readLong());
+                    break;
+                case TYPE_FLOAT:
+                    changes.put(key, input.readFloat());
+                    break;
+                case TYPE_BOOLEAN:
+                    changes.put(key, input.readBoolean());
+                    break;
+                case TYPE_STRING_SET:
+                    int size = input.readInt();
+                    Set<String> values = new HashSet<>();
+                    for (int j = 0; j < size; j++) {
+                        values.add(readString(input));
+                    }
+                    changes.put(key, values);
+                    break;
+                default:
+                    throw new IOException("unknown value type: " + type);
+            }
+        }
+        return new Record(clear, changes);
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,290 @@
+package com.nagi.neopreference;
+
+import android.content.SharedPreferences;
+import android.util.Log;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Makes every commit durable by appending it to a {@link Journal} before the cheap in-memory {@code apply()},
+ * the journal is replayed on open and checkpointed into the store in the background. The replay runs on the
+ * worker, until it is done reads of the keys it changes and all writes wait for it.
+ */
+final class JournaledPreferences extends ForwardingPreferences {
+    private static final String TAG = "JournaledPreferences";
+    private static final long CHECKPOINT_DELAY_SECONDS = 5;
+    private static final long MAX_JOURNAL_BYTES = 64 * 1024;
+
+    private final Journal journal;
+    private final AtomicBoolean checkpointScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean replayStarted = new AtomicBoolean(false);
+    private final CountDownLatch replayed = new CountDownLatch(1);
+    // the keys the journal changes, null until it is read; a journal holding a clear() changes every key
+    private volatile Set<String> replayedKeys;
+    private volatile boolean replayClears = false;
+
+    JournaledPreferences(SharedPreferences base, Journal journal) {
+        super(base);
+        this.journal = journal;
+        if (journal.size() > 0) {
+            Workers.execute(this::replay);
+        } else {
+            replayStarted.set(true);
+            replayed.countDown();
+        }
+    }
+
+    /**
+     * Applies the journal to the store, or waits for the thread already doing so. Run by a reader too when the
+     * worker has not started yet, so a read on the worker itself never waits for a task queued behind it.
+     */
+    private void replay() {
+        if (!replayStarted.compareAndSet(false, true)) {
+            awaitReplayed();
+            return;
+        }
+        boolean read = false;
+        try {
+            List<Journal.Record> records = journal.read();
+            Set<String> keys = new HashSet<>();
+            for (Journal.Record record : records) {
+                replayClears |= record.clear;
+                keys.addAll(record.changes.keySet());
+            }
+            replayedKeys = keys;
+            read = true;
+            Editor editor = base.edit();
+            for (Journal.Record record : records) {
+                if (record.clear) {
+                    // an editor applies clear() before its puts, so changes made before the clear go first
+                    editor.apply();
+                    editor = base.edit().clear();
+                }
+                for (Map.Entry<String, Object> entry : record.changes.entrySet()) {
+                    PreferenceValues.put(editor, entry.getKey(), entry.getValue());
+                }
+            }
+            editor.apply();
+        } catch (IOException e) {
+            Log.w(TAG, "replay journal failed", e);
+        } finally {
+            replayed.countDown();
+        }
+        if (read) {
+            // the checkpoint waits for the applied records to reach disk before it discards them
+            scheduleCheckpoint();
+        }
+    }
+
+    private void awaitReplayed() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                replayed.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits for the replay if it may change {@code key}, or any key if it is null.
+     */
+    private void awaitReplay(@Nullable String key) {
+        if (replayed.getCount() == 0) {
+            return;
+        }
+        Set<String> keys = replayedKeys;
+        if (key != null && keys != null && !replayClears && !keys.contains(key)) {
+            return;
+        }
+        replay();
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        awaitReplay(null);
+        return super.getAll();
+    }
+
+    @Nullable
+    @Override
+    public String getString(String key, @Nullable String defValue) {
+        awaitReplay(key);
+        return super.getString(key, defValue);
+    }
+
+    @Nullable
+    @Override
+    public Set<String> getStringSet(String key, @Nullable Set<String> defValues) {
+        awaitReplay(key);
+        return super.getStringSet(key, defValues);
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        awaitReplay(key);
+        return super.getInt(key, defValue);
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        awaitReplay(key);
+        return super.getLong(key, defValue);
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        awaitReplay(key);
+        return super.getFloat(key, defValue);
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        awaitReplay(key);
+        return super.getBoolean(key, defValue);
+    }
+
+    @Override
+    public boolean contains(String key) {
+        awaitReplay(key);
+        return super.contains(key);
+    }
+
+    @Override
+    Set<String> storedKeys() {
+        awaitReplay(null);
+        return super.storedKeys();
+    }
+
+    private void checkpoint() {
+        checkpointScheduled.set(false);
+        long position = journal.size();
+        // waits for every earlier apply() to reach disk, so the records before position are no longer needed
+        if (position > 0 && base.edit().commit()) {
+            try {
+                journal.discard(position);
+            } catch (IOException e) {
+                Log.w(TAG, "checkpoint journal failed", e);
+            }
+        }
+    }
+
+    private void scheduleCheckpoint() {
+        if (journal.size() >= MAX_JOURNAL_BYTES) {
+            if (checkpointScheduled.compareAndSet(false, true)) {
+                Workers.execute(this::checkpoint);
+            }
+        } else if (checkpointScheduled.compareAndSet(false, true)) {
+            Workers.schedule(this::checkpoint, CHECKPOINT_DELAY_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    public Editor edit() {
+        // a write made before the replay would be overwritten by it
+        awaitReplay(null);
+        return new JournaledEditor(base.edit());
+    }
+
+    private final class JournaledEditor extends ForwardingEditor {
+        private final Map<String, Object> changes = new LinkedHashMap<>();
+        private boolean clear = false;
+
+        JournaledEditor(Editor base) {
+            super(base);
+        }
+
+        @Override
+        public Editor putString(String key, @Nullable String value) {
+            changes.put(key, value);
+            return super.putString(key, value);
+        }
+
+        @Override
+        public Editor putStringSet(String key, @Nullable Set<String> values) {
+            changes.put(key, values == null ? null : new HashSet<>(values));
+            return super.putStringSet(key, values);
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            changes.put(key, value);
+            return super.putInt(key, value);
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            changes.put(key, value);
+            return super.putLong(key, value);
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            changes.put(key, value);
+            return super.putFloat(key, value);
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            changes.put(key, value);
+            return super.putBoolean(key, value);
+        }
+
+        @Override
+        public Editor remove(String key) {
+            changes.put(key, null);
+            return super.remove(key);
+        }
+
+        @Override
+        public Editor clear() {
+            clear = true;
+            return super.clear();
+        }
+
+        @Override
+        public boolean commit() {
+            if (!clear && changes.isEmpty()) {
+                return base.commit();
+            }
+            return write();
+        }
+
+        @Override
+        public void apply() {
+            if (!clear && changes.isEmpty()) {
+                base.apply();
+                return;
+            }
+            write();
+        }
+
+        private boolean write() {
+            // the append and the in-memory apply are ordered together so a checkpoint never skips a record
+            synchronized (journal) {
+                try {
+                    journal.append(clear, changes);
+                } catch (IOException e) {
+                    Log.w(TAG, "append journal failed, fall back to commit", e);
+                    return base.commit();
+                } finally {
+                    changes.clear();
+                    clear = false;
+                }
+                base.apply();
+            }
+            scheduleCheckpoint();
+            return true;
+        }
+    }
+}
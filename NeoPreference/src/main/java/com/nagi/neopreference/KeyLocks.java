@@ -0,0 +1,26 @@
+package com.nagi.neopreference;
+
+/**
+ * Striped locks making the read and write of one key atomic. Unrelated keys share a stripe, so only reads
+ * and writes of the store may run under one, never a callback which could take another stripe.
+ */
+final class KeyLocks {
+    private static final int STRIPE_COUNT = 64;
+    private static final Object[] STRIPES = new Object[STRIPE_COUNT];
+
+    static {
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            STRIPES[i] = new Object();
+        }
+    }
+
+    private KeyLocks() {
+
+    }
+
+    static Object of(String preferenceName, String key) {
+        int hash = 31 * preferenceName.hashCode() + key.hashCode();
+        hash ^= (hash >>> 16);
+        return STRIPES[hash & (STRIPE_COUNT - 1)];
+    }
+}
@@ -3,7 +3,7 @@ package com.nagi.neopreference;
 import java.util.function.Supplier;
 
 public class Lazy<T> implements Supplier<T> {
-    private final Supplier<T> supplier;
+    private Supplier<T> supplier;
     private T value;
     private volatile boolean isEvaluated = false;
 
@@ -19,6 +19,10 @@ public class Lazy<T> implements Supplier<T> {
         this.supplier = supplier;
     }
 
+    public boolean isEvaluated() {
+        return isEvaluated;
+    }
+
     @Override
     public T get() {
         if (!isEvaluated) {
@@ -26,6 +30,7 @@ public class Lazy<T> implements Supplier<T> {
                 if (!isEvaluated) {
                     value = supplier.get();
                     isEvaluated = true;
+                    supplier = null;
                 }
             }
         }
@@ -0,0 +1,29 @@
+package com.nagi.neopreference;
+
+import java.nio.LongBuffer;
+
+/**
+ * A {@link Config.LongArrayItem} property, declare it as the return type to read without copying.
+ */
+public interface LongArrayProperty extends Property<long[]> {
+
+    /**
+     * Returns a read-only view of the stored array, {@link #get()} returns a copy.
+     */
+    LongBuffer getView();
+}
+
+final class LongArrayWrapper extends PropertyWrapper<long[]> implements LongArrayProperty {
+    private static final long[] EMPTY = new long[0];
+
+    LongArrayWrapper(Property<long[]> impl) {
+        super(impl);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public LongBuffer getView() {
+        long[] array = ((Factories.ArrayProperty<?, long[]>) impl).peek();
+        return LongBuffer.wrap(array != null ? array : EMPTY).asReadOnlyBuffer();
+    }
+}
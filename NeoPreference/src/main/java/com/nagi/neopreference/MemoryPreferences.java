@@ -0,0 +1,185 @@
+package com.nagi.neopreference;
+
+import android.content.SharedPreferences;
+import androidx.annotation.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+final class MemoryPreferences implements SharedPreferences {
+    private static final Object REMOVED = new Object();
+
+    private final Map<String, Object> values = new ConcurrentHashMap<>();
+    private final Set<OnSharedPreferenceChangeListener> listeners = new CopyOnWriteArraySet<>();
+    // orders the commits of all editors, like mLock in SharedPreferencesImpl, so a clear and its puts are atomic
+    private final Object lock = new Object();
+
+    @Override
+    public Map<String, ?> getAll() {
+        synchronized (lock) {
+            return new HashMap<>(values);
+        }
+    }
+
+    @Nullable
+    @Override
+    public String getString(String key, @Nullable String defValue) {
+        Object v = values.get(key);
+        return v != null ? (String) v : defValue;
+    }
+
+    @Nullable
+    @Override
+    @SuppressWarnings("unchecked")
+    public Set<String> getStringSet(String key, @Nullable Set<String> defValues) {
+        Object v = values.get(key);
+        return v != null ? (Set<String>) v : defValues;
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        Object v = values.get(key);
+        return v != null ? (Integer) v : defValue;
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        Object v = values.get(key);
+        return v != null ? (Long) v : defValue;
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        Object v = values.get(key);
+        return v != null ? (Float) v : defValue;
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        Object v = values.get(key);
+        return v != null ? (Boolean) v : defValue;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return values.containsKey(key);
+    }
+
+    @Override
+    public Editor edit() {
+        return new MemoryEditor();
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    private final class MemoryEditor implements Editor {
+        private final Map<String, Object> changes = new HashMap<>();
+        private boolean clear = false;
+
+        @Override
+        public synchronized Editor putString(String key, @Nullable String value) {
+            changes.put(key, value == null ? REMOVED : value);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor putStringSet(String key, @Nullable Set<String> values) {
+            changes.put(key, values == null ? REMOVED : Collections.unmodifiableSet(new HashSet<>(values)));
+            return this;
+        }
+
+        @Override
+        public synchronized Editor putInt(String key, int value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor putLong(String key, long value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor putFloat(String key, float value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor putBoolean(String key, boolean value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor remove(String key) {
+            changes.put(key, REMOVED);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor clear() {
+            clear = true;
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            List<String> changedKeys = new ArrayList<>();
+            synchronized (lock) {
+                commitToMemory(changedKeys);
+            }
+            for (String key : changedKeys) {
+                for (OnSharedPreferenceChangeListener listener : listeners) {
+                    listener.onSharedPreferenceChanged(MemoryPreferences.this, key);
+                }
+            }
+            return true;
+        }
+
+        private void commitToMemory(List<String> changedKeys) {
+            synchronized (this) {
+                Map<String, Object> cleared = null;
+                if (clear) {
+                    cleared = new HashMap<>(values);
+                    values.clear();
+                    clear = false;
+                }
+                for (Map.Entry<String, Object> entry : changes.entrySet()) {
+                    String key = entry.getKey();
+                    Object value = entry.getValue();
+                    Object previous = value == REMOVED ? values.remove(key) : values.put(key, value);
+                    if (cleared == null && !Objects.equals(previous, value == REMOVED ? null : value)) {
+                        changedKeys.add(key);
+                    }
+                }
+                if (cleared != null) {
+                    // compare with the values before clear, so keys put back unchanged are not reported
+                    Set<String> keys = new HashSet<>(cleared.keySet());
+                    keys.addAll(changes.keySet());
+                    for (String key : keys) {
+                        if (!Objects.equals(cleared.get(key), values.get(key))) {
+                            changedKeys.add(key);
+                        }
+                    }
+                }
+                changes.clear();
+            }
+        }
+
+        @Override
+        public void apply() {
+            commit();
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package com.nagi.neopreference;
+
+import android.content.SharedPreferences;
+import android.os.Looper;
+import android.util.Log;
+import androidx.annotation.Nullable;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Reports main thread accesses which can block on the disk. Whether the file is loaded is probed by a read
+ * in the background, and applies are pending until an empty commit queued behind them returns.
+ */
+final class MonitoredPreferences extends ForwardingPreferences {
+    private static final String TAG = "DiskAccess";
+    private static final String PROBE_KEY = StorageReport.INTERNAL_KEY_PREFIX + "_probe";
+    // not the worker, the store would be reported as unloaded while its probe is queued behind unrelated work,
+    // and a thread per waiting task keeps a slow file from delaying the probes of the others
+    private static final ExecutorService MONITOR_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "NeoPreference-monitor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static volatile DiskAccessPolicy policy = DiskAccessPolicy.OFF;
+    private static volatile Consumer<DiskAccessViolation> listener;
+    private static volatile Thread mainThread;
+    private static final AtomicLong violationCount = new AtomicLong();
+
+    private final String preferenceName;
+    private final AtomicInteger pendingApplies = new AtomicInteger();
+    private volatile boolean loaded = false;
+
+    MonitoredPreferences(SharedPreferences base, String preferenceName) {
+        super(base);
+        this.preferenceName = preferenceName;
+        MONITOR_EXECUTOR.execute(() -> {
+            base.contains(PROBE_KEY);
+            loaded = true;
+        });
+    }
+
+    static DiskAccessPolicy getPolicy() {
+        return policy;
+    }
+
+    static void setPolicy(DiskAccessPolicy policy) {
+        MonitoredPreferences.policy = policy;
+    }
+
+    static void setListener(@Nullable Consumer<DiskAccessViolation> listener) {
+        MonitoredPreferences.listener = listener;
+    }
+
+    static long getViolationCount() {
+        return violationCount.get();
+    }
+
+    static void setMainThread(Thread thread) {
+        mainThread = thread;
+    }
+
+    private static boolean isMainThread() {
+        Thread thread = mainThread;
+        if (thread == null) {
+            thread = Looper.getMainLooper().getThread();
+            mainThread = thread;
+        }
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Reports a main thread read of a spilled value from its blob file, which is beneath this store.
+     */
+    static void checkBlobRead(String preferenceName, String key) {
+        if (policy != DiskAccessPolicy.OFF && isMainThread()) {
+            report(preferenceName, key, DiskAccessViolation.Reason.SPILLED_VALUE);
+        }
+    }
+
+    boolean isLoaded() {
+        return loaded;
+    }
+
+    boolean hasPendingApplies() {
+        return pendingApplies.get() > 0;
+    }
+
+    private void checkRead(@Nullable String key) {
+        if (!loaded && isMainThread()) {
+            report(preferenceName, key, DiskAccessViolation.Reason.UNLOADED_STORE);
+        }
+    }
+
+    private void checkWrite(@Nullable String key, boolean commit) {
+        if (!isMainThread()) {
+            return;
+        }
+        if (!loaded) {
+            report(preferenceName, key, DiskAccessViolation.Reason.UNLOADED_STORE);
+        } else if (commit) {
+            report(preferenceName, key, DiskAccessViolation.Reason.COMMIT);
+        } else if (pendingApplies.get() > 0) {
+            report(preferenceName, key, DiskAccessViolation.Reason.PENDING_FLUSH);
+        }
+    }
+
+    private static void report(String preferenceName, @Nullable String key, DiskAccessViolation.Reason reason) {
+        DiskAccessPolicy current = policy;
+        if (current == DiskAccessPolicy.OFF) {
+            return;
+        }
+        DiskAccessViolation violation = new DiskAccessViolation(preferenceName, key, reason);
+        violationCount.incrementAndGet();
+        Consumer<DiskAccessViolation> currentListener = listener;
+        if (currentListener != null) {
+            currentListener.accept(violation);
+        }
+        if (current == DiskAccessPolicy.LOG) {
+            Log.w(TAG, violation.getMessage(), violation);
+        } else if (current == DiskAccessPolicy.THROW) {
+            throw violation;
+        }
+    }
+
+    private void onApplied() {
+        if (pendingApplies.getAndIncrement() == 0) {
+            MONITOR_EXECUTOR.execute(this::settle);
+        }
+    }
+
+    private void settle() {
+        int settled;
+        do {
+            settled = pendingApplies.get();
+            // an empty commit returns after the applies queued before it are on disk
+            base.edit().commit();
+        } while (pendingApplies.addAndGet(-settled) > 0);
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        checkRead(null);
+        return base.getAll();
+    }
+
+    @Nullable
+    @Override
+    public String getString(String key, @Nullable String defValue) {
+        checkRead(key);
+        return base.getString(key, defValue);
+    }
+
+    @Nullable
+    @Override
+    public Set<String> getStringSet(String key, @Nullable Set<String> defValues) {
+        checkRead(key);
+        return base.getStringSet(key, defValues);
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        checkRead(key);
+        return base.getInt(key, defValue);
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        checkRead(key);
+        return base.getLong(key, defValue);
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        checkRead(key);
+        return base.getFloat(key, defValue);
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        checkRead(key);
+        return base.getBoolean(key, defValue);
+    }
+
+    @Override
+    public boolean contains(String key) {
+        checkRead(key);
+        return base.contains(key);
+    }
+
+    @Override
+    public Editor edit() {
+        return new ForwardingEditor(base.edit()) {
+            private String firstKey;
+
+            private void record(String key) {
+                if (firstKey == null) {
+                    firstKey = key;
+                }
+            }
+
+            @Override
+            public Editor putString(String key, @Nullable String value) {
+                record(key);
+                return super.putString(key, value);
+            }
+
+            @Override
+            public Editor putStringSet(String key, @Nullable Set<String> values) {
+                record(key);
+                return super.putStringSet(key, values);
+            }
+
+            @Override
+            public Editor putInt(String key, int value) {
+                record(key);
+                return super.putInt(key, value);
+            }
+
+            @Override
+            public Editor putLong(String key, long value) {
+                record(key);
+                return super.putLong(key, value);
+            }
+
+            @Override
+            public Editor putFloat(String key, float value) {
+                record(key);
+                return super.putFloat(key, value);
+            }
+
+            @Override
+            public Editor putBoolean(String key, boolean value) {
+                record(key);
+                return super.putBoolean(key, value);
+            }
+
+            @Override
+            public Editor remove(String key) {
+                record(key);
+                return super.remove(key);
+            }
+
+            @Override
+            public boolean commit() {
+                checkWrite(firstKey, true);
+                return base.commit();
+            }
+
+            @Override
+            public void apply() {
+                checkWrite(firstKey, false);
+                base.apply();
+                onApplied();
+            }
+        };
+    }
+}
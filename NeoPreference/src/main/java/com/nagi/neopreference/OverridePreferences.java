@@ -0,0 +1,103 @@
+package com.nagi.neopreference;
+
+import android.content.SharedPreferences;
+import androidx.annotation.Nullable;
+
+import java.util.*;
+
+/**
+ * Resolves reads through the in-memory override layer, then the override file, then the persisted value.
+ * The layers are flattened into one immutable map which is only rebuilt after a layer changed.
+ */
+final class OverridePreferences extends ForwardingPreferences {
+    private final String preferenceName;
+    private final SharedPreferences fileLayer;
+    private final OnSharedPreferenceChangeListener fileLayerListener = (preferences, key) -> invalidate();
+    private volatile Map<String, Object> flattened;
+    private volatile int memoryLayerVersion = -1;
+
+    OverridePreferences(SharedPreferences base, String preferenceName, SharedPreferences fileLayer) {
+        super(base);
+        this.preferenceName = preferenceName;
+        this.fileLayer = fileLayer;
+        fileLayer.registerOnSharedPreferenceChangeListener(fileLayerListener);
+    }
+
+    private void invalidate() {
+        flattened = null;
+    }
+
+    private Map<String, Object> layers() {
+        ConfigManager manager = ConfigManager.getInstance();
+        int version = manager.getOverrideVersion();
+        Map<String, Object> current = flattened;
+        if (current == null || version != memoryLayerVersion) {
+            synchronized (this) {
+                current = flattened;
+                if (current == null || version != memoryLayerVersion) {
+                    Map<String, Object> map = new HashMap<>(fileLayer.getAll());
+                    map.putAll(manager.getMemoryOverrides(preferenceName));
+                    current = map.isEmpty() ? Collections.emptyMap() : Collections.unmodifiableMap(map);
+                    memoryLayerVersion = version;
+                    flattened = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    boolean hasOverrides() {
+        return !layers().isEmpty();
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        Map<String, Object> all = new HashMap<>(base.getAll());
+        all.putAll(layers());
+        return all;
+    }
+
+    @Nullable
+    @Override
+    public String getString(String key, @Nullable String defValue) {
+        Object value = layers().get(key);
+        return value != null ? (String) value : base.getString(key, defValue);
+    }
+
+    @Nullable
+    @Override
+    @SuppressWarnings("unchecked")
+    public Set<String> getStringSet(String key, @Nullable Set<String> defValues) {
+        Object value = layers().get(key);
+        return value != null ? (Set<String>) value : base.getStringSet(key, defValues);
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        Object value = layers().get(key);
+        return value != null ? (Integer) value : base.getInt(key, defValue);
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        Object value = layers().get(key);
+        return value != null ? (Long) value : base.getLong(key, defValue);
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        Object value = layers().get(key);
+        return value != null ? (Float) value : base.getFloat(key, defValue);
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        Object value = layers().get(key);
+        return value != null ? (Boolean) value : base.getBoolean(key, defValue);
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return layers().containsKey(key) || base.contains(key);
+    }
+}
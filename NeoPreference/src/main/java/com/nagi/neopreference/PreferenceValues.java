@@ -0,0 +1,58 @@
+package com.nagi.neopreference;
+
+import android.content.SharedPreferences;
+
+import java.util.Arrays;
+import java.util.Set;
+
+final class PreferenceValues {
+
+    private PreferenceValues() {
+
+    }
+
+    @SuppressWarnings("unchecked")
+    static void put(SharedPreferences.Editor editor, String key, Object value) {
+        if (value == null) {
+            editor.remove(key);
+        } else if (value instanceof String) {
+            editor.putString(key, (String) value);
+        } else if (value instanceof Integer) {
+            editor.putInt(key, (Integer) value);
+        } else if (value instanceof Long) {
+            editor.putLong(key, (Long) value);
+        } else if (value instanceof Float) {
+            editor.putFloat(key, (Float) value);
+        } else if (value instanceof Boolean) {
+            editor.putBoolean(key, (Boolean) value);
+        } else if (value instanceof Set) {
+            editor.putStringSet(key, (Set<String>) value);
+        } else {
+            throw new IllegalArgumentException(String.format("unsupported value type for key[%s]: %s", key, value.getClass()));
+        }
+    }
+
+    /**
+     * Whether writing {@code newValue} over {@code oldValue} would store the same thing. Floats and doubles compare
+     * by bits, so NaN equals NaN while 0.0 and -0.0 differ, arrays and sets compare by content.
+     */
+    static boolean equal(Object oldValue, Object newValue) {
+        if (oldValue == newValue) {
+            return true;
+        } else if (oldValue == null || newValue == null) {
+            return false;
+        } else if (oldValue instanceof Float && newValue instanceof Float) {
+            return Float.floatToIntBits((Float) oldValue) == Float.floatToIntBits((Float) newValue);
+        } else if (oldValue instanceof Double && newValue instanceof Double) {
+            return Double.doubleToLongBits((Double) oldValue) == Double.doubleToLongBits((Double) newValue);
+        } else if (oldValue.getClass().isArray() && newValue.getClass().isArray()) {
+            return Arrays.deepEquals(new Object[]{oldValue}, new Object[]{newValue});
+        } else if (oldValue instanceof Set && newValue instanceof Set) {
+            Set<?> oldSet = (Set<?>) oldValue;
+            Set<?> newSet = (Set<?>) newValue;
+            return oldSet.size() == newSet.size() && oldSet.containsAll(newSet);
+        } else {
+            return oldValue.equals(newValue);
+        }
+    }
+}
@@ -2,10 +2,14 @@ package com.nagi.neopreference;
 
 import android.content.SharedPreferences;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.lifecycle.DefaultLifecycleObserver;
 import androidx.lifecycle.LifecycleOwner;
 
 import java.util.*;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
 
 public interface Property<T> {
     default Optional<T> opt() {
@@ -24,6 +28,57 @@ public interface Property<T> {
 
     void set(T value);
 
+    /**
+     * Same as {@link #set(Object)}, the returned future completes once the value has reached disk,
+     * or fails when the config is not open.
+     */
+    default WriteFuture setAsync(T value) {
+        set(value);
+        return ConfigManager.getInstance().flush(getPreferenceName());
+    }
+
+    /**
+     * Sets {@code update} if the value equals {@code expect}, arrays and sets compare by content.
+     */
+    default boolean compareAndSet(T expect, T update) {
+        synchronized (KeyLocks.of(getPreferenceName(), getKey())) {
+            if (PreferenceValues.equal(get(), expect)) {
+                set(update);
+                return true;
+            } else {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Sets the result of {@code updateFunction}, which runs without any lock held and is applied again
+     * if the value changed meanwhile, so it may read or update other properties.
+     */
+    default T updateAndGet(UnaryOperator<T> updateFunction) {
+        while (true) {
+            T current = get();
+            T value = updateFunction.apply(current);
+            if (compareAndSet(current, value)) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Returns a read-only property whose value is {@code function} applied to this one, cached until this property is set.
+     */
+    default <R> Property<R> map(Function<? super T, ? extends R> function) {
+        return new DerivedProperty<>(Collections.singletonList(this), () -> function.apply(get()));
+    }
+
+    /**
+     * Returns a read-only property computed from {@code first} and {@code second}, cached until one of them is set.
+     */
+    static <A, B, R> Property<R> combine(Property<A> first, Property<B> second, BiFunction<? super A, ? super B, ? extends R> function) {
+        return new DerivedProperty<>(Arrays.asList(first, second), () -> function.apply(first.get(), second.get()));
+    }
+
     String getKey();
 
     String getPreferenceName();
@@ -36,6 +91,25 @@ public interface Property<T> {
 
     void removeListener(Listener<T> listener);
 
+    default void addChangeListener(ChangeListener<T> listener) {
+        throw new IllegalStateException("not implement");
+    }
+
+    default void addChangeListener(LifecycleOwner owner, ChangeListener<T> listener) {
+        addChangeListener(listener);
+        owner.getLifecycle().addObserver(new DefaultLifecycleObserver() {
+            @Override
+            public void onDestroy(@NonNull LifecycleOwner owner) {
+                DefaultLifecycleObserver.super.onDestroy(owner);
+                removeChangeListener(listener);
+            }
+        });
+    }
+
+    default void removeChangeListener(ChangeListener<T> listener) {
+        throw new IllegalStateException("not implement");
+    }
+
     default Class<?> getValueClass() {
         return Object.class;
     }
@@ -89,14 +163,38 @@ public interface Property<T> {
     interface Listener<T> {
         void onChanged(T newValue);
     }
+
+    interface ChangeListener<T> {
+        /**
+         * @param oldValue the value {@link #get()} returned before the write
+         */
+        void onChanged(T oldValue, T newValue);
+    }
 }
 
-final class PropertyWrapper<T> implements Property<T> {
+class PropertyWrapper<T> implements Property<T> {
+    private static final Object UNREAD = new Object();
+
     final Property<T> impl;
-    private final Set<Listener<T>> listenerSet = Collections.synchronizedSet(new HashSet<>());
+    private final Object lock;
+    private final boolean elideEqualWrites;
+    @Nullable
+    private final SharedPreferences store;
+    private volatile Set<Listener<T>> listenerSet;
+    private volatile Set<ChangeListener<T>> changeListenerSet;
 
     public PropertyWrapper(Property<T> impl) {
+        this(impl, true);
+    }
+
+    /**
+     * @param elideEqualWrites skips writes of the stored value, false for values whose write has a side effect
+     */
+    PropertyWrapper(Property<T> impl, boolean elideEqualWrites) {
         this.impl = impl;
+        this.lock = KeyLocks.of(impl.getPreferenceName(), impl.getKey());
+        this.elideEqualWrites = elideEqualWrites;
+        this.store = impl instanceof BaseProperty ? ((BaseProperty<T>) impl).getPreferences() : null;
     }
 
     @Override
@@ -111,18 +209,125 @@ final class PropertyWrapper<T> implements Property<T> {
 
     @Override
     public T get(T defValue) {
-        return impl.get(defValue);
+        if (!ConfigTrace.enabled) {
+            return impl.get(defValue);
+        }
+        boolean traced = ConfigTrace.begin("get", getPreferenceName(), getKey());
+        try {
+            return impl.get(defValue);
+        } finally {
+            ConfigTrace.end(traced);
+        }
     }
 
     @Override
     public T get() {
-        return impl.get();
+        if (!ConfigTrace.enabled) {
+            return impl.get();
+        }
+        boolean traced = ConfigTrace.begin("get", getPreferenceName(), getKey());
+        try {
+            return impl.get();
+        } finally {
+            ConfigTrace.end(traced);
+        }
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public void set(T value) {
+        T oldValue;
+        boolean traced = ConfigTrace.begin("set", getPreferenceName(), getKey());
+        try {
+            synchronized (lock) {
+                Object replaced = readReplaced();
+                if (replaced == UNREAD) {
+                    oldValue = null;
+                    impl.set(value);
+                } else {
+                    oldValue = (T) replaced;
+                    if (!write(oldValue, value)) {
+                        return;
+                    }
+                }
+            }
+        } finally {
+            ConfigTrace.end(traced);
+        }
+        notifyAllListeners(oldValue, value);
+    }
+
+    /**
+     * Returns the value a write replaces, or {@link #UNREAD} if the stored value does not decode as this type, e.g.
+     * after the declared type changed, or reading it would load a spilled blob which no change listener needs.
+     * The write is not elided then.
+     */
+    private Object readReplaced() {
+        if (store != null && !hasChangeListeners() && ForwardingPreferences.isExpensiveRead(store, getKey())) {
+            return UNREAD;
+        }
+        try {
+            return impl.get();
+        } catch (ClassCastException | IllegalArgumentException e) {
+            return UNREAD;
+        }
+    }
+
+    private boolean hasChangeListeners() {
+        Set<ChangeListener<T>> set = changeListenerSet;
+        return set != null && !set.isEmpty();
+    }
+
+    @Override
+    public boolean compareAndSet(T expect, T update) {
+        T oldValue;
+        synchronized (lock) {
+            oldValue = impl.get();
+            if (!PreferenceValues.equal(oldValue, expect)) {
+                return false;
+            }
+            if (!write(oldValue, update)) {
+                return true;
+            }
+        }
+        notifyAllListeners(oldValue, update);
+        return true;
+    }
+
+    @Override
+    public T updateAndGet(UnaryOperator<T> updateFunction) {
+        while (true) {
+            T oldValue = impl.get();
+            // not under the key lock, which is shared with unrelated keys and would deadlock nested updates
+            T value = updateFunction.apply(oldValue);
+            boolean written;
+            synchronized (lock) {
+                if (!PreferenceValues.equal(impl.get(), oldValue)) {
+                    continue;
+                }
+                written = write(oldValue, value);
+            }
+            if (written) {
+                notifyAllListeners(oldValue, value);
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Writes {@code value} unless it is already stored, must hold the key lock. Returns false if the write was elided.
+     */
+    private boolean write(T oldValue, T value) {
+        if (elideEqualWrites && PreferenceValues.equal(oldValue, value) && impl.exists()) {
+            ConfigManager manager = ConfigManager.getInstance();
+            // an overridden value is not the stored one
+            if (!manager.hasOverrides(getPreferenceName())) {
+                manager.onWriteElided();
+                return false;
+            }
+        }
         impl.set(value);
-        notifyAllListeners(value);
+        return true;
     }
 
     @Override
@@ -140,26 +345,67 @@ final class PropertyWrapper<T> implements Property<T> {
         return impl.exists();
     }
 
+    private Set<Listener<T>> ensureListenerSet() {
+        Set<Listener<T>> set = listenerSet;
+        if (set == null) {
+            synchronized (this) {
+                set = listenerSet;
+                if (set == null) {
+                    set = Collections.synchronizedSet(new HashSet<>());
+                    listenerSet = set;
+                }
+            }
+        }
+        return set;
+    }
+
     @Override
     public void addListener(Listener<T> listener) {
-        listenerSet.add(listener);
+        ensureListenerSet().add(listener);
     }
 
     @Override
     public void addListener(LifecycleOwner owner, Listener<T> listener) {
-        listenerSet.add(listener);
+        Set<Listener<T>> set = ensureListenerSet();
+        set.add(listener);
         owner.getLifecycle().addObserver(new DefaultLifecycleObserver() {
             @Override
             public void onDestroy(@NonNull LifecycleOwner owner) {
                 DefaultLifecycleObserver.super.onDestroy(owner);
-                listenerSet.remove(listener);
+                set.remove(listener);
             }
         });
     }
 
     @Override
     public void removeListener(Listener<T> listener) {
-        listenerSet.remove(listener);
+        Set<Listener<T>> set = listenerSet;
+        if (set != null) {
+            set.remove(listener);
+        }
+    }
+
+    @Override
+    public void addChangeListener(ChangeListener<T> listener) {
+        Set<ChangeListener<T>> set = changeListenerSet;
+        if (set == null) {
+            synchronized (this) {
+                set = changeListenerSet;
+                if (set == null) {
+                    set = Collections.synchronizedSet(new HashSet<>());
+                    changeListenerSet = set;
+                }
+            }
+        }
+        set.add(listener);
+    }
+
+    @Override
+    public void removeChangeListener(ChangeListener<T> listener) {
+        Set<ChangeListener<T>> set = changeListenerSet;
+        if (set != null) {
+            set.remove(listener);
+        }
     }
 
     @Override
@@ -167,14 +413,36 @@ final class PropertyWrapper<T> implements Property<T> {
         return impl.getValueClass();
     }
 
-    private synchronized void notifyAllListeners(T value) {
-        synchronized (listenerSet) {
-            for (Listener<T> listener : listenerSet) {
-                listener.onChanged(value);
+    void notifyAllListeners(T oldValue, T value) {
+        Set<Listener<T>> set = listenerSet;
+        Set<ChangeListener<T>> changeSet = changeListenerSet;
+        if ((set != null && !set.isEmpty()) || (changeSet != null && !changeSet.isEmpty())) {
+            boolean traced = ConfigTrace.begin("notifyListeners", getPreferenceName(), getKey());
+            try {
+                notifyListeners(set, changeSet, oldValue, value);
+            } finally {
+                ConfigTrace.end(traced);
             }
         }
         ConfigManager.getInstance().notifyPreferenceListeners(getPreferenceName(), getKey(), value);
     }
-}
-
 
+    private void notifyListeners(@Nullable Set<Listener<T>> set, @Nullable Set<ChangeListener<T>> changeSet, T oldValue, T value) {
+        synchronized (this) {
+            if (set != null) {
+                synchronized (set) {
+                    for (Listener<T> listener : set) {
+                        listener.onChanged(value);
+                    }
+                }
+            }
+            if (changeSet != null) {
+                synchronized (changeSet) {
+                    for (ChangeListener<T> listener : changeSet) {
+                        listener.onChanged(oldValue, value);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -9,18 +9,37 @@ import java.lang.reflect.Method;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.*;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 public abstract class PropertyFactory<A extends Annotation, T> {
 
-    public abstract Property<T> createProperty(String key, A annotation, String preferenceName, SharedPreferences preferences);
+    /**
+     * Creates a property of the factory's declared value type. Override this one, or
+     * {@link #createProperty(String, Annotation, String, SharedPreferences, Type)} when the property depends on
+     * the declared type, e.g. the enum class of an enum property.
+     */
+    public Property<T> createProperty(String key, A annotation, String preferenceName, SharedPreferences preferences) {
+        return createProperty(key, annotation, preferenceName, preferences, getTypeArgument(1));
+    }
+
+    /**
+     * Creates a property whose method returns {@code Property<valueType>}.
+     */
+    public Property<T> createProperty(String key, A annotation, String preferenceName, SharedPreferences preferences, Type valueType) {
+        return createProperty(key, annotation, preferenceName, preferences);
+    }
 
     final Class<? extends Annotation> getTypeAnnotationClass() {
+        return (Class<? extends Annotation>) getTypeArgument(0);
+    }
+
+    private Type getTypeArgument(int index) {
         Type genericSuperclass = getClass().getGenericSuperclass();
         if (genericSuperclass instanceof ParameterizedType) {
             Type[] types = ((ParameterizedType) genericSuperclass).getActualTypeArguments();
             if (types.length == 2) {
-                return (Class<? extends Annotation>) types[0];
+                return types[index];
             } else {
                 throw new IllegalStateException("ActualTypeArguments length is not 2");
             }
@@ -29,8 +48,50 @@ public abstract class PropertyFactory<A extends Annotation, T> {
         }
     }
 
+    /**
+     * Whether a subclass overrides one of the two createProperty methods, which otherwise call each other.
+     */
+    final boolean overridesCreateProperty() {
+        for (Method method : getClass().getMethods()) {
+            if (method.getName().equals("createProperty") && !method.isBridge()
+                    && method.getDeclaringClass() != PropertyFactory.class) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @SuppressWarnings({"unchecked", "rawtypes"})
     static Lazy<Property<?>> get(String preferenceName, SharedPreferences preferences, Method method) {
+        if (method.getReturnType().equals(Counter.class) && method.getParameterTypes().length == 0) {
+            checkAnnotation(method, Long.class, method.getAnnotations());
+            Config.CounterItem annotation = extractAnnotation(method, Config.CounterItem.class);
+            return Lazy.from(() -> new CounterWrapper(Factories.COUNTER_FACTORY.createProperty(method.getName(), annotation, preferenceName, preferences)));
+        }
+        if ((method.getReturnType().equals(IntArrayProperty.class) || method.getReturnType().equals(LongArrayProperty.class))
+                && method.getParameterTypes().length == 0) {
+            boolean intArray = method.getReturnType().equals(IntArrayProperty.class);
+            Class<?> valueType = intArray ? int[].class : long[].class;
+            checkAnnotation(method, valueType, method.getAnnotations());
+            PropertyFactory factory = Factories.getFactoryForType(valueType);
+            Annotation annotation = extractAnnotation(method, factory.getTypeAnnotationClass());
+            return Lazy.from(() -> {
+                Property impl = factory.createProperty(method.getName(), annotation, preferenceName, preferences, valueType);
+                return intArray ? new IntArrayWrapper(impl) : new LongArrayWrapper(impl);
+            });
+        }
+        if (method.isAnnotationPresent(Config.Group.class) && method.getParameterTypes().length == 0) {
+            if (Arrays.stream(method.getAnnotations()).anyMatch(annotation -> Config.ITEM_ANNOTATION_MAP.containsKey(annotation.annotationType()))) {
+                throw new IllegalStateException(String.format("method \"%s\" contains more than one Preference annotation!", method.getName()));
+            }
+            Type returnType = method.getGenericReturnType();
+            if (!method.getReturnType().equals(Property.class) || !(returnType instanceof ParameterizedType)) {
+                throw new IllegalStateException(String.format("property \"%s\" with Group must return Property", method.getName()));
+            }
+            Type valueType = ((ParameterizedType) returnType).getActualTypeArguments()[0];
+            Config.Group annotation = method.getAnnotation(Config.Group.class);
+            return Lazy.from(() -> new PropertyWrapper<Object>(Factories.GROUP_FACTORY.createProperty(method.getName(), annotation, preferenceName, preferences, valueType)));
+        }
         if (method.getParameterTypes().length == 0) {
             Type returnType = method.getGenericReturnType();
             if (returnType instanceof ParameterizedType) {
@@ -38,13 +99,19 @@ public abstract class PropertyFactory<A extends Annotation, T> {
                 if (types.length == 1) {
                     Type valueType = types[0];
                     String defaultKey = method.getName();
+                    if (method.isAnnotationPresent(Config.CounterItem.class)) {
+                        throw new IllegalStateException(String.format("property \"%s\" with CounterItem must return Counter", defaultKey));
+                    }
                     checkAnnotation(method, valueType, method.getAnnotations());
                     PropertyFactory factory = Factories.getFactoryForType(valueType);
                     if (factory == null) {
                         throw new RuntimeException("error returnType:" + valueType);
                     } else {
+                        // rewriting an expiring value renews its deadline
+                        boolean elideEqualWrites = !method.isAnnotationPresent(Config.Expires.class);
                         return Lazy.from(() -> new PropertyWrapper<Object>(
-                                        factory.createProperty(defaultKey, extractAnnotation(method, factory.getTypeAnnotationClass()), preferenceName, preferences)));
+                                        factory.createProperty(defaultKey, extractAnnotation(method, factory.getTypeAnnotationClass()), preferenceName, preferences, valueType),
+                                        elideEqualWrites));
                     }
                 } else {
                     throw new IllegalStateException("type arguments length != 1");
@@ -57,6 +124,71 @@ public abstract class PropertyFactory<A extends Annotation, T> {
         }
     }
 
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static Lazy<PropertyMap<?, ?>> getMap(String preferenceName, SharedPreferences preferences, Method method) {
+        Type returnType = method.getGenericReturnType();
+        if (method.getParameterTypes().length != 0) {
+            throw new IllegalArgumentException(String.format("%s.%s's parameter must be empty", method.getDeclaringClass().getCanonicalName(), method.getName()));
+        }
+        if (!(returnType instanceof ParameterizedType)) {
+            throw new IllegalStateException("type is not ParameterizedType");
+        }
+        Type[] types = ((ParameterizedType) returnType).getActualTypeArguments();
+        Type valueType = types[1];
+        if (method.isAnnotationPresent(Config.CounterItem.class) || method.isAnnotationPresent(Config.Group.class)) {
+            throw new IllegalStateException(String.format("property map \"%s\" can not use CounterItem or Group", method.getName()));
+        }
+        if (method.isAnnotationPresent(Config.Expires.class)) {
+            // the deadlines are kept per declared key, an entry key would never expire
+            throw new IllegalStateException(String.format("property map \"%s\" can not use @Expires", method.getName()));
+        }
+        checkAnnotation(method, valueType, method.getAnnotations());
+        Function<String, ?> keyParser = KeyedPropertyMap.keyParserOf(types[0]);
+        PropertyFactory factory = Factories.getFactoryForType(valueType);
+        if (factory == null) {
+            throw new RuntimeException("error returnType:" + valueType);
+        }
+        Annotation annotation = extractAnnotation(method, factory.getTypeAnnotationClass());
+        String familyKey = keyOf(method);
+        Config.MaxSize maxSize = method.getAnnotation(Config.MaxSize.class);
+        return Lazy.from(() -> new KeyedPropertyMap<>(familyKey, preferenceName, preferences,
+                entryPreferences -> factory.createProperty(method.getName(), annotation, preferenceName, entryPreferences, valueType),
+                keyParser, maxSize != null ? maxSize.value() : 0));
+    }
+
+    /**
+     * Returns the keys and values a write of {@code value} to the property of {@code method} stores,
+     * after the same checks as such a write.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static Map<String, ?> encode(String preferenceName, Method method, Object value) {
+        MemoryPreferences scratch = new MemoryPreferences();
+        Property property = ((PropertyWrapper) get(preferenceName, scratch, method).get()).impl;
+        try {
+            property.set(value);
+        } catch (ClassCastException e) {
+            throw new IllegalArgumentException(String.format("property \"%s\" can not store %s", method.getName(), value.getClass().getName()), e);
+        }
+        return scratch.getAll();
+    }
+
+    static String keyOf(Method method) {
+        for (Annotation annotation : method.getAnnotations()) {
+            try {
+                Method keyMethod = annotation.annotationType().getMethod("key");
+                if (keyMethod.getReturnType().equals(String.class)) {
+                    String key = (String) keyMethod.invoke(annotation);
+                    if (key != null && !key.isEmpty()) {
+                        return key;
+                    }
+                }
+            } catch (ReflectiveOperationException e) {
+                //no key attribute
+            }
+        }
+        return method.getName();
+    }
+
     private static void checkAnnotation(Method method, Type valueType, Annotation[] annotations) {
         List<Class<?>> annotationList = Arrays.stream(annotations)
                 .map(Annotation::annotationType)
@@ -73,7 +205,7 @@ public abstract class PropertyFactory<A extends Annotation, T> {
             if (vClass == null) {
                 throw new IllegalStateException(String.format("property \"%s\" has wrong type: %s", methodName, valueType));
             } else {
-                if (valueType instanceof Class && Objects.equals(vClass, valueType)) {
+                if (valueType instanceof Class && vClass.isAssignableFrom((Class<?>) valueType)) {
                     //safe
                 } else if (valueType instanceof ParameterizedType && Objects.equals(vClass, ((ParameterizedType) valueType).getRawType())) {
                     //safe
@@ -96,7 +228,7 @@ public abstract class PropertyFactory<A extends Annotation, T> {
     @Keep
     private interface DefaultConfig {
         Map<Class<?>, Annotation> DEFAULT_ANNOTATION_MAP = Arrays.stream(DefaultConfig.class.getMethods())
-                .filter(method -> method.getReturnType().equals(Property.class))
+                .filter(method -> Property.class.isAssignableFrom(method.getReturnType()))
                 .map(AccessibleObject::getAnnotations)
                 .flatMap(Arrays::stream)
                 .collect(Collectors.toMap(Annotation::annotationType, annotation -> annotation));
@@ -118,5 +250,20 @@ public abstract class PropertyFactory<A extends Annotation, T> {
 
         @Config.StringSetItem
         Property<Set<String>> stringSetProperty();
+
+        @Config.CounterItem
+        Counter counterProperty();
+
+        @Config.DoubleItem
+        Property<Double> doubleProperty();
+
+        @Config.IntArrayItem
+        Property<int[]> intArrayProperty();
+
+        @Config.LongArrayItem
+        Property<long[]> longArrayProperty();
+
+        @Config.EnumItem
+        Property<Enum<?>> enumProperty();
     }
 }
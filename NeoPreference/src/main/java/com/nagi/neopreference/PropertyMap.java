@@ -0,0 +1,340 @@
+package com.nagi.neopreference;
+
+import android.content.SharedPreferences;
+import androidx.annotation.Nullable;
+
+import java.lang.reflect.Type;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Function;
+
+/**
+ * A family of values stored under {@code <key>_<entry key>}, validated and encoded like a single property
+ * with the same item annotation.
+ */
+public interface PropertyMap<K, V> {
+
+    V get(K key);
+
+    V get(K key, V defValue);
+
+    boolean contains(K key);
+
+    void set(K key, V value);
+
+    void remove(K key);
+
+    /**
+     * Returns the stored entry keys, ordered by their stored name.
+     */
+    Set<K> keySet();
+
+    /**
+     * Returns the stored entry keys whose string form starts with {@code keyPrefix}, ordered like {@link #keySet()}.
+     * Only the matching range of the index is visited.
+     */
+    Set<K> keySet(String keyPrefix);
+
+    int size();
+
+    void clear();
+}
+
+final class KeyedPropertyMap<K, V> implements PropertyMap<K, V> {
+    // entries whose property is kept when the map has no @MaxSize
+    private static final int DEFAULT_CACHED_ENTRIES = 64;
+
+    private final String familyKey;
+    private final String prefix;
+    private final String preferenceName;
+    private final SharedPreferences preferences;
+    private final Function<String, Property<V>> entryFactory;
+    // the properties of recently used entries, so reads do not allocate and per-property state such as a decode cache is kept
+    private final LinkedHashMap<String, Property<V>> entries;
+    private final Function<String, K> keyParser;
+    private final int maxSize;
+    private final Lazy<NavigableSet<String>> index;
+    private LinkedHashSet<String> writeOrder;
+
+    /**
+     * @param entryFactory creates the property of an entry from the preferences view of that entry
+     * @param maxSize      evicts the least recently set entries above this size, no limit if not positive
+     */
+    KeyedPropertyMap(String familyKey, String preferenceName, SharedPreferences preferences,
+                     Function<SharedPreferences, Property<V>> entryFactory, Function<String, K> keyParser, int maxSize) {
+        this.familyKey = familyKey;
+        this.prefix = familyKey + "_";
+        this.preferenceName = preferenceName;
+        this.preferences = preferences;
+        this.entryFactory = storedKey -> entryFactory.apply(new EntryPreferences(preferences, familyKey, storedKey));
+        this.keyParser = keyParser;
+        this.maxSize = maxSize;
+        int cachedEntries = maxSize > 0 ? maxSize : DEFAULT_CACHED_ENTRIES;
+        this.entries = new LinkedHashMap<String, Property<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Property<V>> eldest) {
+                return size() > cachedEntries;
+            }
+        };
+        this.index = Lazy.from(() -> {
+            NavigableSet<String> storedKeys = new ConcurrentSkipListSet<>();
+            for (String key : preferences.getAll().keySet()) {
+                if (key.startsWith(prefix) && isEntryKey(key)) {
+                    storedKeys.add(key);
+                }
+            }
+            return storedKeys;
+        });
+    }
+
+    static Function<String, ?> keyParserOf(Type keyType) {
+        if (keyType == String.class) {
+            return Function.identity();
+        } else if (keyType == Integer.class) {
+            return Integer::valueOf;
+        } else if (keyType == Long.class) {
+            return Long::valueOf;
+        } else {
+            throw new IllegalStateException("PropertyMap key must be String, Integer or Long: " + keyType);
+        }
+    }
+
+    /**
+     * Whether a stored key under the prefix names an entry, e.g. a leftover key with a non-numeric suffix does
+     * not belong to a map with Integer keys.
+     */
+    private boolean isEntryKey(String storedKey) {
+        try {
+            keyParser.apply(storedKey.substring(prefix.length()));
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private String storedKeyOf(K key) {
+        return prefix + Objects.requireNonNull(key, "key can not be null");
+    }
+
+    private Property<V> entryOf(String storedKey) {
+        synchronized (entries) {
+            return entries.computeIfAbsent(storedKey, entryFactory);
+        }
+    }
+
+    @Override
+    public V get(K key) {
+        return entryOf(storedKeyOf(key)).get();
+    }
+
+    @Override
+    public V get(K key, V defValue) {
+        return entryOf(storedKeyOf(key)).get(defValue);
+    }
+
+    @Override
+    public boolean contains(K key) {
+        return index.get().contains(storedKeyOf(key));
+    }
+
+    @Override
+    public void set(K key, V value) {
+        String storedKey = storedKeyOf(key);
+        synchronized (KeyLocks.of(preferenceName, storedKey)) {
+            entryOf(storedKey).set(value);
+            index.get().add(storedKey);
+        }
+        if (maxSize > 0) {
+            evict(storedKey);
+        }
+        ConfigManager.getInstance().notifyPreferenceListeners(preferenceName, storedKey, value);
+    }
+
+    private void evict(String storedKey) {
+        List<String> evictedKeys = new ArrayList<>();
+        synchronized (this) {
+            if (writeOrder == null) {
+                writeOrder = new LinkedHashSet<>(index.get());
+            }
+            writeOrder.remove(storedKey);
+            writeOrder.add(storedKey);
+            Iterator<String> iterator = writeOrder.iterator();
+            while (writeOrder.size() > maxSize && iterator.hasNext()) {
+                String eldest = iterator.next();
+                iterator.remove();
+                evictedKeys.add(eldest);
+            }
+        }
+        if (!evictedKeys.isEmpty()) {
+            SharedPreferences.Editor editor = preferences.edit();
+            for (String evictedKey : evictedKeys) {
+                editor.remove(evictedKey);
+            }
+            editor.apply();
+            index.get().removeAll(evictedKeys);
+            notifyRemoved(evictedKeys);
+        }
+    }
+
+    private void notifyRemoved(List<String> storedKeys) {
+        ConfigManager manager = ConfigManager.getInstance();
+        for (String storedKey : storedKeys) {
+            manager.notifyPreferenceListeners(preferenceName, storedKey, null);
+        }
+    }
+
+    @Override
+    public void remove(K key) {
+        String storedKey = storedKeyOf(key);
+        synchronized (KeyLocks.of(preferenceName, storedKey)) {
+            preferences.edit().remove(storedKey).apply();
+            index.get().remove(storedKey);
+        }
+        synchronized (this) {
+            if (writeOrder != null) {
+                writeOrder.remove(storedKey);
+            }
+        }
+        ConfigManager.getInstance().notifyPreferenceListeners(preferenceName, storedKey, null);
+    }
+
+    @Override
+    public Set<K> keySet() {
+        Set<K> keys = new LinkedHashSet<>();
+        for (String storedKey : index.get()) {
+            keys.add(keyParser.apply(storedKey.substring(prefix.length())));
+        }
+        return keys;
+    }
+
+    @Override
+    public Set<K> keySet(String keyPrefix) {
+        String from = prefix + keyPrefix;
+        Set<K> keys = new LinkedHashSet<>();
+        for (String storedKey : index.get().subSet(from, true, from + Character.MAX_VALUE, false)) {
+            keys.add(keyParser.apply(storedKey.substring(prefix.length())));
+        }
+        return keys;
+    }
+
+    @Override
+    public int size() {
+        return index.get().size();
+    }
+
+    @Override
+    public void clear() {
+        NavigableSet<String> storedKeys = index.get();
+        SharedPreferences.Editor editor = preferences.edit();
+        List<String> removedKeys = new ArrayList<>(storedKeys);
+        for (String storedKey : removedKeys) {
+            editor.remove(storedKey);
+        }
+        editor.apply();
+        storedKeys.removeAll(removedKeys);
+        synchronized (this) {
+            writeOrder = null;
+        }
+        notifyRemoved(removedKeys);
+    }
+
+    @Override
+    public String toString() {
+        return "PropertyMap{" + familyKey + ", size=" + size() + '}';
+    }
+
+    /**
+     * Lets an entry reuse the property of its value type, which reads and writes the family key.
+     */
+    private static final class EntryPreferences extends ForwardingPreferences {
+        private final String familyKey;
+        private final String storedKey;
+
+        EntryPreferences(SharedPreferences base, String familyKey, String storedKey) {
+            super(base);
+            this.familyKey = familyKey;
+            this.storedKey = storedKey;
+        }
+
+        private String map(String key) {
+            return familyKey.equals(key) ? storedKey : key;
+        }
+
+        @Nullable
+        @Override
+        public String getString(String key, @Nullable String defValue) {
+            return base.getString(map(key), defValue);
+        }
+
+        @Nullable
+        @Override
+        public Set<String> getStringSet(String key, @Nullable Set<String> defValues) {
+            return base.getStringSet(map(key), defValues);
+        }
+
+        @Override
+        public int getInt(String key, int defValue) {
+            return base.getInt(map(key), defValue);
+        }
+
+        @Override
+        public long getLong(String key, long defValue) {
+            return base.getLong(map(key), defValue);
+        }
+
+        @Override
+        public float getFloat(String key, float defValue) {
+            return base.getFloat(map(key), defValue);
+        }
+
+        @Override
+        public boolean getBoolean(String key, boolean defValue) {
+            return base.getBoolean(map(key), defValue);
+        }
+
+        @Override
+        public boolean contains(String key) {
+            return base.contains(map(key));
+        }
+
+        @Override
+        public Editor edit() {
+            return new ForwardingEditor(base.edit()) {
+                @Override
+                public Editor putString(String key, @Nullable String value) {
+                    return super.putString(map(key), value);
+                }
+
+                @Override
+                public Editor putStringSet(String key, @Nullable Set<String> values) {
+                    return super.putStringSet(map(key), values);
+                }
+
+                @Override
+                public Editor putInt(String key, int value) {
+                    return super.putInt(map(key), value);
+                }
+
+                @Override
+                public Editor putLong(String key, long value) {
+                    return super.putLong(map(key), value);
+                }
+
+                @Override
+                public Editor putFloat(String key, float value) {
+                    return super.putFloat(map(key), value);
+                }
+
+                @Override
+                public Editor putBoolean(String key, boolean value) {
+                    return super.putBoolean(map(key), value);
+                }
+
+                @Override
+                public Editor remove(String key) {
+                    return super.remove(map(key));
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.nagi.neopreference;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.FileObserver;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Read-only view of a store owned by another process. Reads are served from the in-memory copy,
+ * which is reloaded when the owner rewrites the file.
+ */
+final class ReplicaPreferences extends ForwardingPreferences {
+    private final String prefName;
+    private final String ownerProcess;
+    private final Runnable reloader;
+    private final AtomicBoolean reloadScheduled = new AtomicBoolean(false);
+    // kept so it keeps watching
+    private FileObserver fileObserver;
+
+    @SuppressWarnings("deprecation")
+    ReplicaPreferences(Context context, String prefName, String ownerProcess) {
+        // with MODE_MULTI_PROCESS getting the cached instance again reloads it when the file changed on disk
+        this(context.getSharedPreferences(prefName, Context.MODE_MULTI_PROCESS), prefName, ownerProcess,
+                () -> context.getSharedPreferences(prefName, Context.MODE_MULTI_PROCESS));
+        String fileName = prefName + ".xml";
+        File directory = new File(context.getApplicationInfo().dataDir, "shared_prefs");
+        this.fileObserver = new FileObserver(directory.getPath(), FileObserver.CLOSE_WRITE | FileObserver.MOVED_TO) {
+            @Override
+            public void onEvent(int event, @Nullable String path) {
+                if (fileName.equals(path) && reloadScheduled.compareAndSet(false, true)) {
+                    Workers.execute(ReplicaPreferences.this::reload);
+                }
+            }
+        };
+        fileObserver.startWatching();
+    }
+
+    /**
+     * @param reloader refreshes {@code base} from the file
+     */
+    ReplicaPreferences(SharedPreferences base, String prefName, String ownerProcess, Runnable reloader) {
+        super(base);
+        this.prefName = prefName;
+        this.ownerProcess = ownerProcess;
+        this.reloader = reloader;
+    }
+
+    /**
+     * Reloads the file and notifies the config listeners of every key whose value changed.
+     */
+    void reload() {
+        reloadScheduled.set(false);
+        Map<String, ?> previous = new HashMap<>(base.getAll());
+        reloader.run();
+        Map<String, ?> current = base.getAll();
+        Set<String> keys = new HashSet<>(previous.keySet());
+        keys.addAll(current.keySet());
+        for (String key : keys) {
+            Object value = current.get(key);
+            if (!Objects.equals(previous.get(key), value)) {
+                ConfigManager.getInstance().notifyPreferenceListeners(prefName, key, value);
+            }
+        }
+    }
+
+    @Override
+    public Editor edit() {
+        return new ReadOnlyEditor();
+    }
+
+    @Override
+    boolean isReadOnly() {
+        return true;
+    }
+
+    private final class ReadOnlyEditor implements Editor {
+
+        private IllegalStateException writeRejected() {
+            return new IllegalStateException(String.format("config[%s] can only be written by process[%s]", prefName, ownerProcess));
+        }
+
+        @Override
+        public Editor putString(String key, @Nullable String value) {
+            throw writeRejected();
+        }
+
+        @Override
+        public Editor putStringSet(String key, @Nullable Set<String> values) {
+            throw writeRejected();
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            throw writeRejected();
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            throw writeRejected();
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            throw writeRejected();
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            throw writeRejected();
+        }
+
+        @Override
+        public Editor remove(String key) {
+            throw writeRejected();
+        }
+
+        @Override
+        public Editor clear() {
+            throw writeRejected();
+        }
+
+        @Override
+        public boolean commit() {
+            return true;
+        }
+
+        @Override
+        public void apply() {
+
+        }
+    }
+}
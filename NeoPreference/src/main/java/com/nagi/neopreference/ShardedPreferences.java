@@ -0,0 +1,247 @@
+package com.nagi.neopreference;
+
+import android.content.SharedPreferences;
+import androidx.annotation.Nullable;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.function.Function;
+
+final class ShardedPreferences implements SharedPreferences {
+    private final Map<String, Lazy<SharedPreferences>> shards;
+    private final Function<String, String> router;
+    private final Set<String> deferredShards;
+    private final Set<OnSharedPreferenceChangeListener> listeners = new CopyOnWriteArraySet<>();
+    // held here because SharedPreferencesImpl only keeps weak references to its listeners
+    private final Map<String, OnSharedPreferenceChangeListener> shardListeners = new HashMap<>();
+
+    ShardedPreferences(Map<String, Function<String, SharedPreferences>> shards, Function<String, String> router) {
+        this(shards, router, Collections.emptySet());
+    }
+
+    /**
+     * @param shards         all backing stores by name, each one is opened on first use
+     * @param router         maps a key to the name of the shard holding it
+     * @param deferredShards shards left out of {@link #getAll()} until a key routed to them is used
+     */
+    ShardedPreferences(Map<String, Function<String, SharedPreferences>> shards, Function<String, String> router, Set<String> deferredShards) {
+        Map<String, Lazy<SharedPreferences>> lazyShards = new LinkedHashMap<>();
+        shards.forEach((name, opener) -> {
+            OnSharedPreferenceChangeListener shardListener = shardListenerOf(name);
+            shardListeners.put(name, shardListener);
+            lazyShards.put(name, Lazy.from(() -> {
+                SharedPreferences preferences = opener.apply(name);
+                preferences.registerOnSharedPreferenceChangeListener(shardListener);
+                return preferences;
+            }));
+        });
+        this.shards = Collections.unmodifiableMap(lazyShards);
+        this.router = router;
+        this.deferredShards = Collections.unmodifiableSet(new HashSet<>(deferredShards));
+    }
+
+    private OnSharedPreferenceChangeListener shardListenerOf(String name) {
+        return (preferences, key) -> {
+            // a key may briefly exist in a shard it is not routed to, e.g. while it is moved out of there
+            if (key != null && !name.equals(router.apply(key))) {
+                return;
+            }
+            for (OnSharedPreferenceChangeListener listener : listeners) {
+                listener.onSharedPreferenceChanged(this, key);
+            }
+        };
+    }
+
+    Set<String> getShardNames() {
+        return shards.keySet();
+    }
+
+    boolean isOpened(String name) {
+        Lazy<SharedPreferences> shard = shards.get(name);
+        return shard != null && shard.isEvaluated();
+    }
+
+    SharedPreferences shard(String name) {
+        Lazy<SharedPreferences> shard = shards.get(name);
+        if (shard == null) {
+            throw new IllegalArgumentException("unknown shard: " + name);
+        }
+        return shard.get();
+    }
+
+    private SharedPreferences shardOf(String key) {
+        String name = router.apply(key);
+        Lazy<SharedPreferences> shard = shards.get(name);
+        if (shard == null) {
+            throw new IllegalStateException(String.format("key[%s] is routed to unknown shard[%s]", key, name));
+        }
+        return shard.get();
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        Map<String, Object> all = new HashMap<>();
+        shards.forEach((name, shard) -> {
+            if (shard.isEvaluated() || !deferredShards.contains(name)) {
+                all.putAll(shard.get().getAll());
+            }
+        });
+        return all;
+    }
+
+    boolean isExpensiveRead(String key) {
+        return ForwardingPreferences.isExpensiveRead(shardOf(key), key);
+    }
+
+    /**
+     * The stored keys of the shards {@link #getAll()} covers, a key left in a shard it is not routed to is not
+     * reachable through this store and left out.
+     */
+    Set<String> storedKeys() {
+        Set<String> keys = new HashSet<>();
+        shards.forEach((name, shard) -> {
+            if (shard.isEvaluated() || !deferredShards.contains(name)) {
+                for (String key : ForwardingPreferences.storedKeysOf(shard.get())) {
+                    if (name.equals(router.apply(key))) {
+                        keys.add(key);
+                    }
+                }
+            }
+        });
+        return keys;
+    }
+
+    @Nullable
+    @Override
+    public String getString(String key, @Nullable String defValue) {
+        return shardOf(key).getString(key, defValue);
+    }
+
+    @Nullable
+    @Override
+    public Set<String> getStringSet(String key, @Nullable Set<String> defValues) {
+        return shardOf(key).getStringSet(key, defValues);
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        return shardOf(key).getInt(key, defValue);
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        return shardOf(key).getLong(key, defValue);
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        return shardOf(key).getFloat(key, defValue);
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        return shardOf(key).getBoolean(key, defValue);
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return shardOf(key).contains(key);
+    }
+
+    @Override
+    public Editor edit() {
+        return new ShardedEditor();
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    private final class ShardedEditor implements Editor {
+        private final Map<String, Editor> editors = new LinkedHashMap<>();
+
+        private Editor editorOf(String key) {
+            return editors.computeIfAbsent(router.apply(key), name -> shardOf(key).edit());
+        }
+
+        @Override
+        public synchronized Editor putString(String key, @Nullable String value) {
+            editorOf(key).putString(key, value);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor putStringSet(String key, @Nullable Set<String> values) {
+            editorOf(key).putStringSet(key, values);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor putInt(String key, int value) {
+            editorOf(key).putInt(key, value);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor putLong(String key, long value) {
+            editorOf(key).putLong(key, value);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor putFloat(String key, float value) {
+            editorOf(key).putFloat(key, value);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor putBoolean(String key, boolean value) {
+            editorOf(key).putBoolean(key, value);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor remove(String key) {
+            editorOf(key).remove(key);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor clear() {
+            shards.forEach((name, shard) -> editors.computeIfAbsent(name, n -> shard.get().edit()).clear());
+            return this;
+        }
+
+        @Override
+        public synchronized boolean commit() {
+            if (editors.isEmpty()) {
+                // nothing to write, still wait for the pending writes of every opened shard
+                shards.forEach((name, shard) -> {
+                    if (shard.isEvaluated()) {
+                        editors.put(name, shard.get().edit());
+                    }
+                });
+            }
+            boolean result = true;
+            for (Editor editor : editors.values()) {
+                result &= editor.commit();
+            }
+            editors.clear();
+            return result;
+        }
+
+        @Override
+        public synchronized void apply() {
+            for (Editor editor : editors.values()) {
+                editor.apply();
+            }
+            editors.clear();
+        }
+    }
+}
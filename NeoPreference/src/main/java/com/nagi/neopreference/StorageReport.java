@@ -0,0 +1,210 @@
+package com.nagi.neopreference;
+
+import androidx.annotation.NonNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Storage footprint of one config, see {@link ConfigManager#analyzeStorage()}.
+ */
+public final class StorageReport {
+    static final String INTERNAL_KEY_PREFIX = "__neo";
+    private static final int LARGEST_KEY_COUNT = 10;
+
+    private final String name;
+    private final long fileSize;
+    private final long encodedSize;
+    private final Map<String, Integer> keySizes;
+    private final List<String> largestKeys;
+    private final List<String> orphanKeys;
+
+    private StorageReport(String name, long fileSize, long encodedSize, Map<String, Integer> keySizes,
+                          List<String> largestKeys, List<String> orphanKeys) {
+        this.name = name;
+        this.fileSize = fileSize;
+        this.encodedSize = encodedSize;
+        this.keySizes = Collections.unmodifiableMap(keySizes);
+        this.largestKeys = Collections.unmodifiableList(largestKeys);
+        this.orphanKeys = Collections.unmodifiableList(orphanKeys);
+    }
+
+    /**
+     * Builds the report in one pass over the stored entries of every file of the config.
+     *
+     * @param declaredKeys     keys declared by the Property methods of the config
+     * @param declaredPrefixes key prefixes declared by the PropertyMap methods of the config
+     */
+    static StorageReport analyze(String name, long fileSize, Iterable<? extends Map<String, ?>> stores,
+                                 Set<String> declaredKeys, Collection<String> declaredPrefixes) {
+        return analyze(name, fileSize, stores, Collections.emptyMap(), declaredKeys, declaredPrefixes);
+    }
+
+    /**
+     * @param spilledSizes blob file size of every key whose value is spilled over, added to the key's size
+     */
+    static StorageReport analyze(String name, long fileSize, Iterable<? extends Map<String, ?>> stores, Map<String, Long> spilledSizes,
+                                 Set<String> declaredKeys, Collection<String> declaredPrefixes) {
+        Map<String, Integer> keySizes = new TreeMap<>();
+        PriorityQueue<Map.Entry<String, Integer>> largest = new PriorityQueue<>(LARGEST_KEY_COUNT + 1, Map.Entry.comparingByValue());
+        List<String> orphanKeys = new ArrayList<>();
+        long encodedSize = 0;
+        for (Map<String, ?> store : stores) {
+            for (Map.Entry<String, ?> entry : store.entrySet()) {
+                String key = entry.getKey();
+                int size = (int) Math.min(Integer.MAX_VALUE, encodedSizeOf(key, entry.getValue()) + spilledSizes.getOrDefault(key, 0L));
+                encodedSize += size;
+                keySizes.put(key, size);
+                largest.add(new AbstractMap.SimpleImmutableEntry<>(key, size));
+                if (largest.size() > LARGEST_KEY_COUNT) {
+                    largest.poll();
+                }
+                if (isOrphan(key, declaredKeys, declaredPrefixes)) {
+                    orphanKeys.add(key);
+                }
+            }
+        }
+        List<String> largestKeys = new ArrayList<>(largest.size());
+        while (!largest.isEmpty()) {
+            largestKeys.add(largest.poll().getKey());
+        }
+        Collections.reverse(largestKeys);
+        Collections.sort(orphanKeys);
+        return new StorageReport(name, fileSize, encodedSize, keySizes, largestKeys, orphanKeys);
+    }
+
+    /**
+     * A key is orphaned when no Property declares it, internal keys follow the key they belong to.
+     */
+    static boolean isOrphan(String key, Set<String> declaredKeys, Collection<String> declaredPrefixes) {
+        if (key.startsWith(ExpiringPreferences.DEADLINE_PREFIX)) {
+            return isOrphan(key.substring(ExpiringPreferences.DEADLINE_PREFIX.length()), declaredKeys, declaredPrefixes);
+        }
+        if (declaredKeys.contains(key) || key.startsWith(INTERNAL_KEY_PREFIX)) {
+            return false;
+        }
+        for (String prefix : declaredPrefixes) {
+            if (key.startsWith(prefix)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Size in bytes of the entry in the xml file written by SharedPreferences.
+     */
+    static int encodedSizeOf(String key, Object value) {
+        String name = " name=\"" + escape(key) + "\"";
+        String element;
+        if (value instanceof String) {
+            element = "<string" + name + ">" + escape((String) value) + "</string>";
+        } else if (value instanceof Set) {
+            StringBuilder builder = new StringBuilder("<set").append(name).append(">");
+            for (Object item : (Set<?>) value) {
+                builder.append("<string>").append(escape(String.valueOf(item))).append("</string>");
+            }
+            element = builder.append("</set>").toString();
+        } else if (value instanceof Integer) {
+            element = "<int" + name + " value=\"" + value + "\" />";
+        } else if (value instanceof Long) {
+            element = "<long" + name + " value=\"" + value + "\" />";
+        } else if (value instanceof Float) {
+            element = "<float" + name + " value=\"" + value + "\" />";
+        } else if (value instanceof Boolean) {
+            element = "<boolean" + name + " value=\"" + value + "\" />";
+        } else {
+            element = "<null" + name + " />";
+        }
+        return element.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static String escape(String text) {
+        StringBuilder builder = null;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            String replacement;
+            switch (c) {
+                case '&':
+                    replacement = "&amp;";
+                    break;
+                case '<':
+                    replacement = "&lt;";
+                    break;
+                case '>':
+                    replacement = "&gt;";
+                    break;
+                case '"':
+                    replacement = "&quot;";
+                    break;
+                default:
+                    replacement = null;
+                    break;
+            }
+            if (replacement != null && builder == null) {
+                builder = new StringBuilder(text.length() + 16).append(text, 0, i);
+            }
+            if (builder != null) {
+                if (replacement != null) {
+                    builder.append(replacement);
+                } else {
+                    builder.append(c);
+                }
+            }
+        }
+        return builder == null ? text : builder.toString();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Total size of the config files on disk, including the blob files of spilled values.
+     */
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public int getKeyCount() {
+        return keySizes.size();
+    }
+
+    public long getEncodedSize() {
+        return encodedSize;
+    }
+
+    /**
+     * Encoded size in bytes of every stored key, a spilled value adds the size of its blob file.
+     */
+    public Map<String, Integer> getKeySizes() {
+        return keySizes;
+    }
+
+    /**
+     * Keys with the largest encoded size, largest first.
+     */
+    public List<String> getLargestKeys() {
+        return largestKeys;
+    }
+
+    /**
+     * Stored keys not declared by any Property method of the config.
+     */
+    public List<String> getOrphanKeys() {
+        return orphanKeys;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder()
+                .append(name).append(": ").append(fileSize).append(" bytes, ")
+                .append(getKeyCount()).append(" keys\nlargest:");
+        for (String key : largestKeys) {
+            builder.append("\n  ").append(key).append(" ").append(keySizes.get(key)).append(" bytes");
+        }
+        builder.append("\norphans: ").append(orphanKeys);
+        return builder.toString();
+    }
+}
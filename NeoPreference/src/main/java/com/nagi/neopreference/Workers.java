@@ -0,0 +1,49 @@
+package com.nagi.neopreference;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+final class Workers {
+    private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "NeoPreference-worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private Workers() {
+
+    }
+
+    static void execute(Runnable runnable) {
+        EXECUTOR.execute(runnable);
+    }
+
+    static ScheduledFuture<?> schedule(Runnable runnable, long delay, TimeUnit unit) {
+        return EXECUTOR.schedule(runnable, delay, unit);
+    }
+
+    static ScheduledFuture<?> scheduleWithFixedDelay(Runnable runnable, long delay, TimeUnit unit) {
+        return EXECUTOR.scheduleWithFixedDelay(runnable, delay, delay, unit);
+    }
+
+    /**
+     * Runs {@code task} periodically for as long as {@code target} is reachable from elsewhere.
+     */
+    static <T> void scheduleWhileReachable(T target, Consumer<T> task, long delay, TimeUnit unit) {
+        WeakReference<T> reference = new WeakReference<>(target);
+        AtomicReference<ScheduledFuture<?>> future = new AtomicReference<>();
+        future.set(scheduleWithFixedDelay(() -> {
+            T t = reference.get();
+            if (t != null) {
+                task.accept(t);
+            } else {
+                future.get().cancel(false);
+            }
+        }, delay, unit));
+    }
+}
@@ -0,0 +1,86 @@
+package com.nagi.neopreference;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Completes once the writes it was created for have reached disk.
+ */
+public final class WriteFuture implements Future<Void> {
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private List<Runnable> callbacks = new ArrayList<>();
+    private volatile Throwable failure;
+
+    WriteFuture() {
+
+    }
+
+    void complete(@Nullable Throwable failure) {
+        List<Runnable> pending;
+        synchronized (this) {
+            if (callbacks == null) {
+                return;
+            }
+            this.failure = failure;
+            pending = callbacks;
+            callbacks = null;
+            latch.countDown();
+        }
+        for (Runnable callback : pending) {
+            callback.run();
+        }
+    }
+
+    /**
+     * Runs {@code listener} on {@code executor} when the write completes, or right away if it already has.
+     */
+    public void addListener(Runnable listener, Executor executor) {
+        Runnable callback = () -> executor.execute(listener);
+        synchronized (this) {
+            if (callbacks != null) {
+                callbacks.add(callback);
+                return;
+            }
+        }
+        callback.run();
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        return latch.getCount() == 0;
+    }
+
+    @Override
+    public Void get() throws InterruptedException, ExecutionException {
+        latch.await();
+        return result();
+    }
+
+    @Override
+    public Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!latch.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return result();
+    }
+
+    private Void result() throws ExecutionException {
+        if (failure != null) {
+            throw new ExecutionException(failure);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,211 @@
+package com.nagi.neopreference;
+
+import android.content.SharedPreferences;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import static org.junit.Assert.*;
+
+public class BlobPreferencesTest {
+    private static final int THRESHOLD = 16;
+    private static final String LARGE = "0123456789abcdefghijklmnopqrstuvwxyz";
+    private static final String OTHER_LARGE = "zyxwvutsrqponmlkjihgfedcba9876543210";
+
+    private File directory;
+    private MemoryPreferences base;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("blobs").toFile();
+        base = new MemoryPreferences();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static void awaitWorker() throws InterruptedException {
+        CountDownLatch idle = new CountDownLatch(1);
+        Workers.execute(idle::countDown);
+        assertTrue(idle.await(5, TimeUnit.SECONDS));
+    }
+
+    private Set<String> blobFiles() {
+        String[] names = directory.list();
+        return names == null ? Collections.emptySet() : new HashSet<>(Arrays.asList(names));
+    }
+
+    /**
+     * Writes the string entries the way a SharedPreferences xml file holds them and loads them back, so a value that
+     * XML 1.0 can not carry fails here as it would when the real file is reloaded.
+     */
+    private MemoryPreferences reloadAsXml(MemoryPreferences preferences) throws Exception {
+        File file = new File(directory.getParentFile(), directory.getName() + ".xml");
+        try {
+            Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+            Element map = document.createElement("map");
+            document.appendChild(map);
+            preferences.getAll().forEach((key, value) -> {
+                Element entry = document.createElement("string");
+                entry.setAttribute("name", key);
+                entry.setTextContent((String) value);
+                map.appendChild(entry);
+            });
+            TransformerFactory.newInstance().newTransformer().transform(new DOMSource(document), new StreamResult(file));
+
+            MemoryPreferences reloaded = new MemoryPreferences();
+            SharedPreferences.Editor editor = reloaded.edit();
+            NodeList entries = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file).getElementsByTagName("string");
+            for (int i = 0; i < entries.getLength(); i++) {
+                Element entry = (Element) entries.item(i);
+                editor.putString(entry.getAttribute("name"), entry.getTextContent());
+            }
+            editor.commit();
+            return reloaded;
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void largeString_isSpilledToAFile() throws InterruptedException {
+        BlobPreferences preferences = new BlobPreferences(base, "blobs", directory, THRESHOLD);
+
+        preferences.edit().putString("large", LARGE).putString("small", "tiny").apply();
+
+        assertEquals(LARGE, preferences.getString("large", null));
+        assertTrue(BlobPreferences.isReference(base.getString("large", null)));
+        assertEquals("tiny", base.getString("small", null));
+        awaitWorker();
+        assertEquals(1, blobFiles().size());
+        assertEquals(LARGE, preferences.getAll().get("large"));
+    }
+
+    @Test
+    public void spilledValue_isLoadedLazilyFromDisk() throws InterruptedException {
+        new BlobPreferences(base, "blobs", directory, THRESHOLD).edit().putString("large", LARGE).commit();
+        assertEquals(1, blobFiles().size());
+
+        BlobPreferences reopened = new BlobPreferences(base, "blobs", directory, THRESHOLD);
+
+        assertEquals(LARGE, reopened.getString("large", null));
+        assertEquals("default", new BlobPreferences(new MemoryPreferences(), "blobs", directory, THRESHOLD).getString("large", "default"));
+    }
+
+    @Test
+    public void overwrite_deletesTheUnreferencedBlob() throws InterruptedException {
+        BlobPreferences preferences = new BlobPreferences(base, "blobs", directory, THRESHOLD);
+        preferences.edit().putString("first", LARGE).putString("second", LARGE).apply();
+        awaitWorker();
+        Set<String> shared = blobFiles();
+        assertEquals(1, shared.size());
+
+        preferences.edit().putString("first", OTHER_LARGE).apply();
+        awaitWorker();
+        assertEquals(2, blobFiles().size());
+        assertTrue(blobFiles().containsAll(shared));
+
+        preferences.edit().remove("second").apply();
+        awaitWorker();
+        assertEquals(1, blobFiles().size());
+        assertFalse(blobFiles().containsAll(shared));
+        assertEquals(OTHER_LARGE, preferences.getString("first", null));
+    }
+
+    @Test
+    public void removeOrphans_releasesSpilledBlobs() throws InterruptedException {
+        SharedPreferences preferences = new ExpiringPreferences(new BlobPreferences(base, "blobs", directory, THRESHOLD),
+                Collections.singletonMap("title", 1000L));
+        preferences.edit().putString("title", LARGE).putString("body", OTHER_LARGE).putInt("legacy", 1).commit();
+        awaitWorker();
+        assertEquals(2, blobFiles().size());
+        Set<String> keptKeys = Collections.singleton("title");
+
+        assertEquals(Arrays.asList("body", "legacy"), ConfigManager.removeOrphans("blobs", preferences, keptKeys, Collections.emptySet(), true));
+        assertEquals(OTHER_LARGE, preferences.getString("body", null));
+
+        assertEquals(Arrays.asList("body", "legacy"), ConfigManager.removeOrphans("blobs", preferences, keptKeys, Collections.emptySet(), false));
+        awaitWorker();
+        assertEquals(1, blobFiles().size());
+        assertFalse(preferences.contains("body"));
+        assertFalse(preferences.contains("legacy"));
+        assertEquals(LARGE, preferences.getString("title", null));
+        assertTrue(base.contains(ExpiringPreferences.DEADLINE_PREFIX + "title"));
+    }
+
+    @Test
+    public void collectGarbage_keepsReferencedAndPendingBlobs() throws IOException, InterruptedException {
+        BlobPreferences preferences = new BlobPreferences(base, "blobs", directory, THRESHOLD);
+        preferences.edit().putString("large", LARGE).commit();
+        File stale = new File(directory, "stale");
+        File staleTemp = new File(directory, "stale.tmp");
+        assertTrue(stale.createNewFile());
+        assertTrue(staleTemp.createNewFile());
+
+        preferences.collectGarbage();
+
+        assertEquals(1, blobFiles().size());
+        assertEquals(LARGE, preferences.getString("large", null));
+    }
+
+    @Test
+    public void uncommittedEditor_leavesNoFile() throws InterruptedException {
+        BlobPreferences preferences = new BlobPreferences(base, "blobs", directory, THRESHOLD);
+        SharedPreferences.Editor editor = preferences.edit();
+        editor.putString("large", LARGE);
+        awaitWorker();
+
+        assertTrue(blobFiles().isEmpty());
+        assertFalse(preferences.contains("large"));
+    }
+
+    @Test
+    public void spilledValue_roundTripsThroughAnXmlFile() throws Exception {
+        new BlobPreferences(base, "blobs", directory, THRESHOLD).edit().putString("large", LARGE).putString("small", "tiny").commit();
+
+        BlobPreferences reopened = new BlobPreferences(reloadAsXml(base), "blobs", directory, THRESHOLD);
+
+        assertEquals(LARGE, reopened.getString("large", null));
+        assertEquals("tiny", reopened.getString("small", null));
+    }
+
+    @Test
+    public void userStringWithTheReferencePrefix_isNotTakenForAReference() throws Exception {
+        String forged = BlobPreferences.REFERENCE_PREFIX + "ab";
+        String escaped = BlobPreferences.ESCAPE_PREFIX + "x";
+        BlobPreferences preferences = new BlobPreferences(base, "blobs", directory, THRESHOLD);
+        preferences.edit().putString("forged", forged).putString("escaped", escaped).commit();
+
+        assertFalse(BlobPreferences.isReference(base.getString("forged", null)));
+        assertEquals(forged, preferences.getString("forged", null));
+        assertEquals(escaped, preferences.getString("escaped", null));
+        assertEquals(forged, preferences.getAll().get("forged"));
+
+        BlobPreferences reopened = new BlobPreferences(reloadAsXml(base), "blobs", directory, THRESHOLD);
+        assertEquals(forged, reopened.getString("forged", null));
+        assertEquals(escaped, reopened.getString("escaped", null));
+        assertTrue(blobFiles().isEmpty());
+    }
+}
@@ -0,0 +1,121 @@
+package com.nagi.neopreference;
+
+import android.content.SharedPreferences;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ColdPreferencesTest {
+    private static final String NAME = "cold_test";
+    private static final String COLD_NAME = NAME + "_cold";
+
+    private final MemoryPreferences hot = new MemoryPreferences();
+    private final MemoryPreferences cold = new MemoryPreferences();
+    private int coldOpenCount;
+
+    private ShardedPreferences partition() {
+        return ColdPreferences.partition(NAME, hot, COLD_NAME, name -> {
+            coldOpenCount++;
+            return cold;
+        }, Collections.singleton("note"));
+    }
+
+    private static void awaitWorker() throws InterruptedException {
+        CountDownLatch idle = new CountDownLatch(1);
+        Workers.execute(idle::countDown);
+        assertTrue(idle.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void hotReadsAndGetAll_doNotOpenTheColdFile() throws InterruptedException {
+        ShardedPreferences preferences = partition();
+        awaitWorker();
+
+        preferences.edit().putInt("count", 1).apply();
+        assertEquals(1, preferences.getInt("count", 0));
+        assertEquals(Collections.singleton("count"), preferences.getAll().keySet());
+        assertEquals(0, coldOpenCount);
+
+        preferences.edit().putString("note", "cold value").apply();
+        assertEquals(1, coldOpenCount);
+        assertEquals("cold value", cold.getString("note", null));
+        assertEquals(new HashSet<>(Arrays.asList("count", "note")), preferences.getAll().keySet());
+    }
+
+    @Test
+    public void oldHotValue_isMovedOnTheWorkerAndReadMeanwhile() throws InterruptedException {
+        hot.edit().putString("note", "written before @Cold").putInt("count", 2).commit();
+        CountDownLatch release = new CountDownLatch(1);
+        Workers.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        ShardedPreferences preferences = partition();
+        List<String> changedKeys = new ArrayList<>();
+        preferences.registerOnSharedPreferenceChangeListener((sharedPreferences, key) -> changedKeys.add(key));
+
+        assertEquals("written before @Cold", preferences.getString("note", null));
+        assertTrue(preferences.contains("note"));
+        assertFalse(cold.contains("note"));
+
+        release.countDown();
+        awaitWorker();
+
+        assertEquals("written before @Cold", cold.getString("note", null));
+        assertFalse(hot.contains("note"));
+        assertEquals(2, hot.getInt("count", 0));
+        assertEquals("written before @Cold", preferences.getString("note", null));
+        // only the write to the cold file is reported, not the removal from the main file
+        assertEquals(Collections.singletonList("note"), changedKeys);
+    }
+
+    @Test
+    public void valueWrittenBeforeMigration_isKept() throws InterruptedException {
+        hot.edit().putString("note", "old").commit();
+        CountDownLatch release = new CountDownLatch(1);
+        Workers.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        ShardedPreferences preferences = partition();
+
+        preferences.edit().putString("note", "new").apply();
+        release.countDown();
+        awaitWorker();
+
+        assertEquals("new", preferences.getString("note", null));
+        assertFalse(hot.contains("note"));
+    }
+
+    @Test
+    public void removedBeforeMigration_isNotRestored() throws InterruptedException {
+        hot.edit().putString("note", "old").commit();
+        CountDownLatch release = new CountDownLatch(1);
+        Workers.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        ShardedPreferences preferences = partition();
+
+        preferences.edit().remove("note").apply();
+        assertFalse(preferences.contains("note"));
+        release.countDown();
+        awaitWorker();
+
+        assertFalse(preferences.contains("note"));
+        assertFalse(hot.contains("note"));
+    }
+}
@@ -0,0 +1,51 @@
+package com.nagi.neopreference;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CompactStringTest {
+
+    interface CompactConfig extends Config {
+        @StringItem(key = "mode", valueOf = {"auto", "manual", "off"}, defaultValue = "auto", compact = true)
+        Property<String> mode();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Property<String> modeOf(MemoryPreferences preferences) throws NoSuchMethodException {
+        return (Property<String>) PropertyFactory.get("compact_test", preferences, CompactConfig.class.getMethod("mode")).get();
+    }
+
+    @Test
+    public void compact_storesTheIndex() throws Exception {
+        MemoryPreferences preferences = new MemoryPreferences();
+        Property<String> mode = modeOf(preferences);
+        assertEquals("auto", mode.get());
+
+        mode.set("off");
+        assertEquals(2, preferences.getInt("mode", -1));
+        assertEquals("off", mode.get());
+    }
+
+    @Test
+    public void legacyString_isReadAndReplacedByTheIndex() throws Exception {
+        MemoryPreferences preferences = new MemoryPreferences();
+        // written before compact was enabled
+        preferences.edit().putString("mode", "manual").commit();
+        Property<String> mode = modeOf(preferences);
+
+        assertEquals("manual", mode.get());
+
+        mode.set("off");
+        assertEquals(2, preferences.getInt("mode", -1));
+        assertEquals("off", mode.get());
+    }
+
+    @Test
+    public void unknownIndex_fallsBackToTheDefault() throws Exception {
+        MemoryPreferences preferences = new MemoryPreferences();
+        preferences.edit().putInt("mode", 5).commit();
+
+        assertEquals("auto", modeOf(preferences).get());
+    }
+}
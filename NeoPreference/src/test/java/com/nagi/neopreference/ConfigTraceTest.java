@@ -0,0 +1,75 @@
+package com.nagi.neopreference;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ConfigTraceTest {
+
+    interface TraceConfig extends Config {
+        @IntItem(key = "launch_step")
+        Property<Integer> launchStep();
+    }
+
+    private static final class RecordingTracer implements ConfigTrace.Tracer {
+        final List<String> sections = new ArrayList<>();
+        int depth;
+
+        @Override
+        public void beginSection(String name) {
+            sections.add(name);
+            depth++;
+        }
+
+        @Override
+        public void endSection() {
+            depth--;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Property<Integer> launchStepOf(MemoryPreferences preferences) throws NoSuchMethodException {
+        return (Property<Integer>) PropertyFactory.get("trace_test", preferences, TraceConfig.class.getMethod("launchStep")).get();
+    }
+
+    @After
+    public void tearDown() {
+        ConfigTrace.disable();
+    }
+
+    @Test
+    public void sections_areNamedAfterConfigAndKey() throws NoSuchMethodException {
+        Property<Integer> launchStep = launchStepOf(new MemoryPreferences());
+        launchStep.addListener(value -> {
+        });
+        RecordingTracer tracer = new RecordingTracer();
+        ConfigTrace.enable(tracer);
+
+        launchStep.set(2);
+        launchStep.get();
+
+        assertEquals(Arrays.asList(
+                "Neo:set trace_test/launch_step",
+                "Neo:notifyListeners trace_test/launch_step",
+                "Neo:get trace_test/launch_step"), tracer.sections);
+        assertEquals(0, tracer.depth);
+    }
+
+    @Test
+    public void disabled_recordsNothing() throws NoSuchMethodException {
+        Property<Integer> launchStep = launchStepOf(new MemoryPreferences());
+        RecordingTracer tracer = new RecordingTracer();
+        ConfigTrace.enable(tracer);
+        ConfigTrace.disable();
+
+        launchStep.set(1);
+        launchStep.get();
+
+        assertTrue(tracer.sections.isEmpty());
+    }
+}
@@ -0,0 +1,116 @@
+package com.nagi.neopreference;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class CounterPropertyTest {
+    private static final int INCREMENTS_PER_THREAD = 200_000;
+
+    interface CounterConfig extends Config {
+        @CounterItem(key = "app_open_count")
+        Counter openCount();
+    }
+
+    private static Counter newCounter(MemoryPreferences preferences) throws NoSuchMethodException {
+        Config.CounterItem annotation = CounterConfig.class.getMethod("openCount").getAnnotation(Config.CounterItem.class);
+        return new CounterWrapper(Factories.COUNTER_FACTORY.createProperty("openCount", annotation, "counter_test", preferences));
+    }
+
+    private static long runIncrements(Counter counter, int threadCount) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < threadCount; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int j = 0; j < INCREMENTS_PER_THREAD; j++) {
+                    counter.incrementAndGet();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return System.nanoTime() - begin;
+    }
+
+    @Test
+    public void concurrentIncrements_areNotLost() throws Exception {
+        MemoryPreferences preferences = new MemoryPreferences();
+        Counter counter = newCounter(preferences);
+        int threadCount = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+        runIncrements(counter, threadCount);
+
+        long expected = (long) threadCount * INCREMENTS_PER_THREAD;
+        assertEquals(expected, (long) counter.get());
+        DeferredWrites.flushAll();
+        assertEquals(expected, preferences.getLong("app_open_count", -1));
+    }
+
+    @Test
+    public void throughput_doesNotCollapseAcrossThreads() throws Exception {
+        int threadCount = Math.max(2, Runtime.getRuntime().availableProcessors());
+        // warms up the JIT so the single thread run is not measured interpreted
+        runIncrements(newCounter(new MemoryPreferences()), threadCount);
+
+        long singleNanos = runIncrements(newCounter(new MemoryPreferences()), 1);
+        long multiNanos = runIncrements(newCounter(new MemoryPreferences()), threadCount);
+
+        double single = INCREMENTS_PER_THREAD * 1e6 / singleNanos;
+        double multi = (double) threadCount * INCREMENTS_PER_THREAD * 1e6 / multiNanos;
+        System.out.printf("threads=1 throughput=%.1f ops/ms, threads=%d throughput=%.1f ops/ms%n", single, threadCount, multi);
+        // tolerant of loaded machines, a lock or shared write per increment drops it far below this
+        assertTrue(String.format("threads=%d %.1f ops/ms, single %.1f ops/ms", threadCount, multi, single), multi > single * 0.3);
+    }
+
+    @Test
+    public void increments_arePersistedInBatches() throws Exception {
+        MemoryPreferences preferences = new MemoryPreferences();
+        Counter counter = newCounter(preferences);
+
+        assertEquals(3, counter.addAndGet(3));
+        assertEquals(4, counter.incrementAndGet());
+        assertTrue(counter.exists());
+        assertFalse(preferences.contains("app_open_count"));
+
+        DeferredWrites.flushAll();
+        assertEquals(4, preferences.getLong("app_open_count", -1));
+
+        counter.set(10L);
+        assertEquals(10, preferences.getLong("app_open_count", -1));
+        assertEquals(11, newCounter(preferences).incrementAndGet());
+    }
+
+    @Test
+    public void increments_areFlushedWithoutAnExplicitFlush() throws Exception {
+        MemoryPreferences preferences = new MemoryPreferences();
+        Counter counter = newCounter(preferences);
+
+        counter.incrementAndGet();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!preferences.contains("app_open_count") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(1, preferences.getLong("app_open_count", -1));
+
+        counter.incrementAndGet();
+        deadline = System.currentTimeMillis() + 5000;
+        while (preferences.getLong("app_open_count", -1) != 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(2, preferences.getLong("app_open_count", -1));
+    }
+}
@@ -0,0 +1,150 @@
+package com.nagi.neopreference;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class DerivedPropertyTest {
+
+    interface MemberConfig extends Config {
+        @BooleanItem(key = "is_premium")
+        Property<Boolean> isPremium();
+
+        @BooleanItem(key = "trial_expired")
+        Property<Boolean> trialExpired();
+
+        @IntItem(key = "level")
+        Property<Integer> level();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Property<T> propertyOf(MemoryPreferences preferences, String name) throws NoSuchMethodException {
+        return (Property<T>) PropertyFactory.get("derived_test", preferences, MemberConfig.class.getMethod(name)).get();
+    }
+
+    @Test
+    public void combine_isMemoizedUntilASourceIsSet() throws NoSuchMethodException {
+        MemoryPreferences preferences = new MemoryPreferences();
+        Property<Boolean> isPremium = propertyOf(preferences, "isPremium");
+        Property<Boolean> trialExpired = propertyOf(preferences, "trialExpired");
+        AtomicInteger computeCount = new AtomicInteger();
+        Property<Boolean> active = Property.combine(isPremium, trialExpired, (premium, expired) -> {
+            computeCount.incrementAndGet();
+            return premium && !expired;
+        });
+
+        assertFalse(active.get());
+        for (int i = 0; i < 100; i++) {
+            active.get();
+        }
+        assertEquals(1, computeCount.get());
+
+        isPremium.set(true);
+        assertTrue(active.get());
+        assertEquals(2, computeCount.get());
+
+        trialExpired.set(true);
+        assertFalse(active.get());
+        assertEquals(3, computeCount.get());
+    }
+
+    @Test
+    public void memo_followsWritesThatBypassTheSourceProperty() throws NoSuchMethodException {
+        MemoryPreferences preferences = new MemoryPreferences();
+        Property<Integer> level = propertyOf(preferences, "level");
+        Property<Integer> sameLevel = propertyOf(preferences, "level");
+        AtomicInteger computeCount = new AtomicInteger();
+        Property<Integer> doubled = level.map(value -> {
+            computeCount.incrementAndGet();
+            return value * 2;
+        });
+        assertEquals(0, (int) doubled.get());
+
+        preferences.edit().putInt("level", 2).commit();
+        assertEquals(4, (int) doubled.get());
+
+        sameLevel.set(5);
+        assertEquals(10, (int) doubled.get());
+
+        preferences.edit().remove("level").commit();
+        assertEquals(0, (int) doubled.get());
+        assertEquals(0, (int) doubled.get());
+        assertEquals(4, computeCount.get());
+    }
+
+    @Test
+    public void map_notifiesOnlyWhenTheDerivedValueChanges() throws NoSuchMethodException {
+        MemoryPreferences preferences = new MemoryPreferences();
+        Property<Integer> level = propertyOf(preferences, "level");
+        Property<Boolean> isVip = level.map(value -> value >= 3);
+        Property<String> label = isVip.map(vip -> vip ? "vip" : "normal");
+        List<String> changes = new ArrayList<>();
+        label.addListener(changes::add);
+
+        level.set(1);
+        level.set(2);
+        level.set(3);
+        level.set(4);
+        level.set(0);
+
+        assertEquals("normal", label.get());
+        assertEquals(2, changes.size());
+        assertEquals("vip", changes.get(0));
+        assertEquals("normal", changes.get(1));
+    }
+
+    @Test
+    public void sourceListeners_areRemovedWithTheLastDerivedListener() throws NoSuchMethodException {
+        AtomicInteger sourceListeners = new AtomicInteger();
+        Property<Integer> level = new PropertyWrapper<Integer>(propertyOf(new MemoryPreferences(), "level")) {
+            @Override
+            public void addListener(Listener<Integer> listener) {
+                sourceListeners.incrementAndGet();
+                super.addListener(listener);
+            }
+
+            @Override
+            public void removeListener(Listener<Integer> listener) {
+                sourceListeners.decrementAndGet();
+                super.removeListener(listener);
+            }
+        };
+        Property<Boolean> isVip = level.map(value -> value >= 3);
+        List<Boolean> changes = new ArrayList<>();
+        Property.Listener<Boolean> listener = changes::add;
+        Property.ChangeListener<Boolean> changeListener = (oldValue, value) -> changes.add(value);
+
+        isVip.addListener(listener);
+        isVip.addChangeListener(changeListener);
+        assertEquals(1, sourceListeners.get());
+        isVip.removeListener(listener);
+        assertEquals(1, sourceListeners.get());
+        isVip.removeChangeListener(changeListener);
+        assertEquals(0, sourceListeners.get());
+
+        level.set(3);
+        assertTrue(changes.isEmpty());
+
+        isVip.addListener(listener);
+        assertEquals(1, sourceListeners.get());
+        level.set(0);
+        assertEquals(1, changes.size());
+        assertFalse(changes.get(0));
+    }
+
+    @Test
+    public void derived_isReadOnly() throws NoSuchMethodException {
+        Property<Integer> level = propertyOf(new MemoryPreferences(), "level");
+        Property<Integer> doubled = level.map(value -> value * 2);
+        try {
+            doubled.set(4);
+            fail("derived property accepted a write");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+}
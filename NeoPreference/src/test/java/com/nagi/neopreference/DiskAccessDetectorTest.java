@@ -0,0 +1,201 @@
+package com.nagi.neopreference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+public class DiskAccessDetectorTest {
+    private final List<DiskAccessViolation> violations = new ArrayList<>();
+
+    /**
+     * Holds the load probe and the worker's commits until released, like a slow disk.
+     */
+    private static final class SlowDiskPreferences extends ForwardingPreferences {
+        final CountDownLatch loaded = new CountDownLatch(1);
+        final CountDownLatch written = new CountDownLatch(1);
+        final Thread testThread = Thread.currentThread();
+
+        SlowDiskPreferences() {
+            super(new MemoryPreferences());
+        }
+
+        @Override
+        public boolean contains(String key) {
+            if (key.startsWith(StorageReport.INTERNAL_KEY_PREFIX)) {
+                await(loaded);
+            }
+            return super.contains(key);
+        }
+
+        @Override
+        public Editor edit() {
+            return new ForwardingEditor(super.edit()) {
+                @Override
+                public boolean commit() {
+                    if (Thread.currentThread() != testThread) {
+                        await(written);
+                    }
+                    return super.commit();
+                }
+            };
+        }
+
+        private static void await(CountDownLatch latch) {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Before
+    public void setUp() {
+        MonitoredPreferences.setMainThread(Thread.currentThread());
+        MonitoredPreferences.setListener(violations::add);
+        MonitoredPreferences.setPolicy(DiskAccessPolicy.METRICS);
+    }
+
+    @After
+    public void tearDown() {
+        MonitoredPreferences.setPolicy(DiskAccessPolicy.OFF);
+        MonitoredPreferences.setListener(null);
+        MonitoredPreferences.setMainThread(null);
+    }
+
+    private static void await(BooleanSupplier condition) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private static void awaitWorker() throws Exception {
+        CountDownLatch idle = new CountDownLatch(1);
+        Workers.execute(idle::countDown);
+        assertTrue(idle.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void mainThreadAccess_isReportedUntilLoadedAndWhileWritesArePending() throws Exception {
+        SlowDiskPreferences slowDisk = new SlowDiskPreferences();
+        MonitoredPreferences preferences = new MonitoredPreferences(slowDisk, "disk_test");
+
+        preferences.getInt("count", 0);
+        assertEquals(1, violations.size());
+        assertEquals(DiskAccessViolation.Reason.UNLOADED_STORE, violations.get(0).getReason());
+        assertEquals("disk_test", violations.get(0).getPreferenceName());
+        assertEquals("count", violations.get(0).getKey());
+
+        slowDisk.loaded.countDown();
+        await(preferences::isLoaded);
+        preferences.getInt("count", 0);
+        preferences.edit().putInt("count", 1).apply();
+        assertEquals(1, violations.size());
+
+        preferences.edit().putInt("count", 2).apply();
+        assertEquals(2, violations.size());
+        assertEquals(DiskAccessViolation.Reason.PENDING_FLUSH, violations.get(1).getReason());
+
+        slowDisk.written.countDown();
+        await(() -> !preferences.hasPendingApplies());
+        preferences.edit().putInt("count", 3).apply();
+        assertEquals(2, violations.size());
+
+        preferences.edit().putInt("count", 4).commit();
+        assertEquals(DiskAccessViolation.Reason.COMMIT, violations.get(2).getReason());
+    }
+
+    @Test
+    public void loadProbe_doesNotWaitForTheWorker() throws Exception {
+        CountDownLatch busy = new CountDownLatch(1);
+        Workers.execute(() -> {
+            try {
+                busy.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        try {
+            MonitoredPreferences preferences = new MonitoredPreferences(new MemoryPreferences(), "disk_test");
+            await(preferences::isLoaded);
+            preferences.edit().putInt("count", 1).apply();
+            await(() -> !preferences.hasPendingApplies());
+            preferences.getInt("count", 0);
+            assertTrue(violations.isEmpty());
+        } finally {
+            busy.countDown();
+        }
+    }
+
+    @Test
+    public void spilledValueRead_isReportedUntilCached() throws Exception {
+        File directory = Files.createTempDirectory("monitored").toFile();
+        MemoryPreferences base = new MemoryPreferences();
+        String large = "0123456789abcdefghijklmnopqrstuvwxyz";
+        try {
+            new BlobPreferences(base, "disk_test", directory, 16).edit().putString("body", large).commit();
+            awaitWorker();
+            MonitoredPreferences preferences = new MonitoredPreferences(new BlobPreferences(base, "disk_test", directory, 16), "disk_test");
+            await(preferences::isLoaded);
+
+            assertEquals(large, preferences.getString("body", null));
+            assertEquals(1, violations.size());
+            assertEquals(DiskAccessViolation.Reason.SPILLED_VALUE, violations.get(0).getReason());
+            assertEquals("body", violations.get(0).getKey());
+
+            assertEquals(large, preferences.getString("body", null));
+            assertEquals(1, violations.size());
+        } finally {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            directory.delete();
+        }
+    }
+
+    @Test
+    public void backgroundAccess_isNotReported() throws Exception {
+        SlowDiskPreferences slowDisk = new SlowDiskPreferences();
+        slowDisk.written.countDown();
+        MonitoredPreferences preferences = new MonitoredPreferences(slowDisk, "disk_test");
+        Thread background = new Thread(() -> {
+            preferences.getInt("count", 0);
+            preferences.edit().putInt("count", 1).commit();
+        });
+        background.start();
+        background.join();
+        slowDisk.loaded.countDown();
+        assertTrue(violations.isEmpty());
+    }
+
+    @Test
+    public void throwPolicy_throwsWithTheCallerStack() {
+        MonitoredPreferences.setPolicy(DiskAccessPolicy.THROW);
+        SlowDiskPreferences slowDisk = new SlowDiskPreferences();
+        MonitoredPreferences preferences = new MonitoredPreferences(slowDisk, "disk_test");
+        try {
+            preferences.getString("name", null);
+            fail("unloaded read was not reported");
+        } catch (DiskAccessViolation violation) {
+            assertEquals(DiskAccessViolation.Reason.UNLOADED_STORE, violation.getReason());
+            assertTrue(violation.getStackTrace().length > 0);
+        } finally {
+            slowDisk.loaded.countDown();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.nagi.neopreference;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class EnumPropertyTest {
+
+    enum Theme {
+        @Config.EnumCode(10) DARK,
+        @Config.EnumCode(3) LIGHT,
+        @Config.EnumCode(7) SYSTEM
+    }
+
+    enum Level {
+        @Config.EnumCode(-1) OFF,
+        @Config.EnumCode(100_000) HIGH
+    }
+
+    enum Plain {
+        FIRST, SECOND
+    }
+
+    interface EnumConfig extends Config {
+        @EnumItem(key = "theme", defaultValue = "SYSTEM")
+        Property<Theme> theme();
+
+        @EnumItem(key = "level", defaultValue = "OFF")
+        Property<Level> level();
+
+        @EnumItem(key = "plain")
+        Property<Plain> plain();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T propertyOf(MemoryPreferences preferences, String name) throws NoSuchMethodException {
+        return (T) PropertyFactory.get("enum_test", preferences, EnumConfig.class.getMethod(name)).get();
+    }
+
+    @Test
+    public void enumCode_isStoredInsteadOfTheOrdinal() throws Exception {
+        MemoryPreferences preferences = new MemoryPreferences();
+        Property<Theme> theme = propertyOf(preferences, "theme");
+
+        theme.set(Theme.LIGHT);
+        assertEquals(3, preferences.getInt("theme", 0));
+
+        // a stored code keeps its constant whatever the declaration order
+        preferences.edit().putInt("theme", 10).commit();
+        assertEquals(Theme.DARK, theme.get());
+        preferences.edit().putInt("theme", 7).commit();
+        assertEquals(Theme.SYSTEM, theme.get());
+    }
+
+    @Test
+    public void sparseCodes_roundTrip() throws Exception {
+        MemoryPreferences preferences = new MemoryPreferences();
+        Property<Level> level = propertyOf(preferences, "level");
+
+        level.set(Level.HIGH);
+        assertEquals(100_000, preferences.getInt("level", 0));
+        assertEquals(Level.HIGH, level.get());
+        level.set(Level.OFF);
+        assertEquals(Level.OFF, level.get());
+    }
+
+    @Test
+    public void unknownCode_fallsBackToTheDefault() throws Exception {
+        MemoryPreferences preferences = new MemoryPreferences();
+        Property<Theme> theme = propertyOf(preferences, "theme");
+        Property<Level> level = propertyOf(preferences, "level");
+        Property<Plain> plain = propertyOf(preferences, "plain");
+        preferences.edit().putInt("theme", 4).putInt("level", 5).putInt("plain", 2).commit();
+
+        assertEquals(Theme.SYSTEM, theme.get());
+        assertEquals(Theme.LIGHT, theme.get(Theme.LIGHT));
+        assertEquals(Level.OFF, level.get());
+        assertNull(plain.get());
+    }
+
+    @Test
+    public void withoutEnumCode_theOrdinalIsStored() throws Exception {
+        MemoryPreferences preferences = new MemoryPreferences();
+        Property<Plain> plain = propertyOf(preferences, "plain");
+        assertNull(plain.get());
+
+        plain.set(Plain.SECOND);
+        assertEquals(1, preferences.getInt("plain", 0));
+        assertEquals(Plain.SECOND, plain.get());
+    }
+
+    @Test
+    public void factoryWithoutCreateProperty_isRejected() {
+        try {
+            Factories.registerAdapter(new PropertyFactory<Config.StringItem, StringBuilder>() {
+            });
+            fail("a factory must override createProperty");
+        } catch (IllegalArgumentException e) {
+
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.nagi.neopreference;
+
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+public class ExpiringPreferencesTest {
+    private static final long TTL = 1000;
+
+    private final AtomicLong now = new AtomicLong(10_000);
+
+    private static final class CountingPreferences extends ForwardingPreferences {
+        int readCount;
+
+        CountingPreferences() {
+            super(new MemoryPreferences());
+        }
+
+        @Override
+        public boolean contains(String key) {
+            readCount++;
+            return super.contains(key);
+        }
+
+        @Override
+        public long getLong(String key, long defValue) {
+            readCount++;
+            return super.getLong(key, defValue);
+        }
+    }
+
+    private ExpiringPreferences expiringOf(android.content.SharedPreferences base) {
+        return new ExpiringPreferences(base, Collections.singletonMap("token", TTL), now::get);
+    }
+
+    @Test
+    public void value_readsAsDefaultOnceExpired() {
+        ExpiringPreferences preferences = expiringOf(new MemoryPreferences());
+        preferences.edit().putString("token", "abc").putInt("count", 1).apply();
+
+        now.addAndGet(TTL - 1);
+        assertEquals("abc", preferences.getString("token", null));
+        assertEquals(new HashSet<>(Arrays.asList("token", "count")), preferences.getAll().keySet());
+
+        now.addAndGet(1);
+        assertNull(preferences.getString("token", null));
+        assertFalse(preferences.contains("token"));
+        assertEquals(Collections.singleton("count"), preferences.getAll().keySet());
+        assertEquals(1, preferences.getInt("count", 0));
+    }
+
+    @Test
+    public void write_renewsTheDeadline() {
+        ExpiringPreferences preferences = expiringOf(new MemoryPreferences());
+        preferences.edit().putString("token", "abc").apply();
+
+        now.addAndGet(TTL - 1);
+        preferences.edit().putString("token", "def").apply();
+        now.addAndGet(TTL - 1);
+
+        assertEquals("def", preferences.getString("token", null));
+        now.addAndGet(1);
+        assertNull(preferences.getString("token", null));
+    }
+
+    @Test
+    public void sweep_removesExpiredValuesOnlyOnceUsed() {
+        CountingPreferences base = new CountingPreferences();
+        base.edit().putString("token", "abc").putLong(ExpiringPreferences.DEADLINE_PREFIX + "token", now.get()).commit();
+        ExpiringPreferences preferences = expiringOf(base);
+
+        preferences.sweep();
+        assertEquals(0, base.readCount);
+        assertTrue(base.contains("token"));
+
+        assertNull(preferences.getString("token", null));
+        preferences.sweep();
+        assertFalse(base.contains("token"));
+        assertFalse(base.contains(ExpiringPreferences.DEADLINE_PREFIX + "token"));
+    }
+
+    @Test
+    public void deadline_isRoutedWithItsValue() {
+        String[] hashShards = {"s_shard0", "s_shard1", "s_shard2", "s_shard3"};
+        Function<String, String> router = ConfigManager.shardRouterOf(Collections.singletonMap("session", "s_session"), hashShards);
+        for (String key : Arrays.asList("token", "a", "b", "c", "d", "e")) {
+            assertEquals(router.apply(key), router.apply(ExpiringPreferences.DEADLINE_PREFIX + key));
+        }
+        assertEquals("s_session", router.apply(ExpiringPreferences.DEADLINE_PREFIX + "session"));
+
+        MemoryPreferences hot = new MemoryPreferences();
+        MemoryPreferences cold = new MemoryPreferences();
+        ExpiringPreferences preferences = expiringOf(ColdPreferences.partition("s", hot, "s_cold", name -> cold, Collections.singleton("token")));
+        preferences.edit().putString("token", "abc").apply();
+
+        assertTrue(cold.contains(ExpiringPreferences.DEADLINE_PREFIX + "token"));
+        assertTrue(hot.getAll().isEmpty());
+    }
+}
@@ -0,0 +1,145 @@
+package com.nagi.neopreference;
+
+import android.content.SharedPreferences;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+public class GroupPropertyTest {
+
+    static class Server {
+        String host = "localhost";
+        int port = 80;
+        boolean tls;
+        transient String label;
+
+        Server() {
+
+        }
+
+        Server(String host, int port, boolean tls) {
+            this.host = host;
+            this.port = port;
+            this.tls = tls;
+        }
+    }
+
+    interface ServerConfig extends Config {
+        @Group(key = "server")
+        Property<Server> server();
+    }
+
+    @Config.Sharded(count = 4)
+    interface ShardedServerConfig extends Config {
+        @Group(key = "server")
+        Property<Server> server();
+
+        @Shard("backup")
+        @Group(key = "backup")
+        Property<Server> backup();
+    }
+
+    @Config.Volatile
+    interface ExpiringServerConfig extends Config {
+        @Expires(1000)
+        @Group(key = "server")
+        Property<Server> server();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Property<Server> serverOf(MemoryPreferences preferences) throws NoSuchMethodException {
+        return (Property<Server>) PropertyFactory.get("group_test", preferences, ServerConfig.class.getMethod("server")).get();
+    }
+
+    @Test
+    public void group_isStoredAsOneKeyPerField() throws NoSuchMethodException {
+        MemoryPreferences preferences = new MemoryPreferences();
+        Property<Server> server = serverOf(preferences);
+        assertFalse(server.exists());
+        assertEquals("localhost", server.get().host);
+        assertEquals(80, server.get().port);
+
+        List<Server> changes = new ArrayList<>();
+        server.addListener(changes::add);
+        server.set(new Server("neo.example.com", 443, true));
+
+        assertEquals(1, changes.size());
+        assertEquals("neo.example.com", preferences.getString("server_host", null));
+        assertEquals(443, preferences.getInt("server_port", 0));
+        assertTrue(preferences.getBoolean("server_tls", false));
+        assertFalse(preferences.contains("server_label"));
+
+        Server value = server.get();
+        assertTrue(server.exists());
+        assertEquals("neo.example.com", value.host);
+        assertEquals(443, value.port);
+        assertTrue(value.tls);
+    }
+
+    @Test
+    public void group_isNeverReadHalfWritten() throws Exception {
+        Property<Server> server = serverOf(new MemoryPreferences());
+        server.set(new Server("a", 1, false));
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread writer = new Thread(() -> {
+            for (int i = 0; running.get(); i++) {
+                server.set(i % 2 == 0 ? new Server("b", 2, true) : new Server("a", 1, false));
+            }
+        });
+        writer.start();
+        try {
+            for (int i = 0; i < 100_000; i++) {
+                Server value = server.get();
+                boolean stateA = "a".equals(value.host) && value.port == 1 && !value.tls;
+                boolean stateB = "b".equals(value.host) && value.port == 2 && value.tls;
+                assertTrue("torn read: " + value.host + "," + value.port + "," + value.tls, stateA || stateB);
+            }
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void group_isWrittenToOneShard() throws NoSuchMethodException {
+        Map<String, String> routes = ConfigManager.shardRoutesOf(ShardedServerConfig.class, "group_sharded");
+        Set<String> serverShards = new HashSet<>(Arrays.asList(routes.get("server_host"), routes.get("server_port"), routes.get("server_tls")));
+        assertEquals(1, serverShards.size());
+        assertEquals("group_sharded_backup", routes.get("backup_host"));
+        assertEquals("group_sharded_backup", routes.get("backup_port"));
+
+        String[] hashShards = new String[4];
+        Map<String, MemoryPreferences> files = new HashMap<>();
+        Map<String, Function<String, SharedPreferences>> shards = new LinkedHashMap<>();
+        for (int i = 0; i < hashShards.length; i++) {
+            hashShards[i] = ConfigManager.shardFileName("group_sharded", i);
+            shards.put(hashShards[i], name -> files.computeIfAbsent(name, n -> new MemoryPreferences()));
+        }
+        ShardedPreferences preferences = new ShardedPreferences(shards, ConfigManager.shardRouterOf(routes, hashShards));
+        Property<Server> server = (Property<Server>) PropertyFactory.get("group_sharded", preferences,
+                ShardedServerConfig.class.getMethod("server")).get();
+        server.set(new Server("neo.example.com", 443, true));
+
+        MemoryPreferences shard = files.get(serverShards.iterator().next());
+        assertEquals(new HashSet<>(Arrays.asList("server_host", "server_port", "server_tls")), shard.getAll().keySet());
+        for (MemoryPreferences file : files.values()) {
+            assertTrue(file == shard || file.getAll().isEmpty());
+        }
+        assertEquals(443, server.get().port);
+    }
+
+    @Test
+    public void expires_onGroup_isRejected() {
+        try {
+            ConfigManager.getInstance().getConfig(ExpiringServerConfig.class);
+            fail("@Expires was accepted on a @Group");
+        } catch (IllegalStateException e) {
+
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.nagi.neopreference;
+
+import android.content.SharedPreferences;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class JournalTest {
+    private static final int RECORD_COUNT = 200;
+    private static final int TRUNCATE_ROUNDS = 100;
+
+    private static Journal.Record randomRecord(Random random, int index) {
+        Map<String, Object> changes = new LinkedHashMap<>();
+        int count = 1 + random.nextInt(4);
+        for (int i = 0; i < count; i++) {
+            String key = "key_" + random.nextInt(20);
+            switch (random.nextInt(7)) {
+                case 0:
+                    changes.put(key, null);
+                    break;
+                case 1:
+                    changes.put(key, "value_" + index + "_" + random.nextLong());
+                    break;
+                case 2:
+                    changes.put(key, random.nextInt());
+                    break;
+                case 3:
+                    changes.put(key, random.nextLong());
+                    break;
+                case 4:
+                    changes.put(key, random.nextFloat());
+                    break;
+                case 5:
+                    changes.put(key, random.nextBoolean());
+                    break;
+                default:
+                    changes.put(key, new HashSet<>(Arrays.asList("a" + index, "b", "\u4e2d\u6587")));
+                    break;
+            }
+        }
+        return new Journal.Record(index % 50 == 49, changes);
+    }
+
+    private static File copyPrefix(File source, long length) throws IOException {
+        File target = File.createTempFile("journal_truncated", ".wal");
+        target.deleteOnExit();
+        try (RandomAccessFile file = new RandomAccessFile(target, "rw")) {
+            file.write(Files.readAllBytes(source.toPath()), 0, (int) length);
+        }
+        return target;
+    }
+
+    @Test
+    public void recoversCompleteRecordsAfterTruncation() throws IOException {
+        Random random = new Random(39);
+        File file = File.createTempFile("journal", ".wal");
+        file.deleteOnExit();
+        Journal journal = new Journal(file);
+        List<Journal.Record> written = new ArrayList<>();
+        List<Long> ends = new ArrayList<>();
+        for (int i = 0; i < RECORD_COUNT; i++) {
+            Journal.Record record = randomRecord(random, i);
+            journal.append(record.clear, record.changes);
+            written.add(record);
+            ends.add(journal.size());
+        }
+        journal.close();
+        assertEquals(written, new Journal(file).read());
+
+        for (int round = 0; round < TRUNCATE_ROUNDS; round++) {
+            long offset = (long) (random.nextDouble() * (file.length() + 1));
+            int complete = 0;
+            while (complete < ends.size() && ends.get(complete) <= offset) {
+                complete++;
+            }
+            List<Journal.Record> recovered = new Journal(copyPrefix(file, offset)).read();
+            assertEquals("truncated at " + offset, written.subList(0, complete), recovered);
+        }
+    }
+
+    @Test
+    public void stopsAtCorruptedRecord() throws IOException {
+        Random random = new Random(7);
+        File file = File.createTempFile("journal", ".wal");
+        file.deleteOnExit();
+        Journal journal = new Journal(file);
+        List<Journal.Record> written = new ArrayList<>();
+        long firstEnd = 0;
+        for (int i = 0; i < 10; i++) {
+            Journal.Record record = randomRecord(random, i);
+            journal.append(record.clear, record.changes);
+            written.add(record);
+            if (i == 0) {
+                firstEnd = journal.size();
+            }
+        }
+        journal.close();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(firstEnd + 12);
+            int b = raf.read();
+            raf.seek(firstEnd + 12);
+            raf.write(b ^ 0xFF);
+        }
+        assertEquals(written.subList(0, 1), new Journal(file).read());
+    }
+
+    @Test
+    public void discardKeepsRecordsAfterCheckpoint() throws IOException {
+        Random random = new Random(11);
+        File file = File.createTempFile("journal", ".wal");
+        file.deleteOnExit();
+        Journal journal = new Journal(file);
+        List<Journal.Record> written = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            Journal.Record record = randomRecord(random, i);
+            journal.append(record.clear, record.changes);
+            written.add(record);
+        }
+        long checkpoint = journal.size();
+        for (int i = 6; i < 10; i++) {
+            Journal.Record record = randomRecord(random, i);
+            journal.append(record.clear, record.changes);
+            written.add(record);
+        }
+        journal.discard(checkpoint);
+        assertEquals(written.subList(6, 10), journal.read());
+
+        Journal.Record record = randomRecord(random, 10);
+        journal.append(record.clear, record.changes);
+        written.add(record);
+        assertEquals(written.subList(6, 11), journal.read());
+
+        journal.discard(journal.size());
+        assertEquals(0, journal.size());
+        assertTrue(journal.read().isEmpty());
+    }
+
+    private static File journalOf(Map<String, Object> first, Map<String, Object> second) throws IOException {
+        File file = File.createTempFile("journal_replay", ".wal");
+        file.deleteOnExit();
+        Journal journal = new Journal(file);
+        journal.append(false, first);
+        journal.append(false, second);
+        journal.close();
+        return file;
+    }
+
+    /**
+     * Records the threads which edit the store, the replay edits it once.
+     */
+    private static final class EditRecordingPreferences extends ForwardingPreferences {
+        final Set<Thread> editors = Collections.synchronizedSet(new HashSet<>());
+
+        EditRecordingPreferences(SharedPreferences base) {
+            super(base);
+        }
+
+        @Override
+        public Editor edit() {
+            editors.add(Thread.currentThread());
+            return super.edit();
+        }
+    }
+
+    private static void awaitWorker() throws InterruptedException {
+        CountDownLatch idle = new CountDownLatch(1);
+        Workers.execute(idle::countDown);
+        assertTrue(idle.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void replay_runsOnTheWorker() throws Exception {
+        File file = journalOf(Collections.singletonMap("count", 3), Collections.singletonMap("count", 4));
+        MemoryPreferences memory = new MemoryPreferences();
+        EditRecordingPreferences base = new EditRecordingPreferences(memory);
+
+        JournaledPreferences preferences = new JournaledPreferences(base, new Journal(file));
+        awaitWorker();
+
+        assertFalse(base.editors.contains(Thread.currentThread()));
+        assertEquals(4, memory.getInt("count", 0));
+        assertEquals(4, preferences.getInt("count", 0));
+    }
+
+    @Test
+    public void read_beforeTheWorkerReplays_replaysOnTheReadingThread() throws Exception {
+        File file = journalOf(Collections.singletonMap("count", 3), Collections.singletonMap("name", "a"));
+        MemoryPreferences memory = new MemoryPreferences();
+        EditRecordingPreferences base = new EditRecordingPreferences(memory);
+        CountDownLatch release = new CountDownLatch(1);
+        Workers.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        try {
+            JournaledPreferences preferences = new JournaledPreferences(base, new Journal(file));
+            assertTrue(base.editors.isEmpty());
+
+            assertEquals(3, preferences.getInt("count", 0));
+            assertEquals("a", preferences.getString("name", null));
+            preferences.edit().putInt("count", 5).apply();
+        } finally {
+            release.countDown();
+        }
+        awaitWorker();
+
+        // the replay queued on the worker found it done and did not write the journaled value again
+        assertEquals(5, memory.getInt("count", 0));
+        assertEquals(Collections.singleton(Thread.currentThread()), base.editors);
+    }
+}
@@ -0,0 +1,83 @@
+package com.nagi.neopreference;
+
+import android.content.SharedPreferences;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class MemoryPreferencesTest {
+
+    private static List<String> recordChanges(SharedPreferences preferences) {
+        List<String> changedKeys = new ArrayList<>();
+        preferences.registerOnSharedPreferenceChangeListener((sharedPreferences, key) -> changedKeys.add(key));
+        return changedKeys;
+    }
+
+    @Test
+    public void commitsOfDifferentEditors_doNotInterleave() throws InterruptedException {
+        MemoryPreferences preferences = new MemoryPreferences();
+        int threadCount = 4;
+        List<Thread> threads = new ArrayList<>();
+        List<String> inconsistent = Collections.synchronizedList(new ArrayList<>());
+        for (int t = 0; t < threadCount; t++) {
+            int id = t;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    preferences.edit().clear().putInt("first", id).putInt("second", id).commit();
+                    Map<String, ?> all = preferences.getAll();
+                    if (all.size() != 2 || !all.get("first").equals(all.get("second"))) {
+                        inconsistent.add(all.toString());
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(inconsistent.toString(), inconsistent.isEmpty());
+    }
+
+    @Test
+    public void putAndRemove_notifyChangedKeysOnly() {
+        MemoryPreferences preferences = new MemoryPreferences();
+        preferences.edit().putInt("count", 1).putString("name", "a").commit();
+        List<String> changedKeys = recordChanges(preferences);
+
+        preferences.edit().putInt("count", 1).putString("name", "b").remove("missing").commit();
+        assertEquals(Collections.singletonList("name"), changedKeys);
+
+        changedKeys.clear();
+        preferences.edit().putString("name", null).commit();
+        assertEquals(Collections.singletonList("name"), changedKeys);
+        assertFalse(preferences.contains("name"));
+        assertEquals(1, preferences.getInt("count", 0));
+    }
+
+    @Test
+    public void clear_notifiesRemovedKeys() {
+        MemoryPreferences preferences = new MemoryPreferences();
+        preferences.edit().putInt("count", 1).putString("name", "a").putBoolean("flag", true).commit();
+        List<String> changedKeys = recordChanges(preferences);
+
+        preferences.edit().clear().putString("name", "a").putLong("id", 7).commit();
+
+        assertEquals(new HashSet<>(Arrays.asList("count", "flag", "id")), new HashSet<>(changedKeys));
+        assertEquals(3, changedKeys.size());
+        assertEquals(new HashSet<>(Arrays.asList("name", "id")), preferences.getAll().keySet());
+    }
+
+    @Test
+    public void stringSet_isCopiedOnPut() {
+        MemoryPreferences preferences = new MemoryPreferences();
+        Set<String> tags = new HashSet<>(Collections.singleton("a"));
+        preferences.edit().putStringSet("tags", tags).apply();
+        tags.add("b");
+
+        assertEquals(Collections.singleton("a"), preferences.getStringSet("tags", null));
+    }
+}
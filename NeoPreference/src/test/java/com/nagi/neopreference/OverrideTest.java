@@ -0,0 +1,112 @@
+package com.nagi.neopreference;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class OverrideTest {
+    private static final String NAME = "override_test";
+
+    enum Mode {
+        @Config.EnumCode(5) FAST,
+        @Config.EnumCode(9) SAFE
+    }
+
+    static class Server {
+        String host = "";
+        int port;
+    }
+
+    @Config.Volatile
+    @Config.Overridable
+    @Config.Name(NAME)
+    interface OverrideConfig extends Config {
+        @IntItem(key = "count", valueOf = {1, 2, 3}, defaultValue = 1)
+        Property<Integer> count();
+
+        @DoubleItem(key = "ratio")
+        Property<Double> ratio();
+
+        @EnumItem(key = "mode", defaultValue = "FAST")
+        Property<Mode> mode();
+
+        @Group(key = "server")
+        Property<Server> server();
+    }
+
+    private final ConfigManager manager = ConfigManager.getInstance();
+    private final OverrideConfig config = manager.getConfig(OverrideConfig.class);
+
+    @After
+    public void clearOverrides() {
+        manager.clearOverrides(NAME);
+    }
+
+    @Test
+    public void override_isEncodedLikeAWrite() {
+        manager.setOverride(NAME, "ratio", 0.25);
+        manager.setOverride(NAME, "mode", Mode.SAFE);
+
+        assertEquals(0.25, config.ratio().get(), 0);
+        assertEquals(Mode.SAFE, config.mode().get());
+        assertEquals(9, manager.getMemoryOverrides(NAME).get("mode"));
+    }
+
+    @Test
+    public void groupOverride_coversItsFields() {
+        Server server = new Server();
+        server.host = "example.org";
+        server.port = 8080;
+        manager.setOverride(NAME, "server", server);
+
+        assertEquals("example.org", config.server().get().host);
+        assertEquals(8080, config.server().get().port);
+
+        manager.clearOverride(NAME, "server");
+        assertEquals("", config.server().get().host);
+        assertTrue(manager.getMemoryOverrides(NAME).isEmpty());
+    }
+
+    @Test
+    public void invalidOverride_isRejected() {
+        Object[][] invalid = {{"ratio", "0.25"}, {"mode", 9}, {"count", 7}, {"count", 2L}, {"undeclared", new Object()}};
+        for (Object[] entry : invalid) {
+            try {
+                manager.setOverride(NAME, (String) entry[0], entry[1]);
+                fail("override accepted: " + entry[0] + "=" + entry[1]);
+            } catch (IllegalArgumentException e) {
+
+            }
+        }
+        assertTrue(manager.getMemoryOverrides(NAME).isEmpty());
+    }
+
+    @Test
+    public void listeners_areNotifiedOfOverrides() {
+        Property<Integer> count = config.count();
+        count.set(2);
+        List<String> changes = new ArrayList<>();
+        count.addChangeListener((oldValue, value) -> changes.add(oldValue + "->" + value));
+        List<Object> configChanges = new ArrayList<>();
+        ConfigManager.Listener listener = (key, value) -> configChanges.add(key + "=" + value);
+        manager.addListener(NAME, listener);
+        try {
+            manager.setOverride(NAME, "count", 3);
+            manager.clearOverride(NAME, "count");
+            manager.clearOverride(NAME, "count");
+        } finally {
+            manager.removeListener(NAME, listener);
+        }
+
+        assertEquals(2, changes.size());
+        assertEquals("2->3", changes.get(0));
+        assertEquals("3->2", changes.get(1));
+        assertEquals(2, configChanges.size());
+        assertEquals("count=3", configChanges.get(0));
+        assertEquals("count=2", configChanges.get(1));
+    }
+}
@@ -0,0 +1,135 @@
+package com.nagi.neopreference;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PrimitivePropertyTest {
+
+    interface PrimitiveConfig extends Config {
+        @DoubleItem(key = "ratio")
+        Property<Double> ratio();
+
+        @IntArrayItem(key = "scores")
+        IntArrayProperty scores();
+
+        @LongArrayItem(key = "ids")
+        LongArrayProperty ids();
+
+        @IntArrayItem(key = "plain_scores")
+        Property<int[]> plainScores();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T propertyOf(MemoryPreferences preferences, String name) throws NoSuchMethodException {
+        return (T) PropertyFactory.get("primitive_test", preferences, PrimitiveConfig.class.getMethod(name)).get();
+    }
+
+    @Test
+    public void double_roundTripsItsBits() throws Exception {
+        MemoryPreferences preferences = new MemoryPreferences();
+        Property<Double> ratio = propertyOf(preferences, "ratio");
+        double[] values = {0.1, -0.0, Double.NaN, Double.MIN_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, 1e-300};
+        for (double value : values) {
+            ratio.set(value);
+            assertEquals(Double.doubleToRawLongBits(value), Double.doubleToRawLongBits(ratio.get()));
+            assertEquals(Double.doubleToRawLongBits(value), preferences.getLong("ratio", 0));
+        }
+    }
+
+    @Test
+    public void intArray_isStoredAsLittleEndianBase64() throws Exception {
+        MemoryPreferences preferences = new MemoryPreferences();
+        IntArrayProperty scores = propertyOf(preferences, "scores");
+        scores.set(new int[]{1, 256, -1});
+
+        assertEquals("AQAAAAABAAD/////", preferences.getString("scores", null));
+        assertArrayEquals(new int[]{1, 256, -1}, scores.get());
+    }
+
+    @Test
+    public void longArray_isStoredAsLittleEndianBase64() throws Exception {
+        MemoryPreferences preferences = new MemoryPreferences();
+        LongArrayProperty ids = propertyOf(preferences, "ids");
+        long[] values = {Long.MIN_VALUE, 0, 1L << 40};
+        ids.set(values);
+
+        ByteBuffer expected = ByteBuffer.allocate(values.length * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        expected.asLongBuffer().put(values);
+        assertEquals(Base64.getEncoder().encodeToString(expected.array()), preferences.getString("ids", null));
+        assertArrayEquals(values, ids.get());
+    }
+
+    @Test
+    public void get_returnsACopy() throws Exception {
+        Property<int[]> scores = propertyOf(new MemoryPreferences(), "plainScores");
+        scores.set(new int[]{1, 2});
+        scores.get()[0] = 9;
+
+        assertArrayEquals(new int[]{1, 2}, scores.get());
+        assertNotSame(scores.get(), scores.get());
+    }
+
+    @Test
+    public void view_isReadOnlyAndFollowsWrites() throws Exception {
+        IntArrayProperty scores = propertyOf(new MemoryPreferences(), "scores");
+        assertEquals(0, scores.getView().remaining());
+
+        scores.set(new int[]{3, 4});
+        IntBuffer view = scores.getView();
+        assertEquals(2, view.remaining());
+        assertEquals(4, view.get(1));
+        try {
+            view.put(0, 5);
+            fail("the view is read-only");
+        } catch (ReadOnlyBufferException e) {
+
+        }
+        assertArrayEquals(new int[]{3, 4}, scores.get());
+
+        scores.set(new int[]{7});
+        assertEquals(1, scores.getView().remaining());
+        assertEquals(7, scores.getView().get(0));
+    }
+
+    @Test
+    public void longView_isReadOnly() throws Exception {
+        LongArrayProperty ids = propertyOf(new MemoryPreferences(), "ids");
+        ids.set(new long[]{5L});
+        LongBuffer view = ids.getView();
+        assertEquals(5L, view.get(0));
+        assertTrue(view.isReadOnly());
+    }
+
+    @Test
+    public void codec_matchesStandardBase64() {
+        Random random = new Random(42);
+        for (int length = 0; length < 8; length++) {
+            byte[] bytes = new byte[length];
+            random.nextBytes(bytes);
+            String encoded = Base64Codec.encode(bytes);
+            assertEquals(Base64.getEncoder().encodeToString(bytes), encoded);
+            assertArrayEquals(bytes, Base64Codec.decode(encoded));
+        }
+    }
+
+    @Test
+    public void codec_rejectsMalformedInput() {
+        for (String encoded : new String[]{"AQA", "AQ=A", "A\u00e9AA", "AQ#="}) {
+            try {
+                Base64Codec.decode(encoded);
+                fail("malformed: " + encoded);
+            } catch (IllegalArgumentException e) {
+
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.nagi.neopreference;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PropertyConcurrencyTest {
+    private static final int THREAD_COUNT = 4;
+    private static final int UPDATES_PER_THREAD = 2_000;
+
+    interface CasConfig extends Config {
+        @IntItem(key = "first")
+        Property<Integer> first();
+
+        @IntItem(key = "second")
+        Property<Integer> second();
+
+        @IntArrayItem(key = "scores")
+        Property<int[]> scores();
+
+        @CounterItem(key = "visits")
+        Counter visits();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T propertyOf(MemoryPreferences preferences, String name) throws NoSuchMethodException {
+        return (T) PropertyFactory.get("cas_test", preferences, CasConfig.class.getMethod(name)).get();
+    }
+
+    private static void runConcurrently(Runnable task) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(THREAD_COUNT);
+        List<Throwable> failures = new ArrayList<>();
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    task.run();
+                } catch (Throwable e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                } finally {
+                    done.countDown();
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+        start.countDown();
+        assertTrue("threads did not finish, probably deadlocked", done.await(30, TimeUnit.SECONDS));
+        assertEquals(new ArrayList<>(), failures);
+    }
+
+    @Test
+    public void compareAndSet_onlyWritesTheExpectedValue() throws NoSuchMethodException {
+        Property<Integer> first = propertyOf(new MemoryPreferences(), "first");
+        first.set(1);
+
+        assertFalse(first.compareAndSet(2, 3));
+        assertEquals(1, (int) first.get());
+        assertTrue(first.compareAndSet(1, 3));
+        assertEquals(3, (int) first.get());
+    }
+
+    @Test
+    public void compareAndSet_comparesArraysByContent() throws NoSuchMethodException {
+        Property<int[]> scores = propertyOf(new MemoryPreferences(), "scores");
+        scores.set(new int[]{1, 2});
+
+        assertTrue(scores.compareAndSet(new int[]{1, 2}, new int[]{3}));
+        assertArrayEquals(new int[]{3}, scores.get());
+        assertArrayEquals(new int[]{3, 1}, scores.updateAndGet(values -> new int[]{values[0], 1}));
+    }
+
+    @Test
+    public void counterCompareAndSet_withNullExpect_fails() throws NoSuchMethodException {
+        Counter visits = propertyOf(new MemoryPreferences(), "visits");
+        visits.set(5L);
+
+        assertFalse(visits.compareAndSet(null, 6L));
+        assertTrue(visits.compareAndSet(5L, 6L));
+        assertEquals(6, (long) visits.get());
+    }
+
+    @Test
+    public void contendedUpdates_areNotLost() throws Exception {
+        Property<Integer> first = propertyOf(new MemoryPreferences(), "first");
+
+        runConcurrently(() -> {
+            for (int i = 0; i < UPDATES_PER_THREAD; i++) {
+                first.updateAndGet(value -> value + 1);
+            }
+        });
+
+        assertEquals(THREAD_COUNT * UPDATES_PER_THREAD, (int) first.get());
+    }
+
+    @Test
+    public void nestedUpdatesInOppositeOrder_doNotDeadlock() throws Exception {
+        MemoryPreferences preferences = new MemoryPreferences();
+        Property<Integer> first = propertyOf(preferences, "first");
+        Property<Integer> second = propertyOf(preferences, "second");
+        int[] turn = {0};
+
+        runConcurrently(() -> {
+            boolean firstOuter;
+            synchronized (turn) {
+                firstOuter = turn[0]++ % 2 == 0;
+            }
+            Property<Integer> outer = firstOuter ? first : second;
+            Property<Integer> inner = firstOuter ? second : first;
+            for (int i = 0; i < 200; i++) {
+                outer.updateAndGet(value -> {
+                    inner.updateAndGet(other -> other + 1);
+                    return value + 1;
+                });
+            }
+        });
+
+        assertTrue(first.get() >= THREAD_COUNT * 200);
+        assertTrue(second.get() >= THREAD_COUNT * 200);
+    }
+}
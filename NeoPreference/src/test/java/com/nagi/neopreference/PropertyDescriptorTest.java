@@ -0,0 +1,81 @@
+package com.nagi.neopreference;
+
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class PropertyDescriptorTest {
+
+    enum Size {
+        SMALL, LARGE
+    }
+
+    enum Shape {
+        ROUND, SQUARE
+    }
+
+    interface DescriptorConfig extends Config {
+        @IntItem(key = "mode", valueOf = {1, 2, 4, 8})
+        Property<Integer> mode();
+
+        @StringSetItem(key = "formats", valueOf = {"mp3", "mp4", "png"})
+        Property<Set<String>> formats();
+
+        @BooleanItem
+        Property<Boolean> enabled();
+
+        @BooleanItem
+        Property<Boolean> visible();
+
+        @EnumItem(key = "kind")
+        Property<Size> size();
+
+        @IntArrayItem(key = "scores")
+        Property<int[]> scores();
+    }
+
+    interface OtherConfig extends Config {
+        @EnumItem(key = "kind")
+        Property<Shape> shape();
+    }
+
+    private static Factories.Descriptor<?, ?> descriptorOf(Class<?> configClass, String name, String preferenceName) throws NoSuchMethodException {
+        Method method = configClass.getMethod(name);
+        PropertyWrapper<?> wrapper = (PropertyWrapper<?>) PropertyFactory.get(preferenceName, new MemoryPreferences(), method).get();
+        return ((Factories.DescribedProperty<?, ?, ?>) wrapper.impl).descriptor;
+    }
+
+    @Test
+    public void sameMethod_sharesOneDescriptor() throws Exception {
+        for (String name : new String[]{"mode", "formats", "enabled", "size", "scores"}) {
+            Factories.Descriptor<?, ?> first = descriptorOf(DescriptorConfig.class, name, "descriptor_a");
+            Factories.Descriptor<?, ?> second = descriptorOf(DescriptorConfig.class, name, "descriptor_b");
+            assertSame(name, first, second);
+        }
+    }
+
+    @Test
+    public void descriptor_holdsKeyAnnotationAndValues() throws Exception {
+        Method method = DescriptorConfig.class.getMethod("mode");
+        Config.IntItem annotation = method.getAnnotation(Config.IntItem.class);
+        Factories.Descriptor<Config.IntItem, int[]> descriptor = Factories.descriptorOf("mode", annotation, null, a -> a.valueOf());
+
+        assertSame(descriptor, descriptorOf(DescriptorConfig.class, "mode", "descriptor_c"));
+        assertEquals("mode", descriptor.key);
+        assertEquals(annotation, descriptor.annotation);
+        assertArrayEquals(new int[]{1, 2, 4, 8}, descriptor.values);
+    }
+
+    @Test
+    public void differentDeclarations_doNotShareDescriptors() throws Exception {
+        // equal annotations with the method name as key
+        assertNotSame(descriptorOf(DescriptorConfig.class, "enabled", "descriptor_d"),
+                descriptorOf(DescriptorConfig.class, "visible", "descriptor_d"));
+        // equal annotations and keys on different enum types
+        assertNotSame(descriptorOf(DescriptorConfig.class, "size", "descriptor_d"),
+                descriptorOf(OtherConfig.class, "shape", "descriptor_d"));
+    }
+}
@@ -0,0 +1,65 @@
+package com.nagi.neopreference;
+
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class PropertyFootprintTest {
+    private static final int CONFIG_COUNT = 2000;
+    // about 150 bytes on a 64-bit JVM with compressed oops, 425 when every property built its own metadata
+    private static final long MAX_BYTES_PER_PROPERTY = 300;
+
+    interface FootprintConfig extends Config {
+        @IntItem(key = "mode", valueOf = {1, 2, 4, 8})
+        Property<Integer> mode();
+
+        @LongItem(key = "timestamp", start = 0)
+        Property<Long> timestamp();
+
+        @FloatItem(key = "ratio", valueOf = {0.5f, 1f, 2f})
+        Property<Float> ratio();
+
+        @StringItem(key = "channel", valueOf = {"stable", "beta", "dev"})
+        Property<String> channel();
+
+        @StringSetItem(key = "formats", valueOf = {"mp3", "mp4", "png"})
+        Property<Set<String>> formats();
+
+        @BooleanItem(key = "enabled")
+        Property<Boolean> enabled();
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Test
+    public void bytesPerProperty_staysUnderTheBound() {
+        Method[] methods = FootprintConfig.class.getDeclaredMethods();
+        MemoryPreferences preferences = new MemoryPreferences();
+        Object[] retained = new Object[CONFIG_COUNT * methods.length];
+
+        long before = usedMemory();
+        int index = 0;
+        for (int i = 0; i < CONFIG_COUNT; i++) {
+            for (Method method : methods) {
+                Lazy<Property<?>> lazy = PropertyFactory.get("footprint_" + (i % 10), preferences, method);
+                lazy.get();
+                retained[index++] = lazy;
+            }
+        }
+        long after = usedMemory();
+
+        long bytesPerProperty = (after - before) / retained.length;
+        System.out.printf("properties=%d bytes/property=%d%n", retained.length, bytesPerProperty);
+        assertTrue("bytes/property=" + bytesPerProperty, bytesPerProperty > 0 && bytesPerProperty < MAX_BYTES_PER_PROPERTY);
+        assertNotNull(retained[retained.length - 1]);
+    }
+}
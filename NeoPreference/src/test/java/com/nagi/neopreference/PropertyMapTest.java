@@ -0,0 +1,196 @@
+package com.nagi.neopreference;
+
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+public class PropertyMapTest {
+
+    interface DraftConfig extends Config {
+        @StringItem(key = "draft", valueOf = {"", "hello", "world", "again"})
+        PropertyMap<Long, String> drafts();
+
+        @IntItem(key = "recent", start = 0, to = 100)
+        @MaxSize(2)
+        PropertyMap<String, Integer> recent();
+    }
+
+    interface ExpiringMapConfig extends Config {
+        @StringItem(key = "token")
+        @Expires(value = 1, unit = TimeUnit.HOURS)
+        PropertyMap<String, String> tokens();
+    }
+
+    @Config.Volatile
+    interface OverlappingKeyConfig extends Config {
+        @StringItem(key = "draft")
+        PropertyMap<Long, String> drafts();
+
+        @StringItem(key = "draft_title")
+        Property<String> draftTitle();
+    }
+
+    @Config.Volatile
+    interface OverlappingMapConfig extends Config {
+        @StringItem(key = "draft")
+        PropertyMap<String, String> drafts();
+
+        @IntItem(key = "draft_count")
+        PropertyMap<String, Integer> draftCounts();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> PropertyMap<K, V> mapOf(MemoryPreferences preferences, String name) throws NoSuchMethodException {
+        return (PropertyMap<K, V>) PropertyFactory.getMap("map_test", preferences, DraftConfig.class.getMethod(name)).get();
+    }
+
+    @Test
+    public void entries_areStoredUnderTheFamilyKey() throws NoSuchMethodException {
+        MemoryPreferences preferences = new MemoryPreferences();
+        PropertyMap<Long, String> drafts = mapOf(preferences, "drafts");
+        assertFalse(drafts.contains(42L));
+        assertEquals("none", drafts.get(42L, "none"));
+
+        drafts.set(42L, "hello");
+        drafts.set(7L, "world");
+        assertEquals("hello", preferences.getString("draft_42", null));
+        assertEquals("world", drafts.get(7L));
+        assertTrue(drafts.contains(42L));
+        assertEquals(new LinkedHashSet<>(Arrays.asList(42L, 7L)), drafts.keySet());
+
+        drafts.remove(42L);
+        assertFalse(preferences.contains("draft_42"));
+        assertEquals(1, drafts.size());
+        drafts.clear();
+        assertEquals(0, drafts.size());
+        assertFalse(preferences.contains("draft_7"));
+    }
+
+    @Test
+    public void entries_areValidatedLikeAProperty() throws NoSuchMethodException {
+        PropertyMap<Long, String> drafts = mapOf(new MemoryPreferences(), "drafts");
+        try {
+            drafts.set(1L, "not allowed");
+            fail("value outside valueOf was accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertFalse(drafts.contains(1L));
+    }
+
+    @Test
+    public void maxSize_evictsTheLeastRecentlySetEntry() throws NoSuchMethodException {
+        MemoryPreferences preferences = new MemoryPreferences();
+        PropertyMap<String, Integer> recent = mapOf(preferences, "recent");
+        recent.set("a", 1);
+        recent.set("b", 2);
+        recent.set("a", 3);
+        recent.set("c", 4);
+
+        assertEquals(2, recent.size());
+        assertFalse(recent.contains("b"));
+        assertFalse(preferences.contains("recent_b"));
+        assertEquals(3, (int) recent.get("a"));
+        assertEquals(4, (int) recent.get("c"));
+    }
+
+    @Test
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void entryProperties_areCachedUpToMaxSize() throws NoSuchMethodException {
+        MemoryPreferences preferences = new MemoryPreferences();
+        Config.IntItem annotation = DraftConfig.class.getMethod("recent").getAnnotation(Config.IntItem.class);
+        PropertyFactory factory = Factories.getFactoryForType(Integer.class);
+        AtomicInteger created = new AtomicInteger();
+        PropertyMap<String, Integer> recent = new KeyedPropertyMap<String, Integer>("recent", "map_test", preferences, entryPreferences -> {
+            created.incrementAndGet();
+            return factory.createProperty("recent", annotation, "map_test", entryPreferences);
+        }, Function.identity(), 2);
+
+        recent.set("a", 1);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(1, (int) recent.get("a"));
+        }
+        assertEquals(1, created.get());
+
+        recent.set("b", 2);
+        recent.set("c", 3);
+        assertEquals(3, created.get());
+        // "a" was evicted from the cache with its entry and is created again
+        assertEquals(0, (int) recent.get("a", 0));
+        assertEquals(4, created.get());
+    }
+
+    @Test
+    public void keySetWithPrefix_visitsOnlyMatchingEntries() throws NoSuchMethodException {
+        MemoryPreferences preferences = new MemoryPreferences();
+        preferences.edit().putString("draft_12", "a").putString("draft_120", "b").putString("draft_13", "c")
+                .putString("draft_2", "d").putString("draft_legacy", "e").commit();
+        PropertyMap<Long, String> drafts = mapOf(preferences, "drafts");
+
+        assertEquals(new LinkedHashSet<>(Arrays.asList(12L, 120L)), drafts.keySet("12"));
+        assertEquals(new LinkedHashSet<>(Arrays.asList(12L, 120L, 13L)), drafts.keySet("1"));
+        assertEquals(drafts.keySet(), drafts.keySet(""));
+        assertTrue(drafts.keySet("3").isEmpty());
+    }
+
+    @Test
+    public void expires_isRejected() throws NoSuchMethodException {
+        try {
+            PropertyFactory.getMap("map_test", new MemoryPreferences(), ExpiringMapConfig.class.getMethod("tokens"));
+            fail("@Expires on a property map was accepted");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void keysUnderThePrefix_whichAreNoEntry_areLeftAlone() throws NoSuchMethodException {
+        MemoryPreferences preferences = new MemoryPreferences();
+        preferences.edit().putString("draft_7", "hello").putString("draft_legacy", "x").commit();
+        PropertyMap<Long, String> drafts = mapOf(preferences, "drafts");
+
+        assertEquals(Collections.singleton(7L), drafts.keySet());
+        assertEquals(1, drafts.size());
+        drafts.clear();
+        assertFalse(preferences.contains("draft_7"));
+        assertEquals("x", preferences.getString("draft_legacy", null));
+    }
+
+    @Test
+    public void overlappingPrefixes_areRejected() {
+        for (Class<? extends Config> pClass : Arrays.asList(OverlappingKeyConfig.class, OverlappingMapConfig.class)) {
+            try {
+                ConfigManager.getInstance().getConfig(pClass);
+                fail("overlapping prefix was accepted by " + pClass.getSimpleName());
+            } catch (IllegalStateException e) {
+
+            }
+        }
+    }
+
+    @Test
+    public void evictionAndClear_notifyConfigListeners() throws NoSuchMethodException {
+        MemoryPreferences preferences = new MemoryPreferences();
+        PropertyMap<String, Integer> recent = mapOf(preferences, "recent");
+        List<String> changes = new ArrayList<>();
+        ConfigManager.Listener listener = (key, value) -> changes.add(key + "=" + value);
+        ConfigManager.getInstance().addListener("map_test", listener);
+        try {
+            recent.set("a", 1);
+            recent.set("b", 2);
+            recent.set("c", 3);
+            assertEquals(Arrays.asList("recent_a=1", "recent_b=2", "recent_a=null", "recent_c=3"), changes);
+
+            changes.clear();
+            recent.clear();
+            assertEquals(Arrays.asList("recent_b=null", "recent_c=null"), changes);
+        } finally {
+            ConfigManager.getInstance().removeListener("map_test", listener);
+        }
+    }
+}
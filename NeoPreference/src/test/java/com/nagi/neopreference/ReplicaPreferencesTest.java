@@ -0,0 +1,95 @@
+package com.nagi.neopreference;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ReplicaPreferencesTest {
+    private static final String NAME = "replica_test";
+
+    interface ReplicaConfig extends Config {
+        @CounterItem(key = "launches")
+        Counter launches();
+
+        @IntItem(key = "count")
+        Property<Integer> count();
+    }
+
+    @Test
+    public void reload_notifiesChangedKeysOnly() {
+        MemoryPreferences file = new MemoryPreferences();
+        file.edit().putInt("count", 1).putString("name", "a").putBoolean("flag", true).commit();
+        // stands in for the owner process rewriting the file
+        ReplicaPreferences replica = new ReplicaPreferences(file, NAME, "owner", () ->
+                file.edit().putInt("count", 2).putString("name", "a").remove("flag").putLong("id", 7L).commit());
+        Map<String, Object> changes = new HashMap<>();
+        ConfigManager.Listener listener = changes::put;
+        ConfigManager.getInstance().addListener(NAME, listener);
+        try {
+            replica.reload();
+        } finally {
+            ConfigManager.getInstance().removeListener(NAME, listener);
+        }
+
+        Map<String, Object> expected = new HashMap<>();
+        expected.put("count", 2);
+        expected.put("flag", null);
+        expected.put("id", 7L);
+        assertEquals(expected, changes);
+        assertEquals(2, replica.getInt("count", 0));
+    }
+
+    @Test
+    public void writes_areRejected() {
+        ReplicaPreferences replica = new ReplicaPreferences(new MemoryPreferences(), NAME, "owner", () -> {
+        });
+        try {
+            replica.edit().putInt("count", 1);
+            fail("replica accepted a write");
+        } catch (IllegalStateException e) {
+
+        }
+        assertTrue(ForwardingPreferences.isReadOnly(new ExpiringPreferences(replica, Collections.singletonMap("count", 1000L))));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void counter_rejectsWritesUpFront() throws Exception {
+        MemoryPreferences file = new MemoryPreferences();
+        file.edit().putLong("launches", 4L).commit();
+        ReplicaPreferences replica = new ReplicaPreferences(file, NAME, "owner", () -> {
+        });
+        Counter launches = (Counter) PropertyFactory.get(NAME, replica, ReplicaConfig.class.getMethod("launches")).get();
+
+        try {
+            launches.incrementAndGet();
+            fail("replica counter accepted an increment");
+        } catch (IllegalStateException e) {
+
+        }
+        try {
+            launches.set(9L);
+            fail("replica counter accepted a set");
+        } catch (IllegalStateException e) {
+
+        }
+        assertEquals(4L, launches.get().longValue());
+        Property<Integer> count = (Property<Integer>) PropertyFactory.get(NAME, replica, ReplicaConfig.class.getMethod("count")).get();
+        assertEquals(0, (int) count.get());
+    }
+
+    @Test
+    public void flushAll_continuesAfterAFailingWriter() {
+        List<String> flushed = new ArrayList<>();
+        DeferredWrites.schedule(() -> {
+            throw new IllegalStateException("read-only");
+        });
+        DeferredWrites.schedule(() -> flushed.add("second"));
+
+        DeferredWrites.flushAll();
+
+        assertEquals(Collections.singletonList("second"), flushed);
+    }
+}
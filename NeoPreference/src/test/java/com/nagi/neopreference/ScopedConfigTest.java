@@ -0,0 +1,105 @@
+package com.nagi.neopreference;
+
+import android.content.SharedPreferences;
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ScopedConfigTest {
+
+    @Config.Volatile
+    @Config.Name("scoped_test")
+    interface ScopedConfig extends Config {
+        @IntItem(key = "count")
+        Property<Integer> count();
+
+        @CounterItem(key = "visits")
+        Counter visits();
+    }
+
+    @After
+    public void resetCapacity() {
+        ConfigManager.getInstance().setScopedConfigCapacity(8);
+    }
+
+    @Test
+    public void encodeScope_isInjective() {
+        assertEquals("user_1", ConfigManager.encodeScope("user_1"));
+        assertEquals("user%401", ConfigManager.encodeScope("user@1"));
+        assertEquals("a%25b", ConfigManager.encodeScope("a%b"));
+        assertEquals("%E4%B8%AD", ConfigManager.encodeScope("\u4e2d"));
+        assertEquals("a%2Fb", ConfigManager.encodeScope("a/b"));
+    }
+
+    @Test
+    public void similarScopes_useDistinctFiles() {
+        ConfigManager manager = ConfigManager.getInstance();
+        ScopedConfig at = manager.getConfig(ScopedConfig.class, "user@1");
+        ScopedConfig underscore = manager.getConfig(ScopedConfig.class, "user_1");
+        at.count().set(5);
+
+        assertNotSame(at, underscore);
+        assertEquals("scoped_test_user%401", at.count().getPreferenceName());
+        assertEquals("scoped_test_user_1", underscore.count().getPreferenceName());
+        assertEquals(0, (int) underscore.count().get());
+        assertEquals(5, (int) at.count().get());
+    }
+
+    @Test
+    public void releasedConfig_inUse_isReturnedAgain() throws Exception {
+        ConfigManager manager = ConfigManager.getInstance();
+        manager.setScopedConfigCapacity(1);
+        ScopedConfig first = manager.getConfig(ScopedConfig.class, "release_a");
+        Counter visits = first.visits();
+        visits.incrementAndGet();
+
+        // releases the first config
+        manager.getConfig(ScopedConfig.class, "release_b");
+        visits.incrementAndGet();
+
+        ScopedConfig again = manager.getConfig(ScopedConfig.class, "release_a");
+        assertSame(first, again);
+        assertSame(visits, again.visits());
+        assertEquals(2, again.visits().get().longValue());
+    }
+
+    @Test
+    public void flush_ofReleasedConfigInUse_succeeds() throws Exception {
+        ConfigManager manager = ConfigManager.getInstance();
+        manager.setScopedConfigCapacity(1);
+        ScopedConfig first = manager.getConfig(ScopedConfig.class, "flush_a");
+        manager.getConfig(ScopedConfig.class, "flush_b");
+        first.count().set(3);
+
+        assertNull(manager.flush(first.count().getPreferenceName()).get(5, TimeUnit.SECONDS));
+        assertNull(manager.flush().get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void releasedConfig_notInUse_letsItsStoreBeCollected() throws Exception {
+        ConfigManager manager = ConfigManager.getInstance();
+        manager.setScopedConfigCapacity(1);
+        WeakReference<SharedPreferences> store = openAndRelease(manager);
+
+        for (int i = 0; i < 50 && store.get() != null; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertNull(store.get());
+        assertEquals(0, (int) manager.getConfig(ScopedConfig.class, "collect_a").count().get());
+    }
+
+    private static WeakReference<SharedPreferences> openAndRelease(ConfigManager manager) {
+        ScopedConfig config = manager.getConfig(ScopedConfig.class, "collect_a");
+        config.count().set(7);
+        Property.BaseProperty<?> count = (Property.BaseProperty<?>) ((PropertyWrapper<?>) config.count()).impl;
+        WeakReference<SharedPreferences> store = new WeakReference<>(((ForwardingPreferences) count.getPreferences()).base);
+        // releases the first config
+        manager.getConfig(ScopedConfig.class, "collect_b");
+        return store;
+    }
+}
@@ -0,0 +1,152 @@
+package com.nagi.neopreference;
+
+import android.content.SharedPreferences;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+public class ShardedPreferencesTest {
+
+    @Config.Sharded(count = 2)
+    interface RoutedConfig extends Config {
+        @Shard("session")
+        @StringItem(key = "token")
+        Property<String> token();
+
+        @IntItem(key = "count")
+        Property<Integer> count();
+    }
+
+    @Config.Sharded(count = 2)
+    interface ReservedShardConfig extends Config {
+        @Shard("shard0")
+        @StringItem(key = "token")
+        Property<String> token();
+    }
+
+    @Config.Sharded(count = 2)
+    interface ColdShardConfig extends Config {
+        @Shard("cold")
+        @StringItem(key = "token")
+        Property<String> token();
+    }
+
+    private final Map<String, MemoryPreferences> files = new HashMap<>();
+    private final List<String> openedShards = new ArrayList<>();
+
+    private ShardedPreferences shardedOf(String... names) {
+        Map<String, Function<String, SharedPreferences>> shards = new LinkedHashMap<>();
+        for (String name : names) {
+            shards.put(name, n -> {
+                openedShards.add(n);
+                return files.computeIfAbsent(n, key -> new MemoryPreferences());
+            });
+        }
+        return new ShardedPreferences(shards, key -> key.startsWith("a") ? names[0] : names[1]);
+    }
+
+    @Test
+    public void writes_goToTheRoutedShardOnly() {
+        ShardedPreferences preferences = shardedOf("first", "second");
+
+        preferences.edit().putInt("a_count", 1).commit();
+
+        assertEquals(Collections.singletonList("first"), openedShards);
+        assertEquals(1, files.get("first").getInt("a_count", 0));
+        assertEquals(1, preferences.getInt("a_count", 0));
+        assertFalse(preferences.contains("b_count"));
+        assertEquals(Arrays.asList("first", "second"), openedShards);
+    }
+
+    @Test
+    public void oneEditor_isSplitAcrossShards() {
+        ShardedPreferences preferences = shardedOf("first", "second");
+        List<String> changedKeys = new ArrayList<>();
+        preferences.registerOnSharedPreferenceChangeListener((sharedPreferences, key) -> changedKeys.add(key));
+
+        preferences.edit().putString("a_name", "x").putLong("b_id", 3).commit();
+
+        assertEquals(Collections.singleton("a_name"), files.get("first").getAll().keySet());
+        assertEquals(Collections.singleton("b_id"), files.get("second").getAll().keySet());
+        assertEquals(new HashSet<>(Arrays.asList("a_name", "b_id")), preferences.getAll().keySet());
+        assertEquals(new HashSet<>(Arrays.asList("a_name", "b_id")), new HashSet<>(changedKeys));
+
+        preferences.edit().clear().commit();
+        assertTrue(preferences.getAll().isEmpty());
+    }
+
+    /**
+     * Holds its listeners weakly like SharedPreferencesImpl.
+     */
+    private static final class WeakListenerPreferences extends ForwardingPreferences {
+        private final Map<OnSharedPreferenceChangeListener, Boolean> weakListeners = Collections.synchronizedMap(new WeakHashMap<>());
+        private final OnSharedPreferenceChangeListener forwarding = (preferences, key) -> {
+            List<OnSharedPreferenceChangeListener> listeners;
+            synchronized (weakListeners) {
+                listeners = new ArrayList<>(weakListeners.keySet());
+            }
+            for (OnSharedPreferenceChangeListener listener : listeners) {
+                listener.onSharedPreferenceChanged(this, key);
+            }
+        };
+
+        WeakListenerPreferences(SharedPreferences base) {
+            super(base);
+            base.registerOnSharedPreferenceChangeListener(forwarding);
+        }
+
+        @Override
+        public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+            weakListeners.put(listener, Boolean.TRUE);
+        }
+
+        @Override
+        public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+            weakListeners.remove(listener);
+        }
+    }
+
+    @Test
+    public void listeners_receiveChangesOfEveryShard_afterGc() throws InterruptedException {
+        Map<String, Function<String, SharedPreferences>> shards = new LinkedHashMap<>();
+        shards.put("first", n -> new WeakListenerPreferences(new MemoryPreferences()));
+        shards.put("second", n -> new WeakListenerPreferences(new MemoryPreferences()));
+        ShardedPreferences preferences = new ShardedPreferences(shards, key -> key.startsWith("a") ? "first" : "second");
+        List<String> changedKeys = new ArrayList<>();
+        preferences.registerOnSharedPreferenceChangeListener((sharedPreferences, key) -> {
+            assertSame(preferences, sharedPreferences);
+            changedKeys.add(key);
+        });
+        preferences.getAll();
+
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        preferences.edit().putString("a_name", "x").putInt("b_id", 1).commit();
+
+        assertEquals(new HashSet<>(Arrays.asList("a_name", "b_id")), new HashSet<>(changedKeys));
+    }
+
+    @Test
+    public void shardAnnotation_routesToNamedFile() {
+        Map<String, String> routes = ConfigManager.shardRoutesOf(RoutedConfig.class, "routed");
+
+        assertEquals(Collections.singletonMap("token", "routed_session"), routes);
+    }
+
+    @Test
+    public void reservedShardNames_areRejected() {
+        for (Class<?> pClass : Arrays.asList(ReservedShardConfig.class, ColdShardConfig.class)) {
+            try {
+                ConfigManager.shardRoutesOf(pClass, "reserved");
+                fail("reserved shard name was accepted by " + pClass.getSimpleName());
+            } catch (IllegalStateException expected) {
+                assertTrue(expected.getMessage().contains("reserved"));
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.nagi.neopreference;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class StorageReportTest {
+
+    @Test
+    public void encodedSize_matchesXmlEntry() {
+        assertEquals("<int name=\"count\" value=\"12\" />".length(), StorageReport.encodedSizeOf("count", 12));
+        assertEquals("<boolean name=\"on\" value=\"true\" />".length(), StorageReport.encodedSizeOf("on", true));
+        assertEquals("<string name=\"a&amp;b\">&lt;x&gt;</string>".length(), StorageReport.encodedSizeOf("a&b", "<x>"));
+        assertEquals("<set name=\"s\"><string>v</string></set>".length(), StorageReport.encodedSizeOf("s", Collections.singleton("v")));
+    }
+
+    @Test
+    public void analyze_reportsSizesLargestAndOrphans() {
+        Map<String, Object> hot = new HashMap<>();
+        hot.put("name", "neo");
+        hot.put("age", 18);
+        hot.put("legacy_flag", true);
+        hot.put(ExpiringPreferences.DEADLINE_PREFIX + "name", 1000L);
+        Map<String, Object> cold = new HashMap<>();
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            builder.append('x');
+        }
+        cold.put("history", builder.toString());
+        cold.put("removed_feature", "on");
+
+        Set<String> declaredKeys = new HashSet<>(Arrays.asList("name", "age", "history"));
+        StorageReport report = StorageReport.analyze("demo", 4096, Arrays.asList(hot, cold), declaredKeys, Collections.emptySet());
+
+        assertEquals("demo", report.getName());
+        assertEquals(4096, report.getFileSize());
+        assertEquals(6, report.getKeyCount());
+        assertEquals("history", report.getLargestKeys().get(0));
+        assertEquals(6, report.getLargestKeys().size());
+        assertEquals(Arrays.asList("legacy_flag", "removed_feature"), report.getOrphanKeys());
+        long total = 0;
+        for (int size : report.getKeySizes().values()) {
+            total += size;
+        }
+        assertEquals(total, report.getEncodedSize());
+    }
+
+    @Test
+    public void analyze_countsSpilledBlobs() {
+        Map<String, Object> store = new HashMap<>();
+        String reference = BlobPreferences.REFERENCE_PREFIX + "0123abcd";
+        store.put("body", reference);
+        store.put("title", "short");
+
+        StorageReport report = StorageReport.analyze("spilled", 0, Collections.singletonList(store),
+                Collections.singletonMap("body", 50_000L), store.keySet(), Collections.emptySet());
+
+        assertEquals(StorageReport.encodedSizeOf("body", reference) + 50_000, (int) report.getKeySizes().get("body"));
+        assertEquals(StorageReport.encodedSizeOf("title", "short"), (int) report.getKeySizes().get("title"));
+        assertEquals("body", report.getLargestKeys().get(0));
+        assertEquals(report.getKeySizes().get("body") + report.getKeySizes().get("title"), report.getEncodedSize());
+    }
+
+    @Test
+    public void fileNames_followTheShardLayout() {
+        assertEquals("demo_shard3", ConfigManager.shardFileName("demo", 3));
+        assertEquals("demo_avatars", ConfigManager.shardFileName("demo", "avatars"));
+        assertEquals("demo_cold", ConfigManager.coldFileName("demo"));
+    }
+
+    @Test
+    public void isOrphan_followsDeclaredAndInternalKeys() {
+        Set<String> declaredKeys = new HashSet<>(Arrays.asList("token", "kept"));
+        assertFalse(StorageReport.isOrphan("token", declaredKeys, Collections.emptySet()));
+        assertTrue(StorageReport.isOrphan("old_token", declaredKeys, Collections.emptySet()));
+        assertFalse(StorageReport.isOrphan(ExpiringPreferences.DEADLINE_PREFIX + "token", declaredKeys, Collections.emptySet()));
+        assertTrue(StorageReport.isOrphan(ExpiringPreferences.DEADLINE_PREFIX + "old_token", declaredKeys, Collections.emptySet()));
+        assertFalse(StorageReport.isOrphan(StorageReport.INTERNAL_KEY_PREFIX + "_other", declaredKeys, Collections.emptySet()));
+        assertFalse(StorageReport.isOrphan("draft_42", declaredKeys, Collections.singleton("draft_")));
+        assertTrue(StorageReport.isOrphan("drafts", declaredKeys, Collections.singleton("draft_")));
+    }
+
+    @Test
+    public void analyze_keepsOnlyTheLargestKeys() {
+        Map<String, Object> store = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            store.put(String.format(Locale.ROOT, "key_%03d", i), (long) i << 40);
+        }
+        StorageReport report = StorageReport.analyze("many", 0, Collections.singletonList(store), store.keySet(), Collections.emptySet());
+        assertEquals(100, report.getKeyCount());
+        assertEquals(10, report.getLargestKeys().size());
+        assertTrue(report.getOrphanKeys().isEmpty());
+        int previous = Integer.MAX_VALUE;
+        for (String key : report.getLargestKeys()) {
+            int size = report.getKeySizes().get(key);
+            assertTrue(size <= previous);
+            previous = size;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.nagi.neopreference;
+
+import android.content.SharedPreferences;
+import androidx.annotation.Nullable;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class WriteElisionTest {
+
+    interface SyncConfig extends Config {
+        @IntItem(key = "version")
+        Property<Integer> version();
+
+        @FloatItem(key = "ratio")
+        Property<Float> ratio();
+
+        @StringSetItem(key = "tags")
+        Property<Set<String>> tags();
+
+        @StringItem(key = "body")
+        Property<String> body();
+    }
+
+    private static final class CountingPreferences extends ForwardingPreferences {
+        int editCount;
+
+        CountingPreferences() {
+            super(new MemoryPreferences());
+        }
+
+        @Override
+        public SharedPreferences.Editor edit() {
+            editCount++;
+            return super.edit();
+        }
+    }
+
+    private static final class ReadCountingPreferences extends ForwardingPreferences {
+        int readCount;
+
+        ReadCountingPreferences(SharedPreferences base) {
+            super(base);
+        }
+
+        @Nullable
+        @Override
+        public String getString(String key, @Nullable String defValue) {
+            readCount++;
+            return super.getString(key, defValue);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Property<T> propertyOf(SharedPreferences preferences, String name) throws NoSuchMethodException {
+        return (Property<T>) PropertyFactory.get("elision_test", preferences, SyncConfig.class.getMethod(name)).get();
+    }
+
+    @Test
+    public void equalValue_isNotWrittenOrNotified() throws NoSuchMethodException {
+        CountingPreferences preferences = new CountingPreferences();
+        Property<Integer> version = propertyOf(preferences, "version");
+        List<Integer> changes = new ArrayList<>();
+        version.addListener(changes::add);
+        long elided = ConfigManager.getInstance().getElidedWriteCount();
+
+        version.set(0);
+        version.set(0);
+        version.set(0);
+        assertTrue(version.compareAndSet(0, 0));
+        version.updateAndGet(value -> value);
+
+        assertEquals(1, preferences.editCount);
+        assertEquals(Collections.singletonList(0), changes);
+        assertEquals(elided + 4, ConfigManager.getInstance().getElidedWriteCount());
+    }
+
+    @Test
+    public void floatAndSet_compareByStoredValue() throws NoSuchMethodException {
+        CountingPreferences preferences = new CountingPreferences();
+        Property<Float> ratio = propertyOf(preferences, "ratio");
+        Property<Set<String>> tags = propertyOf(preferences, "tags");
+
+        ratio.set(Float.NaN);
+        ratio.set(Float.NaN);
+        assertEquals(1, preferences.editCount);
+        ratio.set(-0f);
+        ratio.set(0f);
+        assertEquals(3, preferences.editCount);
+
+        tags.set(new HashSet<>(Arrays.asList("a", "b")));
+        tags.set(new TreeSet<>(Arrays.asList("b", "a")));
+        assertEquals(4, preferences.editCount);
+        tags.set(Collections.singleton("a"));
+        assertEquals(5, preferences.editCount);
+    }
+
+    @Test
+    public void changeListener_receivesOldAndNewValue() throws NoSuchMethodException {
+        Property<Integer> version = propertyOf(new CountingPreferences(), "version");
+        List<String> changes = new ArrayList<>();
+        version.addChangeListener((oldValue, newValue) -> changes.add(oldValue + "->" + newValue));
+
+        version.set(1);
+        version.set(1);
+        version.updateAndGet(value -> value + 1);
+
+        assertEquals(Arrays.asList("0->1", "1->2"), changes);
+    }
+
+    @Test
+    public void valueStoredWithAnotherType_isOverwritten() throws NoSuchMethodException {
+        MemoryPreferences preferences = new MemoryPreferences();
+        preferences.edit().putString("version", "1.0").commit();
+        Property<Integer> version = propertyOf(preferences, "version");
+        List<Integer> changes = new ArrayList<>();
+        version.addListener(changes::add);
+
+        version.set(2);
+
+        assertEquals(2, preferences.getInt("version", 0));
+        assertEquals(Collections.singletonList(2), changes);
+    }
+
+    @Test
+    public void spilledValue_isOnlyReadBackForChangeListeners() throws NoSuchMethodException, IOException, InterruptedException {
+        String first = "0123456789abcdefghijklmnopqrstuvwxyz";
+        String second = "zyxwvutsrqponmlkjihgfedcba9876543210!";
+        File directory = Files.createTempDirectory("elision").toFile();
+        MemoryPreferences base = new MemoryPreferences();
+        try {
+            new BlobPreferences(base, "elision_test", directory, 16).edit().putString("body", first).commit();
+            ReadCountingPreferences preferences = new ReadCountingPreferences(new BlobPreferences(base, "elision_test", directory, 16));
+            Property<String> body = propertyOf(preferences, "body");
+
+            body.set(second);
+            assertEquals(0, preferences.readCount);
+            assertEquals(second, body.get());
+            // the blob of an applied value is written on the worker, the store is reopened below
+            CountDownLatch idle = new CountDownLatch(1);
+            Workers.execute(idle::countDown);
+            assertTrue(idle.await(5, TimeUnit.SECONDS));
+
+            preferences = new ReadCountingPreferences(new BlobPreferences(base, "elision_test", directory, 16));
+            body = propertyOf(preferences, "body");
+            List<String> changes = new ArrayList<>();
+            body.addChangeListener((oldValue, newValue) -> changes.add(oldValue.length() + "->" + newValue.length()));
+            body.set(first);
+            assertTrue(preferences.readCount > 0);
+            assertEquals(Collections.singletonList(second.length() + "->" + first.length()), changes);
+        } finally {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            directory.delete();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.nagi.neopreference;
+
+import org.junit.Test;
+
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class WriteFutureTest {
+
+    @Config.Volatile
+    @Config.Name("write_future_test")
+    interface AsyncConfig extends Config {
+        @IntItem(key = "count")
+        Property<Integer> count();
+    }
+
+    @Test
+    public void setAsync_completesAfterTheWrite() throws Exception {
+        AsyncConfig config = ConfigManager.getInstance().getConfig(AsyncConfig.class);
+
+        WriteFuture future = config.count().setAsync(3);
+
+        assertNull(future.get(5, TimeUnit.SECONDS));
+        assertTrue(future.isDone());
+        assertEquals(3, (int) config.count().get());
+    }
+
+    @Test
+    public void flushOfUnknownConfig_fails() throws Exception {
+        WriteFuture future = ConfigManager.getInstance().flush("write_future_test_unknown");
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("flush of a config which is not open succeeded");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void listener_runsOnCompletionOrRightAway() throws Exception {
+        WriteFuture future = new WriteFuture();
+        CountDownLatch called = new CountDownLatch(2);
+        future.addListener(called::countDown, Runnable::run);
+        assertEquals(2, called.getCount());
+
+        future.complete(null);
+        assertEquals(1, called.getCount());
+        future.addListener(called::countDown, Runnable::run);
+        assertEquals(0, called.getCount());
+
+        future.complete(new IllegalStateException("ignored, already completed"));
+        assertNull(future.get());
+    }
+
+    @Test
+    public void get_timesOutWhilePending() throws Exception {
+        try {
+            new WriteFuture().get(10, TimeUnit.MILLISECONDS);
+            fail("pending future returned");
+        } catch (TimeoutException e) {
+            // expected
+        }
+    }
+}
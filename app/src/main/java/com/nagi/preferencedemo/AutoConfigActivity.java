@@ -7,6 +7,7 @@ import android.text.Editable;
 import android.text.InputType;
 import android.text.TextUtils;
 import android.text.TextWatcher;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -15,18 +16,22 @@ import androidx.annotation.NonNull;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import android.os.Bundle;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.DividerItemDecoration;
 import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 import com.nagi.neopreference.Config;
 import com.nagi.neopreference.ConfigManager;
 import com.nagi.neopreference.Property;
+import com.nagi.neopreference.StorageReport;
 import com.nagi.preferencedemo.databinding.ActivityAutoConfigBinding;
 import com.nagi.preferencedemo.databinding.DialogInputBinding;
 import com.nagi.preferencedemo.databinding.HolderConfigPropertyBinding;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 
@@ -38,6 +43,7 @@ public class AutoConfigActivity extends AppCompatActivity {
     private static final int STRING_TYPE = 3;
     private static final int BOOLEAN_TYPE = 4;
     private static final int LONG_TYPE = 5;
+    private static final int PAGE_SIZE = 50;
 
     public static void start(Activity activity, Class<?> configClass) {
         Intent intent = new Intent(activity, AutoConfigActivity.class);
@@ -46,9 +52,36 @@ public class AutoConfigActivity extends AppCompatActivity {
     }
 
     private final List<Property<?>> propertyList = new ArrayList<>();
+    private String query = "";
+    private int loadedPages = 1;
+    private int filteredCount = 0;
+    private boolean refreshScheduled = false;
+    private final ExecutorService snapshotExecutor = Executors.newSingleThreadExecutor();
+    /**
+     * Rows by key, only touched on {@link #snapshotExecutor}, rebuilt when the key changed.
+     */
+    private final Map<String, Row> rowCache = new HashMap<>();
+    private final Set<String> dirtyKeys = new HashSet<>();
+    private final ConfigManager.Listener configListener = (key, value) -> runOnUiThread(() -> {
+        dirtyKeys.add(key);
+        scheduleRefresh();
+    });
+    private final Choreographer.FrameCallback refreshCallback = frameTimeNanos -> {
+        refreshScheduled = false;
+        refresh();
+    };
 
+    private final ListAdapter<Row, ConfigItemHolder> adapter = new ListAdapter<Row, ConfigItemHolder>(new DiffUtil.ItemCallback<Row>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Row oldItem, @NonNull Row newItem) {
+            return oldItem.key.equals(newItem.key);
+        }
 
-    private final RecyclerView.Adapter<ConfigItemHolder> adapter = new RecyclerView.Adapter<>() {
+        @Override
+        public boolean areContentsTheSame(@NonNull Row oldItem, @NonNull Row newItem) {
+            return oldItem.title.equals(newItem.title) && oldItem.valueString.equals(newItem.valueString);
+        }
+    }) {
         @NonNull
         @Override
         public ConfigItemHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
@@ -72,17 +105,12 @@ public class AutoConfigActivity extends AppCompatActivity {
 
         @Override
         public void onBindViewHolder(@NonNull ConfigItemHolder holder, int position) {
-            holder.setData(propertyList.get(position));
-        }
-
-        @Override
-        public int getItemCount() {
-            return propertyList.size();
+            holder.setData(getItem(position));
         }
 
         @Override
         public int getItemViewType(int position) {
-            Class<?> valueClass = propertyList.get(position).getValueClass();
+            Class<?> valueClass = getItem(position).property.getValueClass();
             if (valueClass.equals(Integer.class)) {
                 return INTEGER_TYPE;
             } else if (valueClass.equals(Float.class)) {
@@ -105,19 +133,128 @@ public class AutoConfigActivity extends AppCompatActivity {
         ActivityAutoConfigBinding binding = ActivityAutoConfigBinding.inflate(getLayoutInflater());
         setContentView(binding.getRoot());
 
+        LinearLayoutManager layoutManager = new LinearLayoutManager(this);
         binding.rvConfigList.setHasFixedSize(true);
         binding.rvConfigList.addItemDecoration(new DividerItemDecoration(this, DividerItemDecoration.VERTICAL));
-        binding.rvConfigList.setLayoutManager(new LinearLayoutManager(this));
+        binding.rvConfigList.setLayoutManager(layoutManager);
         binding.rvConfigList.setAdapter(adapter);
+        binding.rvConfigList.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                int loadedCount = adapter.getItemCount();
+                if (loadedCount < filteredCount && layoutManager.findLastVisibleItemPosition() >= loadedCount - PAGE_SIZE / 2) {
+                    loadedPages = loadedCount / PAGE_SIZE + 1;
+                    scheduleRefresh();
+                }
+            }
+        });
+        binding.etSearch.addTextChangedListener(onTextChanged(s -> {
+            query = s.toString().trim().toLowerCase(Locale.ROOT);
+            loadedPages = 1;
+            scheduleRefresh();
+        }));
 
         Class<? extends Config> configClass = (Class<? extends Config>) getIntent().getSerializableExtra(ARG_CONFIG_CLASS);
         Config config = ConfigManager.getInstance().getConfig(configClass);
         propertyList.addAll(config.getAll());
-        adapter.notifyItemRangeInserted(0, propertyList.size());
+        if (!propertyList.isEmpty()) {
+            String preferenceName = propertyList.get(0).getPreferenceName();
+            ConfigManager.getInstance().addListener(this, preferenceName, configListener);
+            binding.btnStorage.setOnClickListener(v -> showStorageReport(preferenceName));
+        }
+        refresh();
+    }
+
+    private void showStorageReport(String preferenceName) {
+        snapshotExecutor.execute(() -> {
+            String message = ConfigManager.getInstance().analyzeStorage().stream()
+                    .filter(report -> report.getName().equals(preferenceName))
+                    .map(StorageReport::toString)
+                    .findFirst()
+                    .orElse("no storage for " + preferenceName);
+            runOnUiThread(() -> {
+                if (!isDestroyed()) {
+                    new AlertDialog.Builder(this)
+                            .setTitle("Storage")
+                            .setMessage(message)
+                            .setPositiveButton("ok", null)
+                            .show();
+                }
+            });
+        });
+    }
 
-        for (int i = 0; i < propertyList.size(); i++) {
-            int index = i;
-            propertyList.get(i).addListener(this, s -> adapter.notifyItemChanged(index));
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        Choreographer.getInstance().removeFrameCallback(refreshCallback);
+        snapshotExecutor.shutdownNow();
+    }
+
+    /**
+     * Coalesces every change and query update within a frame into one snapshot.
+     */
+    private void scheduleRefresh() {
+        if (!refreshScheduled) {
+            refreshScheduled = true;
+            Choreographer.getInstance().postFrameCallback(refreshCallback);
+        }
+    }
+
+    private void refresh() {
+        if (isDestroyed()) {
+            return;
+        }
+        String query = this.query;
+        int limit = loadedPages * PAGE_SIZE;
+        Set<String> changedKeys = new HashSet<>(dirtyKeys);
+        dirtyKeys.clear();
+        snapshotExecutor.execute(() -> {
+            rowCache.keySet().removeAll(changedKeys);
+            List<Row> rows = new ArrayList<>();
+            int count = 0;
+            for (Property<?> property : propertyList) {
+                if (matches(property, query)) {
+                    if (count++ < limit) {
+                        rows.add(rowCache.computeIfAbsent(property.getKey(), key -> new Row(property)));
+                    }
+                }
+            }
+            int matchedCount = count;
+            List<Row> snapshot = Collections.unmodifiableList(rows);
+            runOnUiThread(() -> {
+                if (!isDestroyed()) {
+                    filteredCount = matchedCount;
+                    adapter.submitList(snapshot);
+                }
+            });
+        });
+    }
+
+    private static boolean matches(Property<?> property, String query) {
+        if (query.isEmpty() || property.getKey().toLowerCase(Locale.ROOT).contains(query)) {
+            return true;
+        }
+        String description = property.getDescription();
+        return description != null && description.toLowerCase(Locale.ROOT).contains(query);
+    }
+
+    /**
+     * Immutable view of a property at the time of the snapshot, binding never reads the store.
+     */
+    static final class Row {
+        final Property<?> property;
+        final String key;
+        final String title;
+        final String valueString;
+
+        Row(Property<?> property) {
+            this.property = property;
+            this.key = property.getKey();
+            this.title = TextUtils.isEmpty(property.getDescription())
+                    ? property.getKey()
+                    : property.getKey() + "(" + property.getDescription() + ")";
+            this.valueString = String.valueOf(property.getValueString());
         }
     }
 
@@ -129,14 +266,15 @@ public class AutoConfigActivity extends AppCompatActivity {
             this.binding = binding;
         }
 
+        @SuppressWarnings("unchecked")
+        void setData(Row row) {
+            binding.tvPropertyName.setText(row.title);
+            binding.tvPropertyValue.setText(row.valueString);
+            setData((Property<T>) row.property);
+        }
+
         void setData(Property<T> property) {
-            if (TextUtils.isEmpty(property.getDescription())) {
-                binding.tvPropertyName.setText(property.getKey());
-            } else {
-                binding.tvPropertyName.setText(property.getKey() + "(" + property.getDescription() + ")");
-            }
 
-            binding.tvPropertyValue.setText(property.getValueString());
         }
     }
 
@@ -148,7 +286,6 @@ public class AutoConfigActivity extends AppCompatActivity {
 
         @Override
         void setData(Property<Integer> property) {
-            super.setData(property);
 
             binding.btnEdit.setOnClickListener(v -> {
                 DialogInputBinding dialogBinding = DialogInputBinding.inflate(LayoutInflater.from(itemView.getContext()));
@@ -176,7 +313,6 @@ public class AutoConfigActivity extends AppCompatActivity {
 
         @Override
         void setData(Property<Float> property) {
-            super.setData(property);
             binding.btnEdit.setOnClickListener(v -> {
                 DialogInputBinding dialogBinding = DialogInputBinding.inflate(LayoutInflater.from(itemView.getContext()));
                 AlertDialog alertDialog = new AlertDialog.Builder(itemView.getContext())
@@ -203,7 +339,6 @@ public class AutoConfigActivity extends AppCompatActivity {
 
         @Override
         void setData(Property<Boolean> property) {
-            super.setData(property);
             binding.btnEdit.setOnClickListener(v -> {
                 AtomicBoolean value = new AtomicBoolean(property.get(false));
                 AlertDialog alertDialog = new AlertDialog.Builder(itemView.getContext())
@@ -224,7 +359,6 @@ public class AutoConfigActivity extends AppCompatActivity {
 
         @Override
         void setData(Property<Long> property) {
-            super.setData(property);
             binding.btnEdit.setOnClickListener(v -> {
                 DialogInputBinding dialogBinding = DialogInputBinding.inflate(LayoutInflater.from(itemView.getContext()));
                 AlertDialog alertDialog = new AlertDialog.Builder(itemView.getContext())
@@ -251,7 +385,6 @@ public class AutoConfigActivity extends AppCompatActivity {
 
         @Override
         void setData(Property<String> property) {
-            super.setData(property);
             binding.btnEdit.setOnClickListener(v -> {
                 DialogInputBinding dialogBinding = DialogInputBinding.inflate(LayoutInflater.from(itemView.getContext()));
                 AlertDialog alertDialog = new AlertDialog.Builder(itemView.getContext())
@@ -277,7 +410,6 @@ public class AutoConfigActivity extends AppCompatActivity {
 
         @Override
         void setData(Property<Object> property) {
-            super.setData(property);
             binding.btnEdit.setVisibility(View.GONE);
         }
     }
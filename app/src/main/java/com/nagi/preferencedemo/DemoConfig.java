@@ -1,6 +1,7 @@
 package com.nagi.preferencedemo;
 
 import com.nagi.neopreference.Config;
+import com.nagi.neopreference.Counter;
 import com.nagi.neopreference.Property;
 
 import java.util.Set;
@@ -27,6 +28,9 @@ public interface DemoConfig extends Config {
     @StringSetItem(key = "collection_media_set", valueOf = {"mp3", "mp4", "png", "jpg", "mkv"})
     Property<Set<String>> collectMediaSet();
 
+    @CounterItem(key = "launch_count", description = "应用启动次数")
+    Counter launchCount();
+
     @JsonData.JsonItem(key = "current_user_info")
     Property<UserInfo> userInfo();
 }
@@ -23,6 +23,7 @@ public class MainActivity extends AppCompatActivity {
         setContentView(binding.getRoot());
 
         DemoConfig config = ConfigManager.getInstance().getConfig(DemoConfig.class);
+        config.launchCount().incrementAndGet();
         binding.etFloat.setText(String.valueOf(config.floatProperty().get()));
         binding.etInt.setText(String.valueOf(config.intProperty().get()));
         binding.etLong.setText(String.valueOf(config.longProperty().get()));